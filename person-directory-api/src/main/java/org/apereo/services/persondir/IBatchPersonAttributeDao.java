@@ -0,0 +1,45 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Optional interface for {@link IPersonAttributeDao}s that can run several queries as one batch, for example
+ * with a single SQL statement. Aggregating DAOs use it to look up all the people found by an earlier DAO at once
+ * instead of querying once per person.
+ */
+public interface IBatchPersonAttributeDao extends IPersonAttributeDao {
+    /**
+     * Runs each of the queries as if passed to
+     * {@link #getPeopleWithMultivaluedAttributes(Map, IPersonAttributeDaoFilter, Set)}.
+     *
+     * @param queries      the queries to run, each a {@link Map} of attribute name to values
+     * @param filter       the filter
+     * @param resultPeople the result people
+     * @return A {@link List} with the results of each query, in the order of the queries. An entry is null if its
+     * query could not be run.
+     * @throws IllegalArgumentException If <code>queries</code> is <code>null.</code>
+     */
+    List<Set<IPersonAttributes>> getBatchedPeopleWithMultivaluedAttributes(List<Map<String, List<Object>>> queries,
+                                                                          IPersonAttributeDaoFilter filter,
+                                                                          Set<IPersonAttributes> resultPeople);
+}
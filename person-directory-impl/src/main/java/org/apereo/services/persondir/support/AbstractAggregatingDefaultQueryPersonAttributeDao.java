@@ -25,14 +25,33 @@ import org.apereo.services.persondir.IPersonAttributeDaoFilter;
 import org.apereo.services.persondir.IPersonAttributes;
 import org.apereo.services.persondir.support.merger.IAttributeMerger;
 import org.apereo.services.persondir.support.merger.MultivaluedAttributeMerger;
+import org.apereo.services.persondir.support.resilience.CallNotPermittedException;
+import org.apereo.services.persondir.support.resilience.CircuitBreakerConfiguration;
+import org.apereo.services.persondir.support.resilience.CircuitBreakerStatistics;
+import org.apereo.services.persondir.support.resilience.ExponentialHealthScore;
+import org.apereo.services.persondir.support.resilience.LatencyRecorder;
+import org.apereo.services.persondir.support.resilience.PersonAttributeDaoCircuitBreaker;
 import org.apereo.services.persondir.util.CollectionsUtil;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -87,11 +106,100 @@ import java.util.Set;
  * <td valign="top">No</td>
  * <td valign="top">false</td>
  * </tr>
+ * <tr>
+ * <td  valign="top">circuitBreakerConfiguration</td>
+ * <td>
+ * If set each child DAO is guarded by its own {@link PersonAttributeDaoCircuitBreaker}. While the circuit of a
+ * child is open the child is skipped without being called, as if it had failed with a {@link RuntimeException}.
+ * </td>
+ * <td valign="top">No</td>
+ * <td valign="top">null</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">executorService</td>
+ * <td>
+ * Executor used to query child DAOs concurrently, by hedged requests and by subclasses such as
+ * {@link CascadingPersonAttributeDao}. It is not shut down by this class.
+ * </td>
+ * <td valign="top">No</td>
+ * <td valign="top">null</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">hedgeDelay</td>
+ * <td>
+ * If <b>stopOnSuccess</b> is true and an <b>executorService</b> is set, the next child DAO is queried in parallel
+ * when the current one has not answered within this delay. The first child to answer without an exception wins,
+ * the slower calls are ignored.
+ * </td>
+ * <td valign="top">No</td>
+ * <td valign="top">null</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">hedgeLatencyPercentile</td>
+ * <td>
+ * If greater than 0 the hedge delay of a child DAO is this percentile of its recent successful call durations,
+ * once enough calls were recorded. Until then <b>hedgeDelay</b> is used.
+ * </td>
+ * <td valign="top">No</td>
+ * <td valign="top">0</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">adaptiveOrdering</td>
+ * <td>
+ * If <b>stopOnSuccess</b> is true, query the child DAOs in the order of their health instead of the configured
+ * order. Health is an exponentially weighted average of the call duration plus a penalty for the weighted error
+ * rate. Child DAOs that were not called yet are tried first.
+ * </td>
+ * <td valign="top">No</td>
+ * <td valign="top">false</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">adaptiveExplorationRate</td>
+ * <td>
+ * Share of the queries, between 0 and 1, that move a random other child DAO in front of the healthiest one when
+ * <b>adaptiveOrdering</b> is true, so that recovered child DAOs are promoted again.
+ * </td>
+ * <td valign="top">No</td>
+ * <td valign="top">0.05</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">routeByQueryAttributes</td>
+ * <td>
+ * If true, a child DAO that reports query attributes through getAvailableQueryAttributes is only called when the
+ * query holds at least one of them, otherwise it is skipped as if it returned null. This matches the behavior of
+ * {@link AbstractQueryPersonAttributeDao} children, which return null without such attributes. Child DAOs that
+ * report no query attributes are always called. The index is built on the first query.
+ * </td>
+ * <td valign="top">No</td>
+ * <td valign="top">false</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">memoizeMetadata</td>
+ * <td>
+ * If true the results of getPossibleUserAttributeNames and getAvailableQueryAttributes are memoized per filter
+ * instead of being merged from the child DAOs on every call. Results are not memoized if a child DAO failed. The
+ * memo is cleared when the configuration of this DAO changes, call clearMetadataCache after changing a child DAO.
+ * </td>
+ * <td valign="top">No</td>
+ * <td valign="top">false</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">memoizeQueries</td>
+ * <td>
+ * If true a {@link PersonAttributeQueryContext} is opened for each query that is not already part of one, so that
+ * identical queries of the same child DAO, by nested aggregators or repeated cascading, are executed only once per
+ * query of this DAO. Child DAOs are queried through an open context whatever this setting, which allows a caller to
+ * open one around several DAOs.
+ * </td>
+ * <td valign="top">No</td>
+ * <td valign="top">false</td>
+ * </tr>
  * </table>
  *
  * @author Eric Dalquist
  */
-public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends AbstractDefaultAttributePersonAttributeDao {
+public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends AbstractDefaultAttributePersonAttributeDao
+    implements IOutcomeReportingPersonAttributeDao {
     /**
      * A List of child IPersonAttributeDao instances which we will poll in order.
      */
@@ -120,6 +228,71 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
      */
     protected boolean requireAll;
 
+    /**
+     * Settings of the per child circuit breakers, null if circuit breakers are disabled.
+     */
+    protected CircuitBreakerConfiguration circuitBreakerConfiguration;
+
+    private final Map<IPersonAttributeDao, PersonAttributeDaoCircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    /**
+     * Executor used to query child DAOs concurrently, null if children are only queried by the calling thread.
+     */
+    protected ExecutorService executorService;
+
+    /**
+     * Delay after which the next child is queried in parallel when stopOnSuccess is true, null to disable.
+     */
+    protected Duration hedgeDelay;
+
+    /**
+     * Percentile of the recent call durations of a child used as its hedge delay, 0 to disable.
+     */
+    protected double hedgeLatencyPercentile;
+
+    private final Map<IPersonAttributeDao, LatencyRecorder> latencyRecorders = new ConcurrentHashMap<>();
+
+    private static final int LATENCY_SAMPLES = 100;
+
+    private static final int MINIMUM_LATENCY_SAMPLES = 10;
+
+    /**
+     * If child DAOs are queried healthiest first when stopOnSuccess is true.
+     */
+    protected boolean adaptiveOrdering;
+
+    /**
+     * Share of the adaptively ordered queries that try a random other child first.
+     */
+    protected double adaptiveExplorationRate = 0.05;
+
+    private final Map<IPersonAttributeDao, ExponentialHealthScore> healthScores = new ConcurrentHashMap<>();
+
+    private static final double HEALTH_SMOOTHING_FACTOR = 0.2;
+
+    private static final Duration HEALTH_ERROR_PENALTY = Duration.ofSeconds(1);
+
+    /**
+     * If child DAOs are only called for queries holding one of their query attributes.
+     */
+    protected boolean routeByQueryAttributes;
+
+    private volatile QueryAttributeRoutingTable queryAttributeRoutingTable;
+
+    /**
+     * If schema metadata is memoized per filter.
+     */
+    protected boolean memoizeMetadata;
+
+    private final PersonAttributeDaoMetadataCache metadataCache = new PersonAttributeDaoMetadataCache(MAX_METADATA_FILTERS);
+
+    private static final int MAX_METADATA_FILTERS = 32;
+
+    /**
+     * If each query of this DAO opens a request-scoped memo when none is open.
+     */
+    protected boolean memoizeQueries;
+
     @Override
     public String[] getId() {
         final List<String> ids = new ArrayList<>();
@@ -132,10 +305,40 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
     public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query,
                                                                      final IPersonAttributeDaoFilter filter,
                                                                      final Set<IPersonAttributes> resultPeople) {
+        return this.getPeople(query, filter, null).getPeople();
+    }
+
+    /**
+     * Query the child DAOs like {@link #getPeopleWithMultivaluedAttributes(Map, IPersonAttributeDaoFilter, Set)},
+     * also reporting the outcome of each child DAO and if the result is complete.
+     *
+     * @param query        the query
+     * @param filter       the filter choosing the child DAOs to query, may be null
+     * @param resultPeople the people found so far by a parent DAO
+     * @return the people found and the outcomes of the child DAOs
+     */
+    @Override
+    public PersonAttributesResult getPeopleWithOutcomes(final Map<String, List<Object>> query,
+                                                        final IPersonAttributeDaoFilter filter,
+                                                        final Set<IPersonAttributes> resultPeople) {
+        return this.getPeople(query, filter, new ArrayList<>(this.personAttributeDaos == null ? 0 : this.personAttributeDaos.size()));
+    }
+
+    private PersonAttributesResult getPeople(final Map<String, List<Object>> query, final IPersonAttributeDaoFilter filter,
+                                             final List<PersonAttributeDaoOutcome> outcomes) {
         Validate.notNull(query, "query may not be null.");
 
-        //Initialize null, so that if none of the sub-DAOs find any people null is returned appropriately
-        Set<IPersonAttributes> results = null;
+        if (this.isQueryContextRequired() && PersonAttributeQueryContext.current() == null) {
+            var scope = PersonAttributeQueryContext.open();
+            try {
+                return this.getPeople(query, filter, outcomes);
+            } finally {
+                scope.close();
+            }
+        }
+
+        //Accumulator results stay null, so that if none of the sub-DAOs find any people null is returned appropriately
+        var accumulator = this.attrMerger.newMergeAccumulator();
 
         //Denotes that this is the first time we are running a query and the original seed should be used
         var isFirstQuery = true;
@@ -144,41 +347,76 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
             throw new IllegalStateException("personAttributeDaos must be set");
         }
 
+        if (this.isHedgingEnabled()) {
+            return this.getPeopleWithHedging(query, filter, outcomes);
+        }
+
+        //False once a child that could have contributed to the results failed or was skipped
+        var complete = true;
+
+        //Names of the attributes the children are queried with, rebuilt only when the query changes
+        Collection<String> queryAttributeNames = null;
+        Set<IPersonAttributes> queryAttributeNamesResults = null;
+        var queryAttributeNamesFirstQuery = false;
+
         //Iterate through the configured IPersonAttributeDaos, querying each.
-        for (var currentlyConsidering : this.personAttributeDaos) {
+        for (var currentlyConsidering : this.getQueryOrder()) {
             if (filter != null && !filter.choosePersonAttributeDao(currentlyConsidering)) {
                 continue;
             }
 
             var handledException = false;
+            var results = accumulator.getCurrentResults();
             Set<IPersonAttributes> currentPeople = null;
-            try {
-                currentPeople = this.getAttributesFromDao(query, isFirstQuery, currentlyConsidering, results, filter);
+            var circuitBreaker = this.getCircuitBreaker(currentlyConsidering);
+            if (this.routeByQueryAttributes && (queryAttributeNames == null
+                                                || queryAttributeNamesFirstQuery != isFirstQuery
+                                                || queryAttributeNamesResults != results)) {
+                queryAttributeNames = this.getQueryAttributeNames(query, isFirstQuery, results);
+                queryAttributeNamesFirstQuery = isFirstQuery;
+                queryAttributeNamesResults = results;
+            }
+            var routed = this.isRouted(currentlyConsidering, queryAttributeNames);
+            if (routed) {
+                this.prefetch(currentlyConsidering, query, filter, results);
+            }
+            //Answered from the query context without calling the child, which its circuit breaker has no say in
+            var memoized = routed && isMemoized(currentlyConsidering, query, filter);
+            if (!routed) {
+                // Same as a child that returns null for want of query attributes
                 isFirstQuery = false;
+                addOutcome(outcomes, currentlyConsidering, PersonAttributeDaoOutcome.Status.EMPTY, 0);
+                this.logger.debug("Skipping '{}', the query holds none of its query attributes", currentlyConsidering);
+            } else if (!memoized && circuitBreaker != null && !circuitBreaker.tryAcquirePermission()) {
+                addOutcome(outcomes, currentlyConsidering, PersonAttributeDaoOutcome.Status.SKIPPED, 0);
+                handledException = handleCallNotPermitted(currentlyConsidering, circuitBreaker);
+            } else {
+                try {
+                    currentPeople = this.callDao(query, isFirstQuery, currentlyConsidering, results, filter, !memoized, outcomes);
+                    isFirstQuery = false;
 
-                if (this.logger.isDebugEnabled()) {
-                    this.logger.debug("Retrieved attributes='" + currentPeople + "' for query='"
-                                      + query + "', isFirstQuery=" + isFirstQuery + ", currentlyConsidering='"
-                                      + currentlyConsidering + "', resultAttributes='" + results + "'");
+                    if (this.logger.isDebugEnabled()) {
+                        this.logger.debug("Retrieved attributes='" + currentPeople + "' for query='"
+                                          + query + "', isFirstQuery=" + isFirstQuery + ", currentlyConsidering='"
+                                          + currentlyConsidering + "', resultAttributes='" + results + "'");
+                    }
+                } catch (final RuntimeException rte) {
+                    handledException |= handleRuntimeException(currentlyConsidering, rte);
                 }
-            } catch (final RuntimeException rte) {
-                handledException |= handleRuntimeException(currentlyConsidering, rte);
             }
+            //Stale people stand in for a child that failed
+            var stale = StalePersonImpl.isAnyStale(currentPeople);
+            complete &= !handledException && !stale;
 
             if (currentPeople != null) {
-                if (results == null) {
-                    //If this is the first valid result set just use it.
-                    results = new LinkedHashSet<>(currentPeople);
-                } else {
-                    //Merge the Sets of IPersons
-                    results = this.attrMerger.mergeResults(results, currentPeople);
-                }
+                //Merge the Sets of IPersons, the first valid result set is used as-is
+                accumulator.add(currentPeople);
             } else if (this.requireAll) {
                 this.logger.debug("Attribute repository dao {} did not resolve a person "
                                   + "and configuration requires all sources to produce valid results. "
                                   + "Short-circuiting the execution and returning null instead",
                     currentlyConsidering);
-                return null;
+                return new PersonAttributesResult(null, outcomes, complete);
             }
 
             if (this.stopOnSuccess && !handledException) {
@@ -186,19 +424,40 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
                     this.logger.debug("Successfully retrieved attributes from a child DAO and stopOnSuccess is true, stopping iteration of child DAOs");
                 }
 
+                //Failures of the children tried before do not matter, this one answered in their place
+                complete = !stale;
                 break;
             }
         }
 
+        return this.toResult(query, accumulator.getResults(), outcomes, complete);
+    }
+
+    private PersonAttributesResult toResult(final Map<String, List<Object>> query, final Set<IPersonAttributes> results,
+                                            final List<PersonAttributeDaoOutcome> outcomes, final boolean complete) {
         if (results == null) {
-            return null;
+            return new PersonAttributesResult(null, outcomes, complete);
         }
 
         if (this.logger.isDebugEnabled()) {
-            this.logger.debug("Aggregated search results '" + results + "' for query='" + query + "'");
+            this.logger.debug("Aggregated search results '" + results + "' for query='" + query + "', complete=" + complete);
         }
 
-        return CollectionsUtil.safelyWrapAsUnmodifiableSet(results);
+        return new PersonAttributesResult(CollectionsUtil.safelyWrapAsUnmodifiableSet(results), outcomes, complete);
+    }
+
+    private static void addOutcome(final List<PersonAttributeDaoOutcome> outcomes, final IPersonAttributeDao dao,
+                                   final PersonAttributeDaoOutcome.Status status, final long latencyNanos) {
+        if (outcomes != null) {
+            outcomes.add(new PersonAttributeDaoOutcome(dao, status, latencyNanos));
+        }
+    }
+
+    private static PersonAttributeDaoOutcome.Status statusOf(final Set<IPersonAttributes> people) {
+        if (people == null || people.isEmpty()) {
+            return PersonAttributeDaoOutcome.Status.EMPTY;
+        }
+        return StalePersonImpl.isAnyStale(people) ? PersonAttributeDaoOutcome.Status.STALE : PersonAttributeDaoOutcome.Status.SUCCESS;
     }
 
     /**
@@ -210,7 +469,12 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
      */
     private boolean handleRuntimeException(IPersonAttributeDao currentlyConsidering, RuntimeException rte) {
         if (this.recoverExceptions) {
-            this.logger.warn("Recovering From Exception thrown by '" + currentlyConsidering + "'", rte);
+            if (rte instanceof CallNotPermittedException) {
+                // Rejected without being attempted, for example by a bulkhead, the stack trace adds nothing
+                this.logger.warn("Recovering From rejected call to '" + currentlyConsidering + "': " + rte.getMessage());
+            } else {
+                this.logger.warn("Recovering From Exception thrown by '" + currentlyConsidering + "'", rte);
+            }
             return true;
         } else {
             this.logger.error("Failing From Exception thrown by '" + currentlyConsidering + "'", rte);
@@ -219,6 +483,323 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
     }
 
 
+    /**
+     * Handle a child DAO that was skipped because its circuit is open. Like a failure of the child this is only
+     * logged if exceptions are recovered, and fails the query otherwise.
+     *
+     * @param currentlyConsidering the skipped child
+     * @param circuitBreaker       the circuit breaker of the child
+     * @return true
+     */
+    private boolean handleCallNotPermitted(final IPersonAttributeDao currentlyConsidering,
+                                           final PersonAttributeDaoCircuitBreaker circuitBreaker) {
+        if (this.recoverExceptions) {
+            this.logger.debug("Skipping '{}' because its circuit breaker is {}", currentlyConsidering, circuitBreaker.getState());
+            return true;
+        }
+        var exception = new CallNotPermittedException("Circuit breaker of '" + currentlyConsidering + "' is " + circuitBreaker.getState());
+        this.logger.error("Failing because the circuit breaker of '" + currentlyConsidering + "' does not permit calls");
+        throw exception;
+    }
+
+    /**
+     * Call {@link #getAttributesFromDao(Map, boolean, IPersonAttributeDao, Set, IPersonAttributeDaoFilter)}, recording
+     * the call with {@link #recordCall(IPersonAttributeDao, boolean, long)} unless it is answered from the query context.
+     */
+    private Set<IPersonAttributes> callDao(final Map<String, List<Object>> seed, final boolean isFirstQuery,
+                                           final IPersonAttributeDao currentlyConsidering,
+                                           final Set<IPersonAttributes> resultPeople,
+                                           final IPersonAttributeDaoFilter filter,
+                                           final boolean record,
+                                           final List<PersonAttributeDaoOutcome> outcomes) {
+        var succeeded = false;
+        Set<IPersonAttributes> people = null;
+        Throwable failure = null;
+        var start = System.nanoTime();
+        try {
+            people = this.getAttributesFromDao(seed, isFirstQuery, currentlyConsidering, resultPeople, filter);
+            succeeded = true;
+            return people;
+        } catch (final RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            var durationNanos = System.nanoTime() - start;
+            addOutcome(outcomes, currentlyConsidering, succeeded ? statusOf(people) : PersonAttributeDaoOutcome.statusOf(failure), durationNanos);
+            if (record) {
+                this.recordCall(currentlyConsidering, succeeded, durationNanos);
+            }
+        }
+    }
+
+    /**
+     * Record a call to a child DAO with its circuit breaker, and its duration for hedging and adaptive ordering.
+     * Every call permitted by the circuit breaker of the child DAO must be recorded once.
+     *
+     * @param dao           the child DAO
+     * @param succeeded     true if the call returned normally
+     * @param durationNanos how long the child DAO took
+     */
+    protected void recordCall(final IPersonAttributeDao dao, final boolean succeeded, final long durationNanos) {
+        var circuitBreaker = this.getCircuitBreaker(dao);
+        if (circuitBreaker != null) {
+            if (succeeded) {
+                circuitBreaker.onSuccess(durationNanos);
+            } else {
+                circuitBreaker.onError(durationNanos);
+            }
+        }
+        if (succeeded && this.hedgeLatencyPercentile > 0) {
+            this.latencyRecorders.computeIfAbsent(dao, child -> new LatencyRecorder(LATENCY_SAMPLES)).record(durationNanos);
+        }
+        if (this.adaptiveOrdering) {
+            var healthScore = this.healthScores.computeIfAbsent(dao,
+                child -> new ExponentialHealthScore(HEALTH_SMOOTHING_FACTOR, HEALTH_ERROR_PENALTY));
+            if (succeeded) {
+                healthScore.onSuccess(durationNanos);
+            } else {
+                healthScore.onError(durationNanos);
+            }
+        }
+    }
+
+    /**
+     * Called before a child DAO is queried, to let subclasses put its results in the open
+     * {@link PersonAttributeQueryContext} ahead of time. A child DAO whose results are in the query context is
+     * not guarded by its circuit breaker and its call is not recorded, so implementations must record the calls
+     * they make with {@link #recordCall(IPersonAttributeDao, boolean, long)}. Does nothing by default.
+     *
+     * @param currentlyConsidering the child DAO about to be queried
+     * @param query                the query it will be passed
+     * @param filter               the filter, may be null
+     * @param resultPeople         the people found so far, may be null
+     */
+    protected void prefetch(final IPersonAttributeDao currentlyConsidering, final Map<String, List<Object>> query,
+                            final IPersonAttributeDaoFilter filter, final Set<IPersonAttributes> resultPeople) {
+    }
+
+    private static boolean isMemoized(final IPersonAttributeDao dao, final Map<String, List<Object>> query,
+                                      final IPersonAttributeDaoFilter filter) {
+        var context = PersonAttributeQueryContext.current();
+        return context != null && context.isMemoized(dao, query, filter);
+    }
+
+    /**
+     * Whether the child DAO can use the query it would be passed, given the names of its attributes, according to
+     * the query attribute routing table. Always true if routing by query attributes is disabled.
+     *
+     * @param dao                 the child DAO
+     * @param queryAttributeNames the names from {@link #getQueryAttributeNames(Map, boolean, Set)}, may be null
+     *                            if routing by query attributes is disabled
+     */
+    protected boolean isRouted(final IPersonAttributeDao dao, final Collection<String> queryAttributeNames) {
+        if (!this.routeByQueryAttributes) {
+            return true;
+        }
+
+        var routingTable = this.queryAttributeRoutingTable;
+        if (routingTable == null) {
+            routingTable = new QueryAttributeRoutingTable(this.personAttributeDaos);
+            this.logger.debug("Built {}", routingTable);
+            this.queryAttributeRoutingTable = routingTable;
+        }
+        return routingTable.isRouted(dao, queryAttributeNames);
+    }
+
+    /**
+     * Get the names of the attributes a child DAO is queried with. Used to route queries when
+     * <b>routeByQueryAttributes</b> is true, must agree with
+     * {@link #getAttributesFromDao(Map, boolean, IPersonAttributeDao, Set, IPersonAttributeDaoFilter)}.
+     *
+     * @param seed         the query seed
+     * @param isFirstQuery if this is the first query
+     * @param resultPeople the results so far, may be null
+     * @return the attribute names, the keys of the seed by default
+     */
+    protected Set<String> getQueryAttributeNames(final Map<String, List<Object>> seed, final boolean isFirstQuery,
+                                                 final Set<IPersonAttributes> resultPeople) {
+        return seed.keySet();
+    }
+
+    /**
+     * The child DAOs in the order to query them: healthiest first if adaptive ordering applies, with a random
+     * other child moved to the front for a share of the queries, otherwise the configured order.
+     */
+    private List<IPersonAttributeDao> getQueryOrder() {
+        if (!this.stopOnSuccess || !this.adaptiveOrdering || this.personAttributeDaos.size() < 2) {
+            return this.personAttributeDaos;
+        }
+
+        // Snapshot the scores, they may change while sorting
+        final Map<IPersonAttributeDao, Double> scores = new HashMap<>();
+        for (var dao : this.personAttributeDaos) {
+            var healthScore = this.healthScores.get(dao);
+            scores.put(dao, healthScore == null ? 0 : healthScore.getScore());
+        }
+        final List<IPersonAttributeDao> ordered = new ArrayList<>(this.personAttributeDaos);
+        ordered.sort(Comparator.comparingDouble(scores::get));
+
+        var random = ThreadLocalRandom.current();
+        if (this.adaptiveExplorationRate > 0 && random.nextDouble() < this.adaptiveExplorationRate) {
+            ordered.add(0, ordered.remove(1 + random.nextInt(ordered.size() - 1)));
+        }
+
+        if (this.logger.isDebugEnabled()) {
+            this.logger.debug("Querying child DAOs in adaptive order " + ordered);
+        }
+        return ordered;
+    }
+
+    private boolean isHedgingEnabled() {
+        return this.stopOnSuccess && this.executorService != null
+               && (this.hedgeDelay != null || this.hedgeLatencyPercentile > 0);
+    }
+
+    /**
+     * Query the child DAOs in order until one answers without an exception, starting the next child in parallel
+     * whenever the last started one has not answered within its hedge delay.
+     *
+     * @return the people of the first child to answer, none if it found none or all children failed
+     */
+    private PersonAttributesResult getPeopleWithHedging(final Map<String, List<Object>> query,
+                                                        final IPersonAttributeDaoFilter filter,
+                                                        final List<PersonAttributeDaoOutcome> outcomes) {
+        final List<IPersonAttributeDao> candidates = new ArrayList<>(this.personAttributeDaos.size());
+        var queryAttributeNames = this.getQueryAttributeNames(query, true, null);
+        for (var dao : this.getQueryOrder()) {
+            if (filter == null || filter.choosePersonAttributeDao(dao)) {
+                if (!this.isRouted(dao, queryAttributeNames)) {
+                    // The child would answer null at once, the children after it are never needed
+                    this.logger.debug("Stopping at '{}', the query holds none of its query attributes", dao);
+                    if (candidates.isEmpty()) {
+                        addOutcome(outcomes, dao, PersonAttributeDaoOutcome.Status.EMPTY, 0);
+                        return new PersonAttributesResult(null, outcomes, true);
+                    }
+                    break;
+                }
+                candidates.add(dao);
+            }
+        }
+
+        final CompletionService<Set<IPersonAttributes>> completionService = new ExecutorCompletionService<>(this.executorService);
+        final Map<Future<Set<IPersonAttributes>>, HedgedCall> pending = new LinkedHashMap<>();
+        var next = 0;
+        IPersonAttributeDao lastStarted = null;
+        try {
+            while (next < candidates.size() || !pending.isEmpty()) {
+                if (pending.isEmpty()) {
+                    lastStarted = candidates.get(next++);
+                    pending.put(this.submitHedged(completionService, query, lastStarted, filter), new HedgedCall(lastStarted, System.nanoTime()));
+                    continue;
+                }
+
+                var delayNanos = next < candidates.size() ? this.getHedgeDelayNanos(lastStarted) : -1;
+                final Future<Set<IPersonAttributes>> completed;
+                if (delayNanos < 0) {
+                    completed = completionService.take();
+                } else {
+                    completed = completionService.poll(delayNanos, TimeUnit.NANOSECONDS);
+                    if (completed == null) {
+                        this.logger.debug("'{}' did not answer within {} ms, also querying '{}'",
+                            lastStarted, TimeUnit.NANOSECONDS.toMillis(delayNanos), candidates.get(next));
+                        lastStarted = candidates.get(next++);
+                        pending.put(this.submitHedged(completionService, query, lastStarted, filter), new HedgedCall(lastStarted, System.nanoTime()));
+                        continue;
+                    }
+                }
+
+                var call = pending.remove(completed);
+                var currentlyConsidering = call.dao();
+                try {
+                    var people = completed.get();
+                    addOutcome(outcomes, currentlyConsidering, statusOf(people), System.nanoTime() - call.startNanos());
+                    if (this.logger.isDebugEnabled()) {
+                        this.logger.debug("Retrieved attributes='" + people + "' for query='" + query
+                                          + "', currentlyConsidering='" + currentlyConsidering
+                                          + "' and stopOnSuccess is true, ignoring the other child DAOs");
+                    }
+                    if (people == null) {
+                        return new PersonAttributesResult(null, outcomes, true);
+                    }
+                    var accumulator = this.attrMerger.newMergeAccumulator();
+                    accumulator.add(people);
+                    return this.toResult(query, accumulator.getResults(), outcomes, !StalePersonImpl.isAnyStale(people));
+                } catch (final ExecutionException e) {
+                    var cause = e.getCause();
+                    addOutcome(outcomes, currentlyConsidering, PersonAttributeDaoOutcome.statusOf(cause), System.nanoTime() - call.startNanos());
+                    if (cause instanceof CallNotPermittedException notPermitted) {
+                        if (!this.recoverExceptions) {
+                            this.logger.error("Failing because the circuit breaker of '" + currentlyConsidering + "' does not permit calls");
+                            throw notPermitted;
+                        }
+                        this.logger.debug("Skipping '{}' because its circuit breaker does not permit calls", currentlyConsidering);
+                    } else if (cause instanceof RuntimeException rte) {
+                        handleRuntimeException(currentlyConsidering, rte);
+                    } else if (cause instanceof Error error) {
+                        throw error;
+                    } else {
+                        throw new IllegalStateException("Failed to query '" + currentlyConsidering + "'", cause);
+                    }
+                }
+            }
+            return new PersonAttributesResult(null, outcomes, candidates.isEmpty());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while querying child DAOs", e);
+        } finally {
+            for (var abandoned : pending.entrySet()) {
+                abandoned.getKey().cancel(false);
+                var call = abandoned.getValue();
+                addOutcome(outcomes, call.dao(), PersonAttributeDaoOutcome.Status.TIMED_OUT, System.nanoTime() - call.startNanos());
+            }
+        }
+    }
+
+    /**
+     * A hedged call to a child DAO that has not completed yet.
+     */
+    private record HedgedCall(IPersonAttributeDao dao, long startNanos) {
+    }
+
+    private Future<Set<IPersonAttributes>> submitHedged(final CompletionService<Set<IPersonAttributes>> completionService,
+                                                        final Map<String, List<Object>> query,
+                                                        final IPersonAttributeDao currentlyConsidering,
+                                                        final IPersonAttributeDaoFilter filter) {
+        var circuitBreaker = this.getCircuitBreaker(currentlyConsidering);
+        return completionService.submit(PersonAttributeQueryContext.wrap(() -> {
+            var memoized = isMemoized(currentlyConsidering, query, filter);
+            if (!memoized && circuitBreaker != null && !circuitBreaker.tryAcquirePermission()) {
+                throw new CallNotPermittedException("Circuit breaker of '" + currentlyConsidering + "' is " + circuitBreaker.getState());
+            }
+            return this.callDao(query, true, currentlyConsidering, null, filter, !memoized, null);
+        }));
+    }
+
+    private long getHedgeDelayNanos(final IPersonAttributeDao dao) {
+        if (this.hedgeLatencyPercentile > 0) {
+            var latencyRecorder = this.latencyRecorders.get(dao);
+            if (latencyRecorder != null && latencyRecorder.getCount() >= MINIMUM_LATENCY_SAMPLES) {
+                return latencyRecorder.getPercentile(this.hedgeLatencyPercentile);
+            }
+        }
+        return this.hedgeDelay != null ? this.hedgeDelay.toNanos() : -1;
+    }
+
+    /**
+     * Get the circuit breaker guarding a child DAO, creating it on first use.
+     *
+     * @param dao the child DAO
+     * @return the circuit breaker, null if circuit breakers are disabled
+     */
+    protected PersonAttributeDaoCircuitBreaker getCircuitBreaker(final IPersonAttributeDao dao) {
+        var configuration = this.circuitBreakerConfiguration;
+        if (configuration == null) {
+            return null;
+        }
+        return this.circuitBreakers.computeIfAbsent(dao,
+            child -> new PersonAttributeDaoCircuitBreaker(String.join(",", child.getId()), configuration));
+    }
+
     /**
      * Call to execute the appropriate query on the current {@link IPersonAttributeDao}. Provides extra information
      * beyond the seed for the state of the query chain and previous results.
@@ -235,6 +816,26 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
                                                                    Set<IPersonAttributes> resultPeople,
                                                                    IPersonAttributeDaoFilter filter);
 
+    /**
+     * Query a child DAO, through the {@link PersonAttributeQueryContext} open on the current thread if any, so that
+     * identical queries within a request are executed once. Subclasses query child DAOs with this method.
+     *
+     * @param dao          the child DAO
+     * @param query        the query
+     * @param filter       the filter, may be null
+     * @param resultPeople the people found so far, may be null
+     * @return the people found by the child DAO
+     */
+    protected Set<IPersonAttributes> getPeopleFromDao(final IPersonAttributeDao dao, final Map<String, List<Object>> query,
+                                                      final IPersonAttributeDaoFilter filter,
+                                                      final Set<IPersonAttributes> resultPeople) {
+        var context = PersonAttributeQueryContext.current();
+        if (context == null) {
+            return dao.getPeopleWithMultivaluedAttributes(query, filter, resultPeople);
+        }
+        return context.getPeople(dao, query, filter, () -> dao.getPeopleWithMultivaluedAttributes(query, filter, resultPeople));
+    }
+
 
     /**
      * Merges the results of calling {@link IPersonAttributeDao#getPossibleUserAttributeNames(IPersonAttributeDaoFilter)} on each child dao using
@@ -246,7 +847,15 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
     @Override
     @JsonIgnore
     public final Set<String> getPossibleUserAttributeNames(final IPersonAttributeDaoFilter filter) {
+        if (this.memoizeMetadata) {
+            var memoized = this.metadataCache.get(PersonAttributeDaoMetadataCache.Metadata.POSSIBLE_USER_ATTRIBUTE_NAMES, filter);
+            if (memoized != null) {
+                return memoized.orElse(null);
+            }
+        }
+
         Set<String> attrNames = null;
+        var complete = true;
 
         for (var currentDao : this.personAttributeDaos) {
 
@@ -263,6 +872,7 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
                 }
             } catch (final RuntimeException rte) {
                 handledException |= handleRuntimeException(currentDao, rte);
+                complete = false;
             }
 
             if (currentDaoAttrNames != null) {
@@ -286,6 +896,10 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
             this.logger.debug("Aggregated possible attribute names '" + attrNames + "'");
         }
 
+        if (this.memoizeMetadata && complete) {
+            return this.metadataCache.put(PersonAttributeDaoMetadataCache.Metadata.POSSIBLE_USER_ATTRIBUTE_NAMES, filter, attrNames);
+        }
+
         if (attrNames == null) {
             return null;
         }
@@ -303,7 +917,15 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
     @JsonIgnore
     @Override
     public Set<String> getAvailableQueryAttributes(final IPersonAttributeDaoFilter filter) {
+        if (this.memoizeMetadata) {
+            var memoized = this.metadataCache.get(PersonAttributeDaoMetadataCache.Metadata.AVAILABLE_QUERY_ATTRIBUTES, filter);
+            if (memoized != null) {
+                return memoized.orElse(null);
+            }
+        }
+
         Set<String> queryAttrs = null;
+        var complete = true;
 
         for (var currentDao : this.personAttributeDaos) {
             if (filter != null && !filter.choosePersonAttributeDao(currentDao)) {
@@ -319,6 +941,7 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
                 }
             } catch (final RuntimeException rte) {
                 handledException |= handleRuntimeException(currentDao, rte);
+                complete = false;
             }
 
             if (currentDaoQueryAttrs != null) {
@@ -343,6 +966,10 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
             this.logger.debug("Aggregated possible query attributes '" + queryAttrs + "'");
         }
 
+        if (this.memoizeMetadata && complete) {
+            return this.metadataCache.put(PersonAttributeDaoMetadataCache.Metadata.AVAILABLE_QUERY_ATTRIBUTES, filter, queryAttrs);
+        }
+
         if (queryAttrs == null) {
             return null;
         }
@@ -369,6 +996,7 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
     public final void setMerger(final IAttributeMerger merger) {
         Validate.notNull(merger, "The IAttributeMerger cannot be null");
         this.attrMerger = merger;
+        this.metadataCache.clear();
     }
 
     /**
@@ -389,6 +1017,11 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
     public final void setPersonAttributeDaos(final List<IPersonAttributeDao> daos) {
         Validate.notNull(daos, "The IPersonAttributeDao List cannot be null");
         this.personAttributeDaos = CollectionsUtil.safelyWrapAsUnmodifiableList(daos);
+        this.circuitBreakers.clear();
+        this.latencyRecorders.clear();
+        this.healthScores.clear();
+        this.queryAttributeRoutingTable = null;
+        this.metadataCache.clear();
     }
 
     /**
@@ -413,6 +1046,7 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
      */
     public final void setRecoverExceptions(final boolean recover) {
         this.recoverExceptions = recover;
+        this.metadataCache.clear();
     }
 
     /**
@@ -433,6 +1067,186 @@ public abstract class AbstractAggregatingDefaultQueryPersonAttributeDao extends
      */
     public void setStopOnSuccess(final boolean stopOnSuccess) {
         this.stopOnSuccess = stopOnSuccess;
+        this.metadataCache.clear();
+    }
+
+    public CircuitBreakerConfiguration getCircuitBreakerConfiguration() {
+        return circuitBreakerConfiguration;
+    }
+
+    /**
+     * Guard each child DAO with a circuit breaker using these settings. Changing the settings discards the state
+     * of all circuit breakers, the circuit breakers copy the settings when they are created.
+     *
+     * @param circuitBreakerConfiguration the settings, null to disable circuit breakers (the default)
+     * @throws IllegalArgumentException if the settings are not consistent
+     */
+    public void setCircuitBreakerConfiguration(final CircuitBreakerConfiguration circuitBreakerConfiguration) {
+        if (circuitBreakerConfiguration != null) {
+            circuitBreakerConfiguration.validate();
+        }
+        this.circuitBreakerConfiguration = circuitBreakerConfiguration;
+        this.circuitBreakers.clear();
+    }
+
+    /**
+     * Get the state and counters of the circuit breaker of every child DAO, in the order of the children.
+     *
+     * @return Map of child DAO to the statistics of its circuit breaker, empty if circuit breakers are disabled
+     */
+    @JsonIgnore
+    public Map<IPersonAttributeDao, CircuitBreakerStatistics> getCircuitBreakerStatistics() {
+        final Map<IPersonAttributeDao, CircuitBreakerStatistics> statistics = new LinkedHashMap<>();
+        if (this.circuitBreakerConfiguration != null && this.personAttributeDaos != null) {
+            for (var dao : this.personAttributeDaos) {
+                statistics.put(dao, this.getCircuitBreaker(dao).getStatistics());
+            }
+        }
+        return statistics;
+    }
+
+    @JsonIgnore
+    public ExecutorService getExecutorService() {
+        return executorService;
+    }
+
+    /**
+     * Executor used to query child DAOs concurrently: by hedged requests, and by {@link CascadingPersonAttributeDao}
+     * for each person in the results when a child does not support batches. The executor is not shut down by this
+     * class.
+     *
+     * @param executorService the executor, null to query child DAOs serially (the default)
+     */
+    public void setExecutorService(final ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    public Duration getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    /**
+     * If <b>stopOnSuccess</b> is true and an <b>executorService</b> is set, query the next child DAO in parallel
+     * when the current one has not answered within this delay. The first answer without an exception is used.
+     *
+     * @param hedgeDelay the delay, null to disable hedging (the default)
+     */
+    public void setHedgeDelay(final Duration hedgeDelay) {
+        this.hedgeDelay = hedgeDelay;
+    }
+
+    public double getHedgeLatencyPercentile() {
+        return hedgeLatencyPercentile;
+    }
+
+    /**
+     * Use this percentile of the recent successful call durations of a child DAO as its hedge delay, for example
+     * 95. Until enough calls are recorded <b>hedgeDelay</b> is used, if set.
+     *
+     * @param hedgeLatencyPercentile the percentile, 0 to disable (the default)
+     */
+    public void setHedgeLatencyPercentile(final double hedgeLatencyPercentile) {
+        Validate.isTrue(hedgeLatencyPercentile >= 0 && hedgeLatencyPercentile <= 100,
+            "hedgeLatencyPercentile must be between 0 and 100");
+        this.hedgeLatencyPercentile = hedgeLatencyPercentile;
+    }
+
+    public boolean isAdaptiveOrdering() {
+        return adaptiveOrdering;
+    }
+
+    /**
+     * If <b>stopOnSuccess</b> is true, query the child DAOs healthiest first, based on exponentially weighted
+     * call durations and error rates, instead of in the configured order.
+     *
+     * @param adaptiveOrdering true to order child DAOs by health, defaults to false
+     */
+    public void setAdaptiveOrdering(final boolean adaptiveOrdering) {
+        this.adaptiveOrdering = adaptiveOrdering;
+        this.healthScores.clear();
+    }
+
+    public double getAdaptiveExplorationRate() {
+        return adaptiveExplorationRate;
+    }
+
+    /**
+     * Share of the adaptively ordered queries that try a random other child DAO first, so that child DAOs
+     * which recovered get a chance to be promoted again.
+     *
+     * @param adaptiveExplorationRate the share, between 0 and 1, defaults to 0.05
+     */
+    public void setAdaptiveExplorationRate(final double adaptiveExplorationRate) {
+        Validate.isTrue(adaptiveExplorationRate >= 0 && adaptiveExplorationRate <= 1,
+            "adaptiveExplorationRate must be between 0 and 1");
+        this.adaptiveExplorationRate = adaptiveExplorationRate;
+    }
+
+    public boolean isRouteByQueryAttributes() {
+        return routeByQueryAttributes;
+    }
+
+    /**
+     * Only call a child DAO that reports query attributes when the query holds at least one of them, treating
+     * it as if it returned null otherwise. Child DAOs that report no query attributes are always called.
+     *
+     * @param routeByQueryAttributes true to skip child DAOs that can not use the query, defaults to false
+     */
+    public void setRouteByQueryAttributes(final boolean routeByQueryAttributes) {
+        this.routeByQueryAttributes = routeByQueryAttributes;
+        this.queryAttributeRoutingTable = null;
+    }
+
+    /**
+     * Rebuild the query attribute routing table on the next query, for example after the query attributes of
+     * a child DAO changed.
+     */
+    public void clearQueryAttributeRoutingTable() {
+        this.queryAttributeRoutingTable = null;
+    }
+
+    public boolean isMemoizeMetadata() {
+        return memoizeMetadata;
+    }
+
+    /**
+     * Memoize the results of getPossibleUserAttributeNames and getAvailableQueryAttributes per filter. Call
+     * {@link #clearMetadataCache()} when the metadata of a child DAO changes.
+     *
+     * @param memoizeMetadata true to memoize metadata, defaults to false
+     */
+    public void setMemoizeMetadata(final boolean memoizeMetadata) {
+        this.memoizeMetadata = memoizeMetadata;
+        this.metadataCache.clear();
+    }
+
+    /**
+     * Forget the memoized metadata, for example after the attributes of a child DAO changed.
+     */
+    public void clearMetadataCache() {
+        this.metadataCache.clear();
+    }
+
+    /**
+     * @return true if each query of this DAO must run in a {@link PersonAttributeQueryContext}, by default if
+     * <b>memoizeQueries</b> is true
+     */
+    protected boolean isQueryContextRequired() {
+        return this.memoizeQueries;
+    }
+
+    public boolean isMemoizeQueries() {
+        return memoizeQueries;
+    }
+
+    /**
+     * Open a {@link PersonAttributeQueryContext} for each query that is not already part of one, so that identical
+     * queries of a child DAO are executed once per query of this DAO.
+     *
+     * @param memoizeQueries true to memoize queries within a request, defaults to false
+     */
+    public void setMemoizeQueries(final boolean memoizeQueries) {
+        this.memoizeQueries = memoizeQueries;
     }
 
     public boolean isRequireAll() {
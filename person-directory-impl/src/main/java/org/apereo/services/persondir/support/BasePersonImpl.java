@@ -28,12 +28,9 @@ import org.apereo.services.persondir.util.CollectionsUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.sql.Array;
-import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
 
 /**
  * @author Eric Dalquist
@@ -64,34 +61,10 @@ public abstract class BasePersonImpl implements IPersonAttributes {
      */
     protected Map<String, List<Object>> buildImmutableAttributeMap(final Map<String, List<Object>> attributes) {
         var immutableValuesBuilder = this.createImmutableAttributeMap(attributes.size());
-        var arrayPattern = Pattern.compile("\\{(.*)\\}");
         for (var attrEntry : attributes.entrySet()) {
             var key = attrEntry.getKey();
             var value = attrEntry.getValue();
 
-            if (value != null) {
-                if (!value.isEmpty()) {
-                    var result = value.get(0);
-                    if (result instanceof Array) {
-                        if (logger.isTraceEnabled()) {
-                            logger.trace("Column {} is classified as a SQL array", key);
-                        }
-                        var values = result.toString();
-                        if (logger.isTraceEnabled()) {
-                            logger.trace("Converting SQL array values {} using pattern {}", values, arrayPattern.pattern());
-                        }
-                        var matcher = arrayPattern.matcher(values);
-                        if (matcher.matches()) {
-                            var groups = matcher.group(1).split(",");
-                            value = Arrays.asList(groups);
-                            if (logger.isTraceEnabled()) {
-                                logger.trace("Converted SQL array values {}", values);
-                            }
-                        }
-                    }
-                }
-//                value = CollectionsUtil.safelyWrapAsUnmodifiableList(value);
-            }
             if (logger.isTraceEnabled()) {
                 logger.trace("Collecting attribute {} with value(s) {}", key, value);
             }
@@ -0,0 +1,334 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.apache.commons.lang3.Validate;
+import org.apereo.services.persondir.IBatchPersonAttributeDao;
+import org.apereo.services.persondir.IPersonAttributeDao;
+import org.apereo.services.persondir.IPersonAttributeDaoFilter;
+import org.apereo.services.persondir.IPersonAttributes;
+import org.apereo.services.persondir.support.resilience.BulkheadFullException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link IPersonAttributeDao} decorator that limits the number of concurrent queries to the wrapped
+ * IPersonAttributeDao, so that one slow source cannot hold every request thread. Callers that find no free
+ * slot either wait in a bounded queue or are rejected with a {@link BulkheadFullException}. Aggregating DAOs
+ * treat a rejection like any other failure of a child, it is recovered from if <b>recoverExceptions</b> is true.
+ * A batch of queries takes a single slot, and is passed on as one batch if the wrapped IPersonAttributeDao
+ * implements {@link IBatchPersonAttributeDao}. Whether the results of the wrapped IPersonAttributeDao are complete
+ * is passed on, see {@link IOutcomeReportingPersonAttributeDao}.
+ * <br>
+ * <br>
+ * Configuration:
+ * <table border="1">
+ * <tr>
+ * <th>Property</th>
+ * <th>Description</th>
+ * <th>Required</th>
+ * <th>Default</th>
+ * </tr>
+ * <tr>
+ * <td  valign="top">bulkheadedPersonAttributeDao</td>
+ * <td>
+ * The {@link IPersonAttributeDao} to delegate queries to.
+ * </td>
+ * <td valign="top">Yes</td>
+ * <td valign="top">null</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">maxConcurrentCalls</td>
+ * <td>
+ * The maximum number of queries running in the wrapped IPersonAttributeDao at the same time.
+ * </td>
+ * <td valign="top">No</td>
+ * <td valign="top">10</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">maxWaitDuration</td>
+ * <td>
+ * How long a caller waits for a free slot before it is rejected. Zero rejects immediately.
+ * </td>
+ * <td valign="top">No</td>
+ * <td valign="top">0</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">maxQueueDepth</td>
+ * <td>
+ * The maximum number of callers waiting for a free slot, further callers are rejected immediately.
+ * </td>
+ * <td valign="top">No</td>
+ * <td valign="top">{@link Integer#MAX_VALUE}</td>
+ * </tr>
+ * </table>
+ */
+public class BulkheadPersonAttributeDao extends AbstractDefaultAttributePersonAttributeDao
+    implements IBatchPersonAttributeDao, IOutcomeReportingPersonAttributeDao {
+    private IPersonAttributeDao bulkheadedPersonAttributeDao;
+
+    private volatile int maxConcurrentCalls = 10;
+
+    private Duration maxWaitDuration = Duration.ZERO;
+
+    private int maxQueueDepth = Integer.MAX_VALUE;
+
+    private final ResizableSemaphore semaphore = new ResizableSemaphore(this.maxConcurrentCalls);
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    private final AtomicLong permittedCalls = new AtomicLong();
+
+    private final AtomicLong rejectedCalls = new AtomicLong();
+
+    public BulkheadPersonAttributeDao() {
+        super();
+    }
+
+    public BulkheadPersonAttributeDao(final IPersonAttributeDao bulkheadedPersonAttributeDao) {
+        this();
+        this.setBulkheadedPersonAttributeDao(bulkheadedPersonAttributeDao);
+    }
+
+    @Override
+    public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query,
+                                                                     final IPersonAttributeDaoFilter filter,
+                                                                     final Set<IPersonAttributes> resultPeople) {
+        if (this.bulkheadedPersonAttributeDao == null) {
+            throw new IllegalStateException("No 'bulkheadedPersonAttributeDao' has been specified.");
+        }
+
+        this.acquirePermission();
+        try {
+            return this.bulkheadedPersonAttributeDao.getPeopleWithMultivaluedAttributes(query, filter, resultPeople);
+        } finally {
+            this.semaphore.release();
+        }
+    }
+
+    /**
+     * Passes on whether the results of the wrapped IPersonAttributeDao are complete.
+     */
+    @Override
+    public PersonAttributesResult getPeopleWithOutcomes(final Map<String, List<Object>> query,
+                                                        final IPersonAttributeDaoFilter filter,
+                                                        final Set<IPersonAttributes> resultPeople) {
+        if (this.bulkheadedPersonAttributeDao == null) {
+            throw new IllegalStateException("No 'bulkheadedPersonAttributeDao' has been specified.");
+        }
+
+        this.acquirePermission();
+        try {
+            return IOutcomeReportingPersonAttributeDao.getPeopleWithOutcomes(this.bulkheadedPersonAttributeDao, query, filter, resultPeople);
+        } finally {
+            this.semaphore.release();
+        }
+    }
+
+    @Override
+    public List<Set<IPersonAttributes>> getBatchedPeopleWithMultivaluedAttributes(final List<Map<String, List<Object>>> queries,
+                                                                                 final IPersonAttributeDaoFilter filter,
+                                                                                 final Set<IPersonAttributes> resultPeople) {
+        Validate.notNull(queries, "queries may not be null");
+        if (this.bulkheadedPersonAttributeDao == null) {
+            throw new IllegalStateException("No 'bulkheadedPersonAttributeDao' has been specified.");
+        }
+
+        this.acquirePermission();
+        try {
+            if (this.bulkheadedPersonAttributeDao instanceof IBatchPersonAttributeDao batchDao) {
+                return batchDao.getBatchedPeopleWithMultivaluedAttributes(queries, filter, resultPeople);
+            }
+            final List<Set<IPersonAttributes>> results = new ArrayList<>(queries.size());
+            for (var query : queries) {
+                results.add(this.bulkheadedPersonAttributeDao.getPeopleWithMultivaluedAttributes(query, filter, resultPeople));
+            }
+            return results;
+        } finally {
+            this.semaphore.release();
+        }
+    }
+
+    private void acquirePermission() {
+        var semaphore = this.semaphore;
+        if (semaphore.tryAcquire()) {
+            this.permittedCalls.incrementAndGet();
+            return;
+        }
+
+        var waitNanos = this.maxWaitDuration.toNanos();
+        if (waitNanos > 0) {
+            if (this.queueDepth.incrementAndGet() <= this.maxQueueDepth) {
+                try {
+                    if (semaphore.tryAcquire(waitNanos, TimeUnit.NANOSECONDS)) {
+                        this.permittedCalls.incrementAndGet();
+                        return;
+                    }
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the bulkhead of '"
+                                                    + this.bulkheadedPersonAttributeDao + "'", e);
+                } finally {
+                    this.queueDepth.decrementAndGet();
+                }
+            } else {
+                this.queueDepth.decrementAndGet();
+            }
+        }
+
+        this.rejectedCalls.incrementAndGet();
+        throw new BulkheadFullException("Bulkhead of '" + this.bulkheadedPersonAttributeDao + "' is full: "
+                                        + this.maxConcurrentCalls + " concurrent calls, " + this.queueDepth.get() + " waiting");
+    }
+
+    @Override
+    public String[] getId() {
+        final List<String> ids = new ArrayList<>();
+        ids.add(this.getClass().getSimpleName());
+        ids.addAll(Arrays.asList(this.bulkheadedPersonAttributeDao.getId()));
+        return ids.toArray(new String[]{});
+    }
+
+    @Override
+    @JsonIgnore
+    public Set<String> getPossibleUserAttributeNames(final IPersonAttributeDaoFilter filter) {
+        return this.bulkheadedPersonAttributeDao.getPossibleUserAttributeNames(filter);
+    }
+
+    @Override
+    @JsonIgnore
+    public Set<String> getAvailableQueryAttributes(final IPersonAttributeDaoFilter filter) {
+        return this.bulkheadedPersonAttributeDao.getAvailableQueryAttributes(filter);
+    }
+
+    public IPersonAttributeDao getBulkheadedPersonAttributeDao() {
+        return this.bulkheadedPersonAttributeDao;
+    }
+
+    /**
+     * @param bulkheadedPersonAttributeDao The IPersonAttributeDao to delegate queries to.
+     */
+    public void setBulkheadedPersonAttributeDao(final IPersonAttributeDao bulkheadedPersonAttributeDao) {
+        Validate.notNull(bulkheadedPersonAttributeDao, "bulkheadedPersonAttributeDao may not be null");
+        this.bulkheadedPersonAttributeDao = bulkheadedPersonAttributeDao;
+    }
+
+    public int getMaxConcurrentCalls() {
+        return this.maxConcurrentCalls;
+    }
+
+    /**
+     * Queries already running when this is changed count against the new limit, lowering it below the number of
+     * running queries rejects or queues new queries until enough of them have finished.
+     *
+     * @param maxConcurrentCalls The maximum number of queries running in the wrapped DAO at the same time.
+     */
+    public synchronized void setMaxConcurrentCalls(final int maxConcurrentCalls) {
+        Validate.isTrue(maxConcurrentCalls > 0, "maxConcurrentCalls must be greater than 0");
+        var delta = maxConcurrentCalls - this.maxConcurrentCalls;
+        if (delta > 0) {
+            this.semaphore.release(delta);
+        } else if (delta < 0) {
+            this.semaphore.reducePermits(-delta);
+        }
+        this.maxConcurrentCalls = maxConcurrentCalls;
+    }
+
+    public Duration getMaxWaitDuration() {
+        return this.maxWaitDuration;
+    }
+
+    /**
+     * @param maxWaitDuration How long a caller waits for a free slot, zero to reject immediately.
+     */
+    public void setMaxWaitDuration(final Duration maxWaitDuration) {
+        Validate.isTrue(maxWaitDuration != null && !maxWaitDuration.isNegative(), "maxWaitDuration must not be negative");
+        this.maxWaitDuration = maxWaitDuration;
+    }
+
+    public int getMaxQueueDepth() {
+        return this.maxQueueDepth;
+    }
+
+    /**
+     * @param maxQueueDepth The maximum number of callers waiting for a free slot.
+     */
+    public void setMaxQueueDepth(final int maxQueueDepth) {
+        Validate.isTrue(maxQueueDepth >= 0, "maxQueueDepth must not be negative");
+        this.maxQueueDepth = maxQueueDepth;
+    }
+
+    /**
+     * @return The number of queries currently running in the wrapped IPersonAttributeDao.
+     */
+    @JsonIgnore
+    public int getInFlightCalls() {
+        return this.maxConcurrentCalls - this.semaphore.availablePermits();
+    }
+
+    /**
+     * @return The number of callers currently waiting for a free slot.
+     */
+    @JsonIgnore
+    public int getQueueDepth() {
+        return this.queueDepth.get();
+    }
+
+    /**
+     * @return The number of queries passed to the wrapped IPersonAttributeDao.
+     */
+    @JsonIgnore
+    public long getPermittedCalls() {
+        return this.permittedCalls.get();
+    }
+
+    /**
+     * @return The number of queries rejected because the bulkhead was full.
+     */
+    @JsonIgnore
+    public long getRejectedCalls() {
+        return this.rejectedCalls.get();
+    }
+
+    /**
+     * Fair semaphore whose number of permits can be lowered while they are held.
+     */
+    private static final class ResizableSemaphore extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        ResizableSemaphore(final int permits) {
+            super(permits, true);
+        }
+
+        @Override
+        protected void reducePermits(final int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
@@ -23,6 +23,7 @@ import org.aopalliance.intercept.MethodInvocation;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apereo.services.persondir.IBatchPersonAttributeDao;
 import org.apereo.services.persondir.IPersonAttributeDao;
 import org.apereo.services.persondir.IPersonAttributeDaoFilter;
 import org.apereo.services.persondir.IPersonAttributes;
@@ -34,6 +35,7 @@ import org.springframework.beans.factory.InitializingBean;
 import java.io.Serializable;
 import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Method;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -41,6 +43,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A configurable caching implementation of {@link IPersonAttributeDao}
@@ -93,13 +96,37 @@ import java.util.Set;
  * <td valign="top">No</td>
  * <td valign="top">{@link CachingPersonAttributeDaoImpl#NULL_RESULTS_OBJECT}</td>
  * </tr>
+ * <tr>
+ * <td  valign="top">incompleteResultsTimeToLive</td>
+ * <td>
+ * If the wrapped IPersonAttributeDao reports its results as incomplete, as an
+ * {@link AbstractAggregatingDefaultQueryPersonAttributeDao} does when one of its children failed, timed out or was
+ * skipped, the incomplete results are not stored in the userInfoCache but kept in memory for this duration only.
+ * Wrapping DAOs such as {@link BulkheadPersonAttributeDao} pass the report on, see
+ * {@link IOutcomeReportingPersonAttributeDao}. Zero does not cache incomplete results at all.
+ * </td>
+ * <td valign="top">No</td>
+ * <td valign="top">30 seconds</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">memoizeMetadata</td>
+ * <td>
+ * If true the possible user attribute names and available query attributes of the wrapped
+ * IPersonAttributeDao are memoized per filter. Call clearMetadataCache after they change.
+ * </td>
+ * <td valign="top">No</td>
+ * <td valign="top">false</td>
+ * </tr>
  * </table>
+ * <br>
+ * Batched queries are answered from the cache where possible, the others are passed to the wrapped
+ * IPersonAttributeDao as one batch if it implements {@link IBatchPersonAttributeDao}.
  *
  * @author dgrimwood@unicon.net
  * @author Eric Dalquist
  * @version $Id
  */
-public class CachingPersonAttributeDaoImpl extends AbstractDefaultAttributePersonAttributeDao implements InitializingBean, BeanNameAware {
+public class CachingPersonAttributeDaoImpl extends AbstractDefaultAttributePersonAttributeDao implements InitializingBean, BeanNameAware, IBatchPersonAttributeDao {
     private final Object objectMonitor = new Object();
 
     protected static final Set<IPersonAttributes> NULL_RESULTS_OBJECT;
@@ -124,6 +151,24 @@ public class CachingPersonAttributeDaoImpl extends AbstractDefaultAttributePerso
      */
     private CacheKeyGenerator cacheKeyGenerator = null;
 
+    /*
+     * If the metadata of the wrapped IPersonAttributeDao is memoized.
+     */
+    private boolean memoizeMetadata = false;
+
+    private final PersonAttributeDaoMetadataCache metadataCache = new PersonAttributeDaoMetadataCache(MAX_METADATA_FILTERS);
+
+    private static final int MAX_METADATA_FILTERS = 32;
+
+    /*
+     * How long incomplete results of the wrapped IPersonAttributeDao are cached.
+     */
+    private Duration incompleteResultsTimeToLive = Duration.ofSeconds(30);
+
+    private final Map<Serializable, IncompleteResults> incompleteResultsCache = new ConcurrentHashMap<>();
+
+    private static final int MAX_INCOMPLETE_RESULTS = 1000;
+
     /*
      * The cache to store query results in.
      */
@@ -159,6 +204,7 @@ public class CachingPersonAttributeDaoImpl extends AbstractDefaultAttributePerso
         }
 
         this.cachedPersonAttributesDao = cachedPersonAttributesDao;
+        this.metadataCache.clear();
     }
 
     /**
@@ -238,6 +284,43 @@ public class CachingPersonAttributeDaoImpl extends AbstractDefaultAttributePerso
         this.cacheKeyGenerator = cacheKeyGenerator;
     }
 
+    public Duration getIncompleteResultsTimeToLive() {
+        return this.incompleteResultsTimeToLive;
+    }
+
+    /**
+     * @param incompleteResultsTimeToLive How long to cache results the wrapped IPersonAttributeDao reports as
+     *                                    incomplete, zero to not cache them.
+     */
+    public void setIncompleteResultsTimeToLive(final Duration incompleteResultsTimeToLive) {
+        Validate.isTrue(incompleteResultsTimeToLive != null && !incompleteResultsTimeToLive.isNegative(),
+            "incompleteResultsTimeToLive must not be negative");
+        this.incompleteResultsTimeToLive = incompleteResultsTimeToLive;
+        this.incompleteResultsCache.clear();
+    }
+
+    public boolean isMemoizeMetadata() {
+        return this.memoizeMetadata;
+    }
+
+    /**
+     * Memoize the possible user attribute names and available query attributes of the wrapped
+     * IPersonAttributeDao per filter.
+     *
+     * @param memoizeMetadata true to memoize metadata, defaults to false
+     */
+    public void setMemoizeMetadata(final boolean memoizeMetadata) {
+        this.memoizeMetadata = memoizeMetadata;
+        this.metadataCache.clear();
+    }
+
+    /**
+     * Forget the memoized metadata of the wrapped IPersonAttributeDao.
+     */
+    public void clearMetadataCache() {
+        this.metadataCache.clear();
+    }
+
     @Override
     public void setBeanName(final String name) {
         this.beanName = name;
@@ -289,33 +372,127 @@ public class CachingPersonAttributeDaoImpl extends AbstractDefaultAttributePerso
         }
 
         //Get the cache key
+        var cacheKey = this.getCacheKey(seed);
+        var cachedResults = this.getCachedResults(cacheKey);
+        if (cachedResults != null) {
+            return cachedResults.people();
+        }
+
+        var result = IOutcomeReportingPersonAttributeDao.getPeopleWithOutcomes(this.cachedPersonAttributesDao, seed, filter, resultPeople);
+        var queryResults = result.getPeople();
+        this.cacheResults(cacheKey, queryResults, result.isComplete());
+        return queryResults;
+    }
+
+    /**
+     * Answers the cached queries from the cache and passes the others to the wrapped IPersonAttributeDao, as one
+     * batch if it implements {@link IBatchPersonAttributeDao}.
+     */
+    @Override
+    public List<Set<IPersonAttributes>> getBatchedPeopleWithMultivaluedAttributes(final List<Map<String, List<Object>>> queries,
+                                                                                 final IPersonAttributeDaoFilter filter,
+                                                                                 final Set<IPersonAttributes> resultPeople) {
+        Validate.notNull(queries, "queries may not be null");
+
+        final List<Set<IPersonAttributes>> results = new ArrayList<>(queries.size());
+        if (!(this.cachedPersonAttributesDao instanceof IBatchPersonAttributeDao batchDao)) {
+            for (var query : queries) {
+                results.add(this.getPeopleWithMultivaluedAttributes(query, filter, resultPeople));
+            }
+            return results;
+        }
+        if (this.userInfoCache == null) {
+            throw new IllegalStateException("No 'userInfoCache' has been specified.");
+        }
+
+        final List<Serializable> missedKeys = new ArrayList<>();
+        final List<Map<String, List<Object>>> missedQueries = new ArrayList<>();
+        final List<Integer> missedIndexes = new ArrayList<>();
+        for (var query : queries) {
+            Validate.notNull(query, "The query seed Map cannot be null.");
+            var cacheKey = this.getCacheKey(query);
+            var cachedResults = this.getCachedResults(cacheKey);
+            if (cachedResults != null) {
+                results.add(cachedResults.people());
+            } else {
+                missedKeys.add(cacheKey);
+                missedQueries.add(query);
+                missedIndexes.add(results.size());
+                results.add(null);
+            }
+        }
+        if (missedQueries.isEmpty()) {
+            return results;
+        }
+
+        var queryResults = batchDao.getBatchedPeopleWithMultivaluedAttributes(missedQueries, filter, resultPeople);
+        for (var i = 0; i < missedQueries.size(); i++) {
+            var people = queryResults.get(i);
+            this.cacheResults(missedKeys.get(i), people, true);
+            results.set(missedIndexes.get(i), people);
+        }
+        return results;
+    }
+
+    private Serializable getCacheKey(final Map<String, List<Object>> seed) {
         var methodInvocation = new PersonAttributeDaoMethodInvocation(seed);
-        var cacheKey = this.cacheKeyGenerator.generateKey(methodInvocation);
+        return this.cacheKeyGenerator.generateKey(methodInvocation);
+    }
 
-        if (cacheKey != null) {
-            var cacheResults = this.userInfoCache.get(cacheKey);
-            if (cacheResults != null) {
-                //If the returned object is the null results object, set the cache results to null
-                if (this.nullResultsObject.equals(cacheResults)) {
-                    cacheResults = null;
-                }
+    /**
+     * @return the cached results for the key, null if there are none
+     */
+    private CachedResults getCachedResults(final Serializable cacheKey) {
+        if (cacheKey == null) {
+            return null;
+        }
+
+        var cacheResults = this.userInfoCache.get(cacheKey);
+        if (cacheResults != null) {
+            //If the returned object is the null results object, set the cache results to null
+            if (this.nullResultsObject.equals(cacheResults)) {
+                cacheResults = null;
+            }
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("Retrieved query from cache for " + beanName + ". key='" + cacheKey + "', results='" + cacheResults + "'");
+            }
+
+            this.queries++;
+            if (statsLogger.isDebugEnabled()) {
+                statsLogger.debug("Cache Stats " + beanName + ": queries=" + this.queries + ", hits=" + (this.queries - this.misses) + ", misses=" + this.misses);
+            }
+
+            return new CachedResults(cacheResults);
+        }
 
+        var incompleteResults = this.incompleteResultsCache.get(cacheKey);
+        if (incompleteResults != null) {
+            if (incompleteResults.expiresAt() > System.currentTimeMillis()) {
                 if (logger.isDebugEnabled()) {
-                    logger.debug("Retrieved query from cache for " + beanName + ". key='" + cacheKey + "', results='" + cacheResults + "'");
+                    logger.debug("Retrieved incomplete results from cache for " + beanName + ". key='" + cacheKey
+                                 + "', results='" + incompleteResults.people() + "'");
                 }
 
                 this.queries++;
-                if (statsLogger.isDebugEnabled()) {
-                    statsLogger.debug("Cache Stats " + beanName + ": queries=" + this.queries + ", hits=" + (this.queries - this.misses) + ", misses=" + this.misses);
-                }
-
-                return cacheResults;
+                return new CachedResults(incompleteResults.people());
             }
+            this.incompleteResultsCache.remove(cacheKey, incompleteResults);
         }
+        return null;
+    }
 
-        var queryResults = this.cachedPersonAttributesDao.getPeopleWithMultivaluedAttributes(seed, filter, resultPeople);
+    /**
+     * Cache the results, briefly if they are incomplete or hold people served from a last known good store.
+     */
+    private void cacheResults(final Serializable cacheKey, final Set<IPersonAttributes> queryResults, final boolean complete) {
+        if (cacheKey != null && (!complete || StalePersonImpl.isAnyStale(queryResults))) {
+            this.cacheIncompleteResults(cacheKey, queryResults);
 
-        if (cacheKey != null) {
+            this.queries++;
+            this.misses++;
+        } else if (cacheKey != null) {
+            this.incompleteResultsCache.remove(cacheKey);
             if (queryResults != null) {
                 this.userInfoCache.put(cacheKey, queryResults);
             } else if (this.cacheNullResults) {
@@ -333,8 +510,6 @@ public class CachingPersonAttributeDaoImpl extends AbstractDefaultAttributePerso
                 statsLogger.debug("Cache Stats " + beanName + ": queries=" + this.queries + ", hits=" + (this.queries - this.misses) + ", misses=" + this.misses);
             }
         }
-
-        return queryResults;
     }
 
     public void removeUserAttributes(final String uid) {
@@ -352,6 +527,41 @@ public class CachingPersonAttributeDaoImpl extends AbstractDefaultAttributePerso
         var methodInvocation = new PersonAttributeDaoMethodInvocation(seed);
         var cacheKey = this.cacheKeyGenerator.generateKey(methodInvocation);
         this.userInfoCache.remove(cacheKey);
+        if (cacheKey != null) {
+            this.incompleteResultsCache.remove(cacheKey);
+        }
+    }
+
+    private void cacheIncompleteResults(final Serializable cacheKey, final Set<IPersonAttributes> queryResults) {
+        if (this.incompleteResultsTimeToLive.isZero() || (queryResults == null && !this.cacheNullResults)) {
+            return;
+        }
+
+        var now = System.currentTimeMillis();
+        if (this.incompleteResultsCache.size() >= MAX_INCOMPLETE_RESULTS) {
+            this.incompleteResultsCache.values().removeIf(entry -> entry.expiresAt() <= now);
+            if (this.incompleteResultsCache.size() >= MAX_INCOMPLETE_RESULTS) {
+                return;
+            }
+        }
+
+        this.incompleteResultsCache.put(cacheKey, new IncompleteResults(queryResults, now + this.incompleteResultsTimeToLive.toMillis()));
+        if (logger.isDebugEnabled()) {
+            logger.debug("Retrieved incomplete results from wrapped IPersonAttributeDao and stored them for "
+                         + this.incompleteResultsTimeToLive + " for " + beanName + ". key='" + cacheKey + "', results='" + queryResults + "'");
+        }
+    }
+
+    /**
+     * Results of a query that missed a child DAO, with the time in milliseconds they expire at.
+     */
+    private record IncompleteResults(Set<IPersonAttributes> people, long expiresAt) {
+    }
+
+    /**
+     * Results of a query found in the cache, people may be null.
+     */
+    private record CachedResults(Set<IPersonAttributes> people) {
     }
 
     @Override
@@ -368,7 +578,16 @@ public class CachingPersonAttributeDaoImpl extends AbstractDefaultAttributePerso
     @Override
     @JsonIgnore
     public Set<String> getPossibleUserAttributeNames(final IPersonAttributeDaoFilter filter) {
-        return this.cachedPersonAttributesDao.getPossibleUserAttributeNames(filter);
+        if (!this.memoizeMetadata) {
+            return this.cachedPersonAttributesDao.getPossibleUserAttributeNames(filter);
+        }
+
+        var memoized = this.metadataCache.get(PersonAttributeDaoMetadataCache.Metadata.POSSIBLE_USER_ATTRIBUTE_NAMES, filter);
+        if (memoized != null) {
+            return memoized.orElse(null);
+        }
+        return this.metadataCache.put(PersonAttributeDaoMetadataCache.Metadata.POSSIBLE_USER_ATTRIBUTE_NAMES, filter,
+            this.cachedPersonAttributesDao.getPossibleUserAttributeNames(filter));
     }
 
     /* (non-Javadoc)
@@ -377,7 +596,16 @@ public class CachingPersonAttributeDaoImpl extends AbstractDefaultAttributePerso
     @Override
     @JsonIgnore
     public Set<String> getAvailableQueryAttributes(final IPersonAttributeDaoFilter filter) {
-        return this.cachedPersonAttributesDao.getAvailableQueryAttributes(filter);
+        if (!this.memoizeMetadata) {
+            return this.cachedPersonAttributesDao.getAvailableQueryAttributes(filter);
+        }
+
+        var memoized = this.metadataCache.get(PersonAttributeDaoMetadataCache.Metadata.AVAILABLE_QUERY_ATTRIBUTES, filter);
+        if (memoized != null) {
+            return memoized.orElse(null);
+        }
+        return this.metadataCache.put(PersonAttributeDaoMetadataCache.Metadata.AVAILABLE_QUERY_ATTRIBUTES, filter,
+            this.cachedPersonAttributesDao.getAvailableQueryAttributes(filter));
     }
 
     private static class PersonAttributeDaoMethodInvocation implements MethodInvocation {
@@ -18,16 +18,20 @@
  */
 package org.apereo.services.persondir.support;
 
+import org.apereo.services.persondir.IBatchPersonAttributeDao;
 import org.apereo.services.persondir.IPersonAttributeDaoFilter;
 import org.apereo.services.persondir.support.merger.ReplacingAttributeAdder;
 import org.apereo.services.persondir.IPersonAttributeDao;
 import org.apereo.services.persondir.IPersonAttributes;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 
 /**
@@ -62,6 +66,10 @@ import java.util.Set;
  * It is <u>highly</u> recommended that the first DAO on the list for this class is
  * the {@link EchoPersonAttributeDaoImpl}
  * to ensure the seed gets placed into the general result map.
+ * <br>
+ * When the general result map holds several people, a DAO implementing {@link IBatchPersonAttributeDao}
+ * is queried once for all of them. Other DAOs are queried once per person, concurrently if an
+ * <code>executorService</code> is set. The results are always merged in the order of the people.
  *
  * @author Eric Dalquist
 
@@ -101,12 +109,12 @@ public class CascadingPersonAttributeDao extends AbstractAggregatingDefaultQuery
                                                           final Set<IPersonAttributes> resultPeople,
                                                           final IPersonAttributeDaoFilter filter) {
         if (isFirstQuery || (!stopIfFirstDaoReturnsNull && (resultPeople == null || resultPeople.size() == 0))) {
-            return currentlyConsidering.getPeopleWithMultivaluedAttributes(seed, filter, resultPeople);
+            return this.getPeopleFromDao(currentlyConsidering, seed, filter, resultPeople);
         } else if (stopIfFirstDaoReturnsNull && !isFirstQuery && (resultPeople == null || resultPeople.size() == 0)) {
             return null;
         }
 
-        Set<IPersonAttributes> mergedPeopleResults = null;
+        final List<Map<String, List<Object>>> queries = new ArrayList<>(resultPeople.size());
         for (var person : resultPeople) {
             final Map<String, List<Object>> queryAttributes = new LinkedHashMap<>();
 
@@ -124,20 +132,99 @@ public class CascadingPersonAttributeDao extends AbstractAggregatingDefaultQuery
             if (this.addOriginalAttributesToQuery) {
                 queryAttributes.putAll(seed);
             }
-            
-            var newResults = currentlyConsidering.getPeopleWithMultivaluedAttributes(queryAttributes, filter, resultPeople);
+
+            queries.add(queryAttributes);
+        }
+
+        var mergedPeopleResults = this.attrMerger.newMergeAccumulator();
+        for (var newResults : this.getPeopleForQueries(queries, currentlyConsidering, resultPeople, filter)) {
             if (newResults != null) {
-                if (mergedPeopleResults == null) {
-                    //If this is the first valid result set just use it.
-                    mergedPeopleResults = new LinkedHashSet<>(newResults);
-                } else {
-                    //Merge the Sets of IPersons
-                    mergedPeopleResults = this.attrMerger.mergeResults(mergedPeopleResults, newResults);
-                }
+                //Merge the Sets of IPersons, the first valid result set is used as-is
+                mergedPeopleResults.add(newResults);
             }
         }
 
-        return mergedPeopleResults;
+        return mergedPeopleResults.getResults();
+    }
+
+    /**
+     * Child DAOs are queried with the seed on the first query, or while there are no results and
+     * stopIfFirstDaoReturnsNull=false. Otherwise they are queried with the name and attributes of each person in the
+     * results, and the seed if addOriginalAttributesToQuery=true.
+     */
+    @Override
+    protected Set<String> getQueryAttributeNames(final Map<String, List<Object>> seed, final boolean isFirstQuery,
+                                                 final Set<IPersonAttributes> resultPeople) {
+        if (isFirstQuery || resultPeople == null || resultPeople.isEmpty()) {
+            return seed.keySet();
+        }
+
+        final Set<String> names = new HashSet<>();
+        for (var person : resultPeople) {
+            if (person.getName() != null) {
+                names.addAll(this.toSeedMap(person.getName()).keySet());
+            }
+            names.addAll(person.getAttributes().keySet());
+        }
+        if (this.addOriginalAttributesToQuery) {
+            names.addAll(seed.keySet());
+        }
+        return names;
+    }
+
+    /**
+     * Run the per-person queries against the DAO, as one batch if the DAO supports it, concurrently if an
+     * executor is configured and serially otherwise.
+     *
+     * @return the results of each query, in the order of the queries
+     */
+    private List<Set<IPersonAttributes>> getPeopleForQueries(final List<Map<String, List<Object>>> queries,
+                                                             final IPersonAttributeDao currentlyConsidering,
+                                                             final Set<IPersonAttributes> resultPeople,
+                                                             final IPersonAttributeDaoFilter filter) {
+        if (queries.size() > 1 && currentlyConsidering instanceof IBatchPersonAttributeDao batchDao) {
+            var results = batchDao.getBatchedPeopleWithMultivaluedAttributes(queries, filter, resultPeople);
+            if (results == null || results.size() != queries.size()) {
+                throw new IllegalStateException("Batched query of '" + currentlyConsidering + "' returned "
+                                                + (results == null ? null : results.size()) + " results for "
+                                                + queries.size() + " queries");
+            }
+            return results;
+        }
+
+        final List<Set<IPersonAttributes>> results = new ArrayList<>(queries.size());
+        if (queries.size() < 2 || this.executorService == null) {
+            for (var query : queries) {
+                results.add(this.getPeopleFromDao(currentlyConsidering, query, filter, resultPeople));
+            }
+            return results;
+        }
+
+        final List<Future<Set<IPersonAttributes>>> futures = new ArrayList<>(queries.size());
+        try {
+            for (var query : queries) {
+                futures.add(this.executorService.submit(PersonAttributeQueryContext.wrap(
+                    () -> this.getPeopleFromDao(currentlyConsidering, query, filter, resultPeople))));
+            }
+            for (var future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while querying '" + currentlyConsidering + "'", e);
+        } catch (final ExecutionException e) {
+            var cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException("Failed to query '" + currentlyConsidering + "'", cause);
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
     }
 
     public void setAddOriginalAttributesToQuery(final boolean addOriginalAttributesToQuery) {
@@ -139,11 +139,13 @@ public class ComplexStubPersonAttributeDao extends AbstractQueryPersonAttributeD
     @JsonIgnore
     @Override
     public Set<String> getAvailableQueryAttributes(final IPersonAttributeDaoFilter filter) {
-        var usernameAttributeProvider = this.getUsernameAttributeProvider();
-        var usernameAttribute = usernameAttributeProvider.getUsernameAttribute();
-
         final Set<String> list = new HashSet<>();
-        list.add(usernameAttribute);
+        if (this.queryAttributeName != null) {
+            list.add(this.queryAttributeName);
+        } else {
+            var usernameAttributeProvider = this.getUsernameAttributeProvider();
+            list.add(usernameAttributeProvider.getUsernameAttribute());
+        }
 
         return list;
     }
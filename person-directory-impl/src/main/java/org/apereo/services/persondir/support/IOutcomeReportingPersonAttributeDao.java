@@ -0,0 +1,65 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support;
+
+import org.apereo.services.persondir.IPersonAttributeDao;
+import org.apereo.services.persondir.IPersonAttributeDaoFilter;
+import org.apereo.services.persondir.IPersonAttributes;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Optional interface for {@link IPersonAttributeDao}s that can report if their results are complete: the
+ * aggregating DAOs, and the DAOs wrapping another IPersonAttributeDao, which pass on the report of the wrapped
+ * one. {@link CachingPersonAttributeDaoImpl} uses it to keep incomplete results only briefly.
+ */
+public interface IOutcomeReportingPersonAttributeDao extends IPersonAttributeDao {
+    /**
+     * Query like {@link #getPeopleWithMultivaluedAttributes(Map, IPersonAttributeDaoFilter, Set)}, also
+     * reporting if the result is complete.
+     *
+     * @param query        the query
+     * @param filter       the filter, may be null
+     * @param resultPeople the people found so far by a parent DAO
+     * @return the people found and the outcomes of the DAOs queried
+     */
+    PersonAttributesResult getPeopleWithOutcomes(Map<String, List<Object>> query, IPersonAttributeDaoFilter filter,
+                                                 Set<IPersonAttributes> resultPeople);
+
+    /**
+     * Query an IPersonAttributeDao, with its report if it is an {@link IOutcomeReportingPersonAttributeDao}.
+     * The results of other IPersonAttributeDaos are complete.
+     *
+     * @param dao          the IPersonAttributeDao to query
+     * @param query        the query
+     * @param filter       the filter, may be null
+     * @param resultPeople the people found so far by a parent DAO
+     * @return the people found and the outcomes of the DAOs queried, if reported
+     */
+    static PersonAttributesResult getPeopleWithOutcomes(final IPersonAttributeDao dao, final Map<String, List<Object>> query,
+                                                        final IPersonAttributeDaoFilter filter,
+                                                        final Set<IPersonAttributes> resultPeople) {
+        if (dao instanceof IOutcomeReportingPersonAttributeDao reportingDao) {
+            return reportingDao.getPeopleWithOutcomes(query, filter, resultPeople);
+        }
+        return new PersonAttributesResult(dao.getPeopleWithMultivaluedAttributes(query, filter, resultPeople), null, true);
+    }
+}
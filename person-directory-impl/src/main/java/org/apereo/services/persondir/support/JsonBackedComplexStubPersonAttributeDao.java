@@ -19,6 +19,7 @@
 package org.apereo.services.persondir.support;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apereo.services.persondir.support.json.PersonAttributesJsonDeserializer;
 import org.springframework.beans.factory.BeanCreationException;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.core.io.Resource;
@@ -109,11 +110,12 @@ public class JsonBackedComplexStubPersonAttributeDao extends ComplexStubPersonAt
         }
     }
 
-    @SuppressWarnings("unchecked")
     private void unmarshalAndSetBackingMap() throws IOException {
         logger.info("Un-marshaling person attributes from the config file {}", this.personAttributesConfigFile);
-        final Map<String, Map<String, List<Object>>> backingMap = this.jacksonObjectMapper.readValue(
-            this.personAttributesConfigFile.getInputStream(), Map.class);
+        final Map<String, Map<String, List<Object>>> backingMap;
+        try (var parser = this.jacksonObjectMapper.createParser(this.personAttributesConfigFile.getInputStream())) {
+            backingMap = PersonAttributesJsonDeserializer.readBackingMap(parser);
+        }
         logger.debug("Person attributes have been successfully read into the map ");
         synchronized (this.synchronizationMonitor) {
             super.setBackingMap(backingMap);
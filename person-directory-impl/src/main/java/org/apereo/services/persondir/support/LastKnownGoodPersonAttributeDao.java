@@ -0,0 +1,462 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.apache.commons.lang3.Validate;
+import org.apereo.services.persondir.IBatchPersonAttributeDao;
+import org.apereo.services.persondir.IPersonAttributeDao;
+import org.apereo.services.persondir.IPersonAttributeDaoFilter;
+import org.apereo.services.persondir.IPersonAttributes;
+import org.apereo.services.persondir.support.resilience.CallNotPermittedException;
+import org.apereo.services.persondir.support.resilience.CircuitBreakerConfiguration;
+import org.apereo.services.persondir.support.resilience.ILastKnownGoodStore;
+import org.apereo.services.persondir.support.resilience.InMemoryLastKnownGoodStore;
+import org.apereo.services.persondir.support.resilience.LastKnownGoodEntry;
+import org.apereo.services.persondir.support.resilience.PersonAttributeDaoCircuitBreaker;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link IPersonAttributeDao} decorator that remembers the last successful result of the wrapped
+ * IPersonAttributeDao for each query, and serves it when the wrapped IPersonAttributeDao fails or its circuit
+ * breaker is open. Served people are {@link StalePersonImpl}s, and carry the <b>staleAttributeName</b> attribute
+ * if set so that the mark survives merging. If nothing is stored for the query the failure is rethrown. Served
+ * results are reported as incomplete, so that {@link CachingPersonAttributeDaoImpl} keeps them only briefly.
+ * Batches of queries are passed on as one batch if the wrapped IPersonAttributeDao implements
+ * {@link IBatchPersonAttributeDao}, if the batch fails or returns a result count other than the number of queries
+ * each query is answered from the store. A store that holds resources is closed when this DAO is destroyed.
+ * <br>
+ * <br>
+ * Configuration:
+ * <table border="1">
+ * <tr>
+ * <th>Property</th>
+ * <th>Description</th>
+ * <th>Required</th>
+ * <th>Default</th>
+ * </tr>
+ * <tr>
+ * <td  valign="top">guardedPersonAttributeDao</td>
+ * <td>
+ * The {@link IPersonAttributeDao} to delegate queries to.
+ * </td>
+ * <td valign="top">Yes</td>
+ * <td valign="top">null</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">lastKnownGoodStore</td>
+ * <td>
+ * Where the last successful results are kept, for example a {@link InMemoryLastKnownGoodStore} or a
+ * {@link org.apereo.services.persondir.support.resilience.MappedFileLastKnownGoodStore}.
+ * </td>
+ * <td valign="top">No</td>
+ * <td valign="top">{@link InMemoryLastKnownGoodStore} of 1000 entries</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">maxStaleness</td>
+ * <td>
+ * Results stored longer ago than this are not served. Null serves results of any age.
+ * </td>
+ * <td valign="top">No</td>
+ * <td valign="top">null</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">staleAttributeName</td>
+ * <td>
+ * If set, served people get this attribute with the time their result was stored as value.
+ * </td>
+ * <td valign="top">No</td>
+ * <td valign="top">null</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">circuitBreakerConfiguration</td>
+ * <td>
+ * If set the wrapped IPersonAttributeDao is guarded by a {@link PersonAttributeDaoCircuitBreaker}, and stored
+ * results are served without calling it while the circuit is open.
+ * </td>
+ * <td valign="top">No</td>
+ * <td valign="top">null</td>
+ * </tr>
+ * </table>
+ */
+public class LastKnownGoodPersonAttributeDao extends AbstractDefaultAttributePersonAttributeDao
+    implements IBatchPersonAttributeDao, IOutcomeReportingPersonAttributeDao, DisposableBean {
+    private IPersonAttributeDao guardedPersonAttributeDao;
+
+    private ILastKnownGoodStore lastKnownGoodStore = new InMemoryLastKnownGoodStore(1000);
+
+    private Duration maxStaleness;
+
+    private String staleAttributeName;
+
+    private CircuitBreakerConfiguration circuitBreakerConfiguration;
+
+    private PersonAttributeDaoCircuitBreaker circuitBreaker;
+
+    private final AtomicLong failedCalls = new AtomicLong();
+
+    private final AtomicLong fallbackHits = new AtomicLong();
+
+    public LastKnownGoodPersonAttributeDao() {
+        super();
+    }
+
+    public LastKnownGoodPersonAttributeDao(final IPersonAttributeDao guardedPersonAttributeDao) {
+        this();
+        this.setGuardedPersonAttributeDao(guardedPersonAttributeDao);
+    }
+
+    @Override
+    public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query,
+                                                                     final IPersonAttributeDaoFilter filter,
+                                                                     final Set<IPersonAttributes> resultPeople) {
+        return this.getPeopleWithOutcomes(query, filter, resultPeople).getPeople();
+    }
+
+    /**
+     * Passes on whether the results of the wrapped IPersonAttributeDao are complete, served results are incomplete.
+     * Incomplete results are not stored, so that they do not replace complete ones.
+     */
+    @Override
+    public PersonAttributesResult getPeopleWithOutcomes(final Map<String, List<Object>> query,
+                                                        final IPersonAttributeDaoFilter filter,
+                                                        final Set<IPersonAttributes> resultPeople) {
+        if (this.guardedPersonAttributeDao == null) {
+            throw new IllegalStateException("No 'guardedPersonAttributeDao' has been specified.");
+        }
+
+        var key = this.keyOf(query, filter);
+        var circuitBreaker = this.circuitBreaker;
+        if (circuitBreaker != null && !circuitBreaker.tryAcquirePermission()) {
+            return this.fallbackResult(key, new CallNotPermittedException("Circuit breaker of '" + this.guardedPersonAttributeDao
+                                                                          + "' is " + circuitBreaker.getState()));
+        }
+
+        final PersonAttributesResult result;
+        var start = System.nanoTime();
+        try {
+            result = IOutcomeReportingPersonAttributeDao.getPeopleWithOutcomes(this.guardedPersonAttributeDao, query, filter, resultPeople);
+        } catch (final RuntimeException e) {
+            if (circuitBreaker != null) {
+                circuitBreaker.onError(System.nanoTime() - start);
+            }
+            return this.fallbackResult(key, e);
+        }
+        if (circuitBreaker != null) {
+            circuitBreaker.onSuccess(System.nanoTime() - start);
+        }
+
+        if (result.isComplete()) {
+            this.store(key, result.getPeople());
+        }
+        return result;
+    }
+
+    @Override
+    public List<Set<IPersonAttributes>> getBatchedPeopleWithMultivaluedAttributes(final List<Map<String, List<Object>>> queries,
+                                                                                 final IPersonAttributeDaoFilter filter,
+                                                                                 final Set<IPersonAttributes> resultPeople) {
+        Validate.notNull(queries, "queries may not be null");
+        final List<Set<IPersonAttributes>> results = new ArrayList<>(queries.size());
+        if (!(this.guardedPersonAttributeDao instanceof IBatchPersonAttributeDao batchDao)) {
+            for (var query : queries) {
+                results.add(this.getPeopleWithMultivaluedAttributes(query, filter, resultPeople));
+            }
+            return results;
+        }
+
+        final List<String> keys = new ArrayList<>(queries.size());
+        for (var query : queries) {
+            keys.add(this.keyOf(query, filter));
+        }
+
+        var circuitBreaker = this.circuitBreaker;
+        RuntimeException failure = null;
+        List<Set<IPersonAttributes>> batchResults = null;
+        if (circuitBreaker != null && !circuitBreaker.tryAcquirePermission()) {
+            failure = new CallNotPermittedException("Circuit breaker of '" + this.guardedPersonAttributeDao
+                                                    + "' is " + circuitBreaker.getState());
+        } else {
+            var start = System.nanoTime();
+            try {
+                batchResults = batchDao.getBatchedPeopleWithMultivaluedAttributes(queries, filter, resultPeople);
+                if (batchResults == null || batchResults.size() != queries.size()) {
+                    throw new IllegalStateException("Batched query of '" + this.guardedPersonAttributeDao + "' returned "
+                                                    + (batchResults == null ? null : batchResults.size()) + " results for "
+                                                    + queries.size() + " queries");
+                }
+                if (circuitBreaker != null) {
+                    circuitBreaker.onSuccess(System.nanoTime() - start);
+                }
+            } catch (final RuntimeException e) {
+                if (circuitBreaker != null) {
+                    circuitBreaker.onError(System.nanoTime() - start);
+                }
+                failure = e;
+            }
+        }
+
+        for (var i = 0; i < keys.size(); i++) {
+            if (failure != null) {
+                results.add(this.fallback(keys.get(i), failure));
+            } else {
+                var people = batchResults.get(i);
+                this.store(keys.get(i), people);
+                results.add(people);
+            }
+        }
+        return results;
+    }
+
+    private void store(final String key, final Set<IPersonAttributes> people) {
+        try {
+            if (people == null || people.isEmpty()) {
+                this.lastKnownGoodStore.remove(key);
+            } else {
+                this.lastKnownGoodStore.put(key, new LastKnownGoodEntry(people, System.currentTimeMillis()));
+            }
+        } catch (final RuntimeException e) {
+            this.logger.warn("Failed to store the last known good results of '" + this.guardedPersonAttributeDao + "' for " + key, e);
+        }
+    }
+
+    private PersonAttributesResult fallbackResult(final String key, final RuntimeException failure) {
+        return new PersonAttributesResult(this.fallback(key, failure), null, false);
+    }
+
+    private Set<IPersonAttributes> fallback(final String key, final RuntimeException failure) {
+        this.failedCalls.incrementAndGet();
+
+        LastKnownGoodEntry entry = null;
+        try {
+            entry = this.lastKnownGoodStore.get(key);
+        } catch (final RuntimeException e) {
+            this.logger.warn("Failed to read the last known good results of '" + this.guardedPersonAttributeDao + "' for " + key, e);
+        }
+        if (entry == null || (this.maxStaleness != null
+                              && entry.getStoredAt().plus(this.maxStaleness).toEpochMilli() < System.currentTimeMillis())) {
+            throw failure;
+        }
+
+        this.fallbackHits.incrementAndGet();
+        this.logger.warn("Serving last known good results of '{}' from {} for {}: {}",
+            this.guardedPersonAttributeDao, entry.getStoredAt(), key, failure.getMessage());
+
+        final Set<IPersonAttributes> stalePeople = new LinkedHashSet<>(entry.getPeople().size());
+        for (var person : entry.getPeople()) {
+            var attributes = person.getAttributes();
+            if (this.staleAttributeName != null) {
+                attributes = new LinkedHashMap<>(attributes);
+                attributes.put(this.staleAttributeName, List.of(entry.getStoredAt().toString()));
+            }
+            stalePeople.add(new StalePersonImpl(person.getName(), attributes, entry.getStoredAt()));
+        }
+        return stalePeople;
+    }
+
+    /**
+     * The canonical form of a query and filter, independent of the order of the query attributes. Names and
+     * values are written with their length so that no two queries share a key, and values with their type so
+     * that 1 and "1" differ. Filters are only consulted by aggregating IPersonAttributeDaos, so the filter is
+     * written as the positions of the IPersonAttributeDaos it rejects under the wrapped IPersonAttributeDao.
+     * This keeps keys stable across restarts for stores that outlive the JVM.
+     */
+    private String keyOf(final Map<String, List<Object>> query, final IPersonAttributeDaoFilter filter) {
+        var key = new StringBuilder();
+        var sortedQuery = new TreeMap<>(query);
+        key.append(sortedQuery.size()).append('{');
+        for (var entry : sortedQuery.entrySet()) {
+            appendToken(key, entry.getKey());
+            var values = entry.getValue();
+            if (values == null) {
+                key.append('-');
+                continue;
+            }
+            key.append(values.size()).append('[');
+            for (var value : values) {
+                appendToken(key, value == null ? null : value.getClass().getName() + ':' + value);
+            }
+        }
+
+        final List<String> rejected = new ArrayList<>();
+        if (filter != null) {
+            addRejectedPositions(this.guardedPersonAttributeDao, filter, "", rejected);
+        }
+        key.append(rejected.size()).append('!');
+        for (var position : rejected) {
+            appendToken(key, position);
+        }
+        return key.toString();
+    }
+
+    private static void appendToken(final StringBuilder key, final String token) {
+        if (token == null) {
+            key.append('-');
+        } else {
+            key.append(token.length()).append(':').append(token);
+        }
+    }
+
+    private static void addRejectedPositions(final IPersonAttributeDao dao, final IPersonAttributeDaoFilter filter,
+                                             final String path, final List<String> rejected) {
+        if (!(dao instanceof AbstractAggregatingDefaultQueryPersonAttributeDao aggregatingDao)
+            || aggregatingDao.getPersonAttributeDaos() == null) {
+            return;
+        }
+        var children = aggregatingDao.getPersonAttributeDaos();
+        for (var i = 0; i < children.size(); i++) {
+            var child = children.get(i);
+            if (filter.choosePersonAttributeDao(child)) {
+                addRejectedPositions(child, filter, path + i + '.', rejected);
+            } else {
+                rejected.add(path + i);
+            }
+        }
+    }
+
+    /**
+     * Closes the last known good store if it holds resources, such as the file of a
+     * {@link org.apereo.services.persondir.support.resilience.MappedFileLastKnownGoodStore}.
+     */
+    @Override
+    public void destroy() throws Exception {
+        if (this.lastKnownGoodStore instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    @Override
+    public String[] getId() {
+        final List<String> ids = new ArrayList<>();
+        ids.add(this.getClass().getSimpleName());
+        ids.addAll(Arrays.asList(this.guardedPersonAttributeDao.getId()));
+        return ids.toArray(new String[]{});
+    }
+
+    @Override
+    @JsonIgnore
+    public Set<String> getPossibleUserAttributeNames(final IPersonAttributeDaoFilter filter) {
+        return this.guardedPersonAttributeDao.getPossibleUserAttributeNames(filter);
+    }
+
+    @Override
+    @JsonIgnore
+    public Set<String> getAvailableQueryAttributes(final IPersonAttributeDaoFilter filter) {
+        return this.guardedPersonAttributeDao.getAvailableQueryAttributes(filter);
+    }
+
+    public IPersonAttributeDao getGuardedPersonAttributeDao() {
+        return this.guardedPersonAttributeDao;
+    }
+
+    /**
+     * @param guardedPersonAttributeDao The IPersonAttributeDao to delegate queries to.
+     */
+    public void setGuardedPersonAttributeDao(final IPersonAttributeDao guardedPersonAttributeDao) {
+        Validate.notNull(guardedPersonAttributeDao, "guardedPersonAttributeDao may not be null");
+        this.guardedPersonAttributeDao = guardedPersonAttributeDao;
+        this.setCircuitBreakerConfiguration(this.circuitBreakerConfiguration);
+    }
+
+    @JsonIgnore
+    public ILastKnownGoodStore getLastKnownGoodStore() {
+        return this.lastKnownGoodStore;
+    }
+
+    /**
+     * @param lastKnownGoodStore Where the last successful results are kept.
+     */
+    public void setLastKnownGoodStore(final ILastKnownGoodStore lastKnownGoodStore) {
+        Validate.notNull(lastKnownGoodStore, "lastKnownGoodStore may not be null");
+        this.lastKnownGoodStore = lastKnownGoodStore;
+    }
+
+    public Duration getMaxStaleness() {
+        return this.maxStaleness;
+    }
+
+    /**
+     * @param maxStaleness Results stored longer ago are not served, null to serve results of any age.
+     */
+    public void setMaxStaleness(final Duration maxStaleness) {
+        this.maxStaleness = maxStaleness;
+    }
+
+    public String getStaleAttributeName() {
+        return this.staleAttributeName;
+    }
+
+    /**
+     * @param staleAttributeName Attribute added to served people with the time their result was stored, null for none.
+     */
+    public void setStaleAttributeName(final String staleAttributeName) {
+        this.staleAttributeName = staleAttributeName;
+    }
+
+    public CircuitBreakerConfiguration getCircuitBreakerConfiguration() {
+        return this.circuitBreakerConfiguration;
+    }
+
+    /**
+     * @param circuitBreakerConfiguration Configuration of the circuit breaker guarding the wrapped
+     *                                    IPersonAttributeDao, null to not use one.
+     */
+    public void setCircuitBreakerConfiguration(final CircuitBreakerConfiguration circuitBreakerConfiguration) {
+        this.circuitBreakerConfiguration = circuitBreakerConfiguration;
+        this.circuitBreaker = circuitBreakerConfiguration == null || this.guardedPersonAttributeDao == null
+            ? null
+            : new PersonAttributeDaoCircuitBreaker(String.valueOf(this.guardedPersonAttributeDao), circuitBreakerConfiguration);
+    }
+
+    /**
+     * @return The number of calls to the wrapped IPersonAttributeDao that failed or were not permitted.
+     */
+    @JsonIgnore
+    public long getFailedCalls() {
+        return this.failedCalls.get();
+    }
+
+    /**
+     * @return The number of failed calls answered from the last known good store.
+     */
+    @JsonIgnore
+    public long getFallbackHits() {
+        return this.fallbackHits.get();
+    }
+
+    /**
+     * @return The share of failed calls answered from the last known good store, 0 if no call failed.
+     */
+    @JsonIgnore
+    public double getFallbackHitRate() {
+        var failed = this.failedCalls.get();
+        return failed == 0 ? 0 : (double) this.fallbackHits.get() / failed;
+    }
+}
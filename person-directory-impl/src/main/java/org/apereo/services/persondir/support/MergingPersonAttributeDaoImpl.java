@@ -21,8 +21,16 @@ package org.apereo.services.persondir.support;
 import org.apereo.services.persondir.IPersonAttributeDao;
 import org.apereo.services.persondir.IPersonAttributeDaoFilter;
 import org.apereo.services.persondir.IPersonAttributes;
+import org.apereo.services.persondir.support.jdbc.AbstractJdbcPersonAttributeDao;
 import org.apereo.services.persondir.support.merger.MultivaluedAttributeMerger;
+import org.apereo.services.persondir.support.resilience.PersonAttributeDaoCircuitBreaker;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.jdbc.datasource.ConnectionHolder;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.sql.DataSource;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -32,6 +40,12 @@ import java.util.Set;
  * IPersonAttributeDaos queries each with the same data and merges their
  * reported attributes in a configurable way. The default merger is
  * {@link MultivaluedAttributeMerger}.
+ * <br>
+ * If <b>fuseJdbcQueries</b> is true, the JDBC child DAOs sharing a DataSource are queried one after the other
+ * on a single connection when the first of them is reached, and the results are handed to the others through the
+ * {@link PersonAttributeQueryContext} of the query. Each child DAO still maps its own results, its circuit breaker
+ * and statistics see its own duration, and failures are reported when the failing child DAO is reached. Not applied when <b>stopOnSuccess</b> is true, as the later
+ * child DAOs are usually not queried.
  *
  * @author andrew.petro@yale.edu
  * @author Eric Dalquist
@@ -39,6 +53,11 @@ import java.util.Set;
  * @since uPortal 2.5
  */
 public class MergingPersonAttributeDaoImpl extends AbstractAggregatingDefaultQueryPersonAttributeDao {
+    /**
+     * If JDBC child DAOs sharing a DataSource are queried on a single connection.
+     */
+    private boolean fuseJdbcQueries;
+
     public MergingPersonAttributeDaoImpl() {
         this.attrMerger = new MultivaluedAttributeMerger();
     }
@@ -53,6 +72,100 @@ public class MergingPersonAttributeDaoImpl extends AbstractAggregatingDefaultQue
                                                           final IPersonAttributeDao currentlyConsidering,
                                                           final Set<IPersonAttributes> resultPeople,
                                                           final IPersonAttributeDaoFilter filter) {
-        return currentlyConsidering.getPeopleWithMultivaluedAttributes(seed, filter, resultPeople);
+        return this.getPeopleFromDao(currentlyConsidering, seed, filter, resultPeople);
+    }
+
+    @Override
+    protected void prefetch(final IPersonAttributeDao currentlyConsidering, final Map<String, List<Object>> query,
+                            final IPersonAttributeDaoFilter filter, final Set<IPersonAttributes> resultPeople) {
+        if (this.isFusingJdbcQueries() && currentlyConsidering instanceof AbstractJdbcPersonAttributeDao<?> jdbcDao) {
+            this.fuseJdbcQueries(jdbcDao, query, filter, resultPeople);
+        }
+    }
+
+    @Override
+    protected boolean isQueryContextRequired() {
+        return super.isQueryContextRequired() || this.isFusingJdbcQueries();
+    }
+
+    private boolean isFusingJdbcQueries() {
+        return this.fuseJdbcQueries && !this.stopOnSuccess;
+    }
+
+    /**
+     * Query the JDBC child DAO and the later child DAOs sharing its DataSource on a single connection, memoizing
+     * their results in the open {@link PersonAttributeQueryContext}. Child DAOs that would not be queried, because
+     * of the filter, the routing table or a circuit breaker that is not closed, are left out. Each call is recorded
+     * with its own duration and outcome, the child DAOs are then answered from the query context when reached.
+     */
+    private void fuseJdbcQueries(final AbstractJdbcPersonAttributeDao<?> currentlyConsidering, final Map<String, List<Object>> seed,
+                                 final IPersonAttributeDaoFilter filter, final Set<IPersonAttributes> resultPeople) {
+        var context = PersonAttributeQueryContext.current();
+        if (context == null || context.isMemoized(currentlyConsidering, seed, filter) || !this.isCircuitClosed(currentlyConsidering)) {
+            return;
+        }
+
+        var dataSource = currentlyConsidering.getDataSource();
+        final List<IPersonAttributeDao> fused = new ArrayList<>();
+        var queryAttributeNames = this.getQueryAttributeNames(seed, true, resultPeople);
+        for (var dao : this.personAttributeDaos) {
+            if (dao == currentlyConsidering
+                || dao instanceof AbstractJdbcPersonAttributeDao<?> jdbcDao && jdbcDao.getDataSource() == dataSource
+                   && (filter == null || filter.choosePersonAttributeDao(dao))
+                   && this.isRouted(dao, queryAttributeNames)
+                   && !context.isMemoized(dao, seed, filter)
+                   && this.isCircuitClosed(dao)) {
+                fused.add(dao);
+            }
+        }
+        if (fused.size() < 2 || TransactionSynchronizationManager.hasResource(dataSource)) {
+            // Nothing to fuse, or the caller already bound a connection of the DataSource to this thread
+            return;
+        }
+
+        final ConnectionHolder connectionHolder;
+        try {
+            connectionHolder = new ConnectionHolder(DataSourceUtils.getConnection(dataSource));
+        } catch (final CannotGetJdbcConnectionException e) {
+            this.logger.debug("Not fusing the queries of {}, no connection could be obtained", fused, e);
+            return;
+        }
+
+        this.logger.debug("Querying {} on a single connection", fused);
+        TransactionSynchronizationManager.bindResource(dataSource, connectionHolder);
+        try {
+            for (var dao : fused) {
+                var succeeded = false;
+                var start = System.nanoTime();
+                try {
+                    context.getPeople(dao, seed, filter, () -> dao.getPeopleWithMultivaluedAttributes(seed, filter, resultPeople));
+                    succeeded = true;
+                } catch (final RuntimeException e) {
+                    // Memoized, rethrown when the child DAO is reached
+                    this.logger.debug("Fused query of {} failed", dao, e);
+                }
+                this.recordCall(dao, succeeded, System.nanoTime() - start);
+            }
+        } finally {
+            TransactionSynchronizationManager.unbindResource(dataSource);
+            DataSourceUtils.releaseConnection(connectionHolder.getConnection(), dataSource);
+        }
+    }
+
+    private boolean isCircuitClosed(final IPersonAttributeDao dao) {
+        var circuitBreaker = this.getCircuitBreaker(dao);
+        return circuitBreaker == null || circuitBreaker.getState() == PersonAttributeDaoCircuitBreaker.State.CLOSED;
+    }
+
+    public boolean isFuseJdbcQueries() {
+        return fuseJdbcQueries;
+    }
+
+    /**
+     * @param fuseJdbcQueries true to query the JDBC child DAOs sharing a DataSource on a single connection,
+     *                        defaults to false
+     */
+    public void setFuseJdbcQueries(final boolean fuseJdbcQueries) {
+        this.fuseJdbcQueries = fuseJdbcQueries;
     }
 }
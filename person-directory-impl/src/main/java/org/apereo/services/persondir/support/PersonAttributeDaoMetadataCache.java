@@ -0,0 +1,93 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support;
+
+import org.apache.commons.lang3.Validate;
+import org.apereo.services.persondir.IPersonAttributeDaoFilter;
+import org.apereo.services.persondir.util.CollectionsUtil;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Bounded memo of the schema metadata of a PersonAttributeDao, its possible user attribute names and available
+ * query attributes, keyed by the {@link IPersonAttributeDaoFilter} they were requested with. Filters are compared
+ * with equals, lambdas therefore only hit the memo when the same instance is passed again. Once full the least
+ * recently used filter is evicted. Null results are memoized as well. Instances are thread-safe.
+ */
+public class PersonAttributeDaoMetadataCache {
+    /**
+     * The kinds of metadata kept.
+     */
+    public enum Metadata {
+        POSSIBLE_USER_ATTRIBUTE_NAMES,
+        AVAILABLE_QUERY_ATTRIBUTES
+    }
+
+    private static final Object NULL_FILTER = new Object();
+
+    private final Map<Metadata, Map<Object, Optional<Set<String>>>> memos = new LinkedHashMap<>();
+
+    /**
+     * @param maxFilters the maximum number of filters to keep metadata for, per kind of metadata
+     */
+    public PersonAttributeDaoMetadataCache(final int maxFilters) {
+        Validate.isTrue(maxFilters > 0, "maxFilters must be greater than 0");
+        for (var metadata : Metadata.values()) {
+            this.memos.put(metadata, new LinkedHashMap<>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<Object, Optional<Set<String>>> eldest) {
+                    return size() > maxFilters;
+                }
+            });
+        }
+    }
+
+    /**
+     * @param metadata the kind of metadata
+     * @param filter   the filter the metadata was requested with, may be null
+     * @return the memoized metadata, an empty Optional for a memoized null, null if nothing is memoized
+     */
+    public synchronized Optional<Set<String>> get(final Metadata metadata, final IPersonAttributeDaoFilter filter) {
+        return this.memos.get(metadata).get(filter == null ? NULL_FILTER : filter);
+    }
+
+    /**
+     * @param metadata the kind of metadata
+     * @param filter   the filter the metadata was requested with, may be null
+     * @param value    the metadata, may be null. It is wrapped as unmodifiable as it is shared by all callers.
+     * @return the memoized value
+     */
+    public synchronized Set<String> put(final Metadata metadata, final IPersonAttributeDaoFilter filter, final Set<String> value) {
+        var memoized = value == null ? null : CollectionsUtil.safelyWrapAsUnmodifiableSet(value);
+        this.memos.get(metadata).put(filter == null ? NULL_FILTER : filter, Optional.ofNullable(memoized));
+        return memoized;
+    }
+
+    /**
+     * Forget all memoized metadata.
+     */
+    public synchronized void clear() {
+        this.memos.values().forEach(Map::clear);
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support;
+
+import org.apereo.services.persondir.IPersonAttributeDao;
+import org.apereo.services.persondir.support.resilience.CallNotPermittedException;
+import org.springframework.dao.QueryTimeoutException;
+
+import java.net.SocketTimeoutException;
+import java.sql.SQLTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The outcome of querying one child DAO of an aggregating DAO, with how long the query took.
+ */
+public class PersonAttributeDaoOutcome {
+    /**
+     * How a child DAO answered.
+     */
+    public enum Status {
+        /**
+         * The child DAO returned people.
+         */
+        SUCCESS,
+        /**
+         * The child DAO returned people served from a fallback such as a last known good store, see
+         * {@link org.apereo.services.persondir.support.StalePersonImpl}.
+         */
+        STALE,
+        /**
+         * The child DAO returned no people, or could not use the query and was not called.
+         */
+        EMPTY,
+        /**
+         * The child DAO threw an exception.
+         */
+        FAILED,
+        /**
+         * The child DAO timed out, or its answer was abandoned for that of a faster child.
+         */
+        TIMED_OUT,
+        /**
+         * The child DAO was not called, for example because its circuit breaker or bulkhead rejected the call.
+         */
+        SKIPPED
+    }
+
+    private final IPersonAttributeDao personAttributeDao;
+
+    private final Status status;
+
+    private final long latencyNanos;
+
+    public PersonAttributeDaoOutcome(final IPersonAttributeDao personAttributeDao, final Status status, final long latencyNanos) {
+        this.personAttributeDao = personAttributeDao;
+        this.status = status;
+        this.latencyNanos = latencyNanos;
+    }
+
+    /**
+     * @param failure the exception thrown by a child DAO
+     * @return {@link Status#SKIPPED} for a rejected call, {@link Status#TIMED_OUT} if the exception or one of its
+     * causes is a timeout, {@link Status#FAILED} otherwise
+     */
+    public static Status statusOf(final Throwable failure) {
+        for (var cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CallNotPermittedException) {
+                return Status.SKIPPED;
+            }
+            if (cause instanceof TimeoutException || cause instanceof SocketTimeoutException
+                || cause instanceof SQLTimeoutException || cause instanceof QueryTimeoutException) {
+                return Status.TIMED_OUT;
+            }
+        }
+        return Status.FAILED;
+    }
+
+    public IPersonAttributeDao getPersonAttributeDao() {
+        return this.personAttributeDao;
+    }
+
+    public Status getStatus() {
+        return this.status;
+    }
+
+    public Duration getLatency() {
+        return Duration.ofNanos(this.latencyNanos);
+    }
+
+    @Override
+    public String toString() {
+        return "PersonAttributeDaoOutcome[personAttributeDao=" + this.personAttributeDao + ", status=" + this.status
+               + ", latency=" + this.getLatency() + "]";
+    }
+}
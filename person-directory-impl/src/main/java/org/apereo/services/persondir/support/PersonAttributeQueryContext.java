@@ -0,0 +1,246 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support;
+
+import org.apereo.services.persondir.IPersonAttributeDao;
+import org.apereo.services.persondir.IPersonAttributeDaoFilter;
+import org.apereo.services.persondir.IPersonAttributes;
+import org.apereo.services.persondir.util.CollectionsUtil;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * The state of one top-level attribute request, shared by all PersonAttributeDaos taking part in it. While a
+ * context is open on a thread, queries of a PersonAttributeDao passed to {@link #getPeople} are executed once per
+ * (PersonAttributeDao, query, filter) and later identical queries get the same result, or the same exception.
+ * Queries are compared independent of the order of their attributes, PersonAttributeDaos by identity and filters
+ * with equals. The people found so far by a parent DAO are not part of the key.
+ * <br>
+ * A context is opened with {@link #open()} and closed with the returned {@link Scope}, typically in a
+ * try-with-resources block around a login. Opening while a context is already open joins it, so only the outermost
+ * scope ends the request. Tasks handed to other threads are bound to the context with {@link #wrap(Callable)}.
+ * <br>
+ * The context also carries attributes, for example to pin a request to a resource. Instances are thread-safe.
+ */
+public final class PersonAttributeQueryContext {
+    private static final ThreadLocal<PersonAttributeQueryContext> CURRENT = new ThreadLocal<>();
+
+    private final Map<Key, CompletableFuture<Set<IPersonAttributes>>> memo = new ConcurrentHashMap<>();
+
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+
+    private final AtomicLong memoHits = new AtomicLong();
+
+    private PersonAttributeQueryContext() {
+    }
+
+    /**
+     * @return the context open on the current thread, null if none is
+     */
+    public static PersonAttributeQueryContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Open a new context on the current thread, or join the one already open.
+     *
+     * @return the scope to close when the request ends
+     */
+    public static Scope open() {
+        var current = CURRENT.get();
+        return (current != null ? current : new PersonAttributeQueryContext()).attach();
+    }
+
+    /**
+     * Bind a task to the context open on the calling thread, so that it runs within it on whichever thread executes
+     * it. Returns the task itself if no context is open.
+     *
+     * @param task the task
+     * @param <T>  the result type of the task
+     * @return the bound task
+     */
+    public static <T> Callable<T> wrap(final Callable<T> task) {
+        var current = CURRENT.get();
+        if (current == null) {
+            return task;
+        }
+        return () -> {
+            var scope = current.attach();
+            try {
+                return task.call();
+            } finally {
+                scope.close();
+            }
+        };
+    }
+
+    /**
+     * Get the people for a query of a PersonAttributeDao, executing the query only if no identical query was
+     * executed in this context before.
+     *
+     * @param dao    the PersonAttributeDao queried
+     * @param query  the query
+     * @param filter the filter, may be null
+     * @param loader executes the query
+     * @return the people, an unmodifiable set shared by all identical queries, may be null
+     */
+    public Set<IPersonAttributes> getPeople(final IPersonAttributeDao dao, final Map<String, List<Object>> query,
+                                            final IPersonAttributeDaoFilter filter,
+                                            final Supplier<Set<IPersonAttributes>> loader) {
+        var key = new Key(dao, new TreeMap<>(query), filter);
+        var future = new CompletableFuture<Set<IPersonAttributes>>();
+        var existing = this.memo.putIfAbsent(key, future);
+        if (existing == null) {
+            try {
+                var people = loader.get();
+                future.complete(people == null ? null : CollectionsUtil.safelyWrapAsUnmodifiableSet(people));
+            } catch (final RuntimeException | Error e) {
+                future.completeExceptionally(e);
+            }
+        } else {
+            this.memoHits.incrementAndGet();
+            future = existing;
+        }
+
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the query of '" + dao + "'", e);
+        } catch (final ExecutionException e) {
+            var cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException("Failed to query '" + dao + "'", cause);
+        }
+    }
+
+    /**
+     * @param dao    the PersonAttributeDao
+     * @param query  the query
+     * @param filter the filter, may be null
+     * @return true if the query was executed, or is executing, in this context
+     */
+    public boolean isMemoized(final IPersonAttributeDao dao, final Map<String, List<Object>> query,
+                              final IPersonAttributeDaoFilter filter) {
+        return this.memo.containsKey(new Key(dao, new TreeMap<>(query), filter));
+    }
+
+    /**
+     * @return the number of distinct queries executed in this context
+     */
+    public int getMemoizedQueries() {
+        return this.memo.size();
+    }
+
+    /**
+     * @return the number of queries answered from the memo of this context
+     */
+    public long getMemoHits() {
+        return this.memoHits.get();
+    }
+
+    /**
+     * @param name the name of the attribute
+     * @return the value of the attribute, null if not set
+     */
+    public Object getAttribute(final String name) {
+        return this.attributes.get(name);
+    }
+
+    /**
+     * @param name  the name of the attribute
+     * @param value the value of the attribute, null to remove it
+     */
+    public void setAttribute(final String name, final Object value) {
+        if (value == null) {
+            this.attributes.remove(name);
+        } else {
+            this.attributes.put(name, value);
+        }
+    }
+
+    private Scope attach() {
+        var previous = CURRENT.get();
+        CURRENT.set(this);
+        return new Scope(previous);
+    }
+
+    /**
+     * Restores the context that was open on the thread before, if any, when closed.
+     */
+    public static final class Scope implements AutoCloseable {
+        private final PersonAttributeQueryContext previous;
+
+        private Scope(final PersonAttributeQueryContext previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (this.previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(this.previous);
+            }
+        }
+    }
+
+    private static final class Key {
+        private final IPersonAttributeDao dao;
+
+        private final Map<String, List<Object>> query;
+
+        private final IPersonAttributeDaoFilter filter;
+
+        private final int hashCode;
+
+        private Key(final IPersonAttributeDao dao, final Map<String, List<Object>> query, final IPersonAttributeDaoFilter filter) {
+            this.dao = dao;
+            this.query = query;
+            this.filter = filter;
+            this.hashCode = Objects.hash(System.identityHashCode(dao), query, filter);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Key other && this.dao == other.dao && this.query.equals(other.query)
+                   && Objects.equals(this.filter, other.filter);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support;
+
+import org.apereo.services.persondir.IPersonAttributes;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The people found by an aggregating DAO together with the outcome of each child DAO it queried, in the
+ * order they were queried. A result is incomplete when a child that could have contributed to it failed, timed
+ * out, was skipped or answered with stale people, in which case it should not be cached like a complete one.
+ */
+public class PersonAttributesResult {
+    private final Set<IPersonAttributes> people;
+
+    private final List<PersonAttributeDaoOutcome> outcomes;
+
+    private final boolean complete;
+
+    /**
+     * @param people   the people found, may be null
+     * @param outcomes the outcomes of the child DAOs, null if they were not tracked
+     * @param complete if no child DAO that could have contributed was missed
+     */
+    public PersonAttributesResult(final Set<IPersonAttributes> people, final List<PersonAttributeDaoOutcome> outcomes,
+                                  final boolean complete) {
+        this.people = people;
+        this.outcomes = outcomes == null ? Collections.emptyList() : Collections.unmodifiableList(outcomes);
+        this.complete = complete;
+    }
+
+    /**
+     * @return the people found, null if none were found
+     */
+    public Set<IPersonAttributes> getPeople() {
+        return this.people;
+    }
+
+    public List<PersonAttributeDaoOutcome> getOutcomes() {
+        return this.outcomes;
+    }
+
+    public boolean isComplete() {
+        return this.complete;
+    }
+
+    @Override
+    public String toString() {
+        return "PersonAttributesResult[people=" + this.people + ", outcomes=" + this.outcomes + ", complete=" + this.complete + "]";
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support;
+
+import org.apereo.services.persondir.IPersonAttributeDao;
+import org.apereo.services.persondir.IPersonAttributeDaoFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index from query attribute name to the child DAOs that list it in
+ * {@link IPersonAttributeDao#getAvailableQueryAttributes(IPersonAttributeDaoFilter)}, used by the aggregating
+ * DAOs to call only the children that can use a query. Children that report no query attributes, or fail to
+ * report them, are always called. Instances are immutable.
+ */
+public class QueryAttributeRoutingTable {
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Map<String, List<IPersonAttributeDao>> childrenByQueryAttribute = new HashMap<>();
+
+    private final Set<IPersonAttributeDao> unroutedChildren = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * @param children the child DAOs to index
+     */
+    public QueryAttributeRoutingTable(final Collection<IPersonAttributeDao> children) {
+        for (var child : children) {
+            Set<String> queryAttributes;
+            try {
+                queryAttributes = child.getAvailableQueryAttributes(IPersonAttributeDaoFilter.alwaysChoose());
+            } catch (final RuntimeException e) {
+                this.logger.warn("Failed to get the available query attributes of '{}', it will be called for every query", child, e);
+                queryAttributes = null;
+            }
+
+            if (queryAttributes == null || queryAttributes.isEmpty()) {
+                this.unroutedChildren.add(child);
+            } else {
+                for (var queryAttribute : queryAttributes) {
+                    this.childrenByQueryAttribute.computeIfAbsent(queryAttribute, name -> new ArrayList<>(2)).add(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether a child DAO can use a query with the given attributes: it lists at least one of the attributes
+     * as query attribute, or it did not report any query attributes.
+     *
+     * @param child           the child DAO, compared by identity
+     * @param queryAttributes the attribute names of the query
+     * @return true if the child should be called
+     */
+    public boolean isRouted(final IPersonAttributeDao child, final Collection<String> queryAttributes) {
+        if (this.unroutedChildren.contains(child)) {
+            return true;
+        }
+        for (var queryAttribute : queryAttributes) {
+            var routed = this.childrenByQueryAttribute.get(queryAttribute);
+            if (routed != null) {
+                for (var routedChild : routed) {
+                    if (routedChild == child) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryAttributeRoutingTable[childrenByQueryAttribute=" + this.childrenByQueryAttribute
+               + ", unroutedChildren=" + this.unroutedChildren + "]";
+    }
+}
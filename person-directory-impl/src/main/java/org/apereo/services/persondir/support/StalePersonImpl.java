@@ -0,0 +1,80 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support;
+
+import org.apereo.services.persondir.IPersonAttributes;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A person served from a last known good store instead of its live source, see
+ * {@link LastKnownGoodPersonAttributeDao}.
+ */
+public class StalePersonImpl extends BasePersonImpl {
+    private static final long serialVersionUID = 1L;
+
+    private final String userName;
+
+    private final Instant storedAt;
+
+    public StalePersonImpl(final String userName, final Map<String, List<Object>> attributes, final Instant storedAt) {
+        super(attributes);
+
+        this.userName = userName;
+        this.storedAt = storedAt;
+    }
+
+    /**
+     * @param person a person
+     * @return true if the person was served from a last known good store
+     */
+    public static boolean isStale(final IPersonAttributes person) {
+        return person instanceof StalePersonImpl;
+    }
+
+    /**
+     * @param people people, may be null
+     * @return true if any of the people was served from a last known good store
+     */
+    public static boolean isAnyStale(final Set<IPersonAttributes> people) {
+        if (people != null) {
+            for (var person : people) {
+                if (isStale(person)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String getName() {
+        return this.userName;
+    }
+
+    /**
+     * @return when the live source returned this person
+     */
+    public Instant getStoredAt() {
+        return this.storedAt;
+    }
+}
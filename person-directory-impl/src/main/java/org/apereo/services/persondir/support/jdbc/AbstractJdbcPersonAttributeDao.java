@@ -21,20 +21,34 @@ package org.apereo.services.persondir.support.jdbc;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
+import org.apereo.services.persondir.IBatchPersonAttributeDao;
 import org.apereo.services.persondir.IPersonAttributeDao;
+import org.apereo.services.persondir.IPersonAttributeDaoFilter;
 import org.apereo.services.persondir.IPersonAttributes;
 import org.apereo.services.persondir.support.AbstractQueryPersonAttributeDao;
 import org.apereo.services.persondir.support.QueryType;
 import org.apereo.services.persondir.util.CaseCanonicalizationMode;
+import org.apereo.services.persondir.util.CollectionsUtil;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.sql.DataSource;
 import java.text.MessageFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 /**
@@ -57,12 +71,65 @@ import java.util.regex.Pattern;
  *         <td valign="top">No</td>
  *         <td valign="top">AND</td>
  *     </tr>
+ *     <tr>
+ *         <td  valign="top">batchSize</td>
+ *         <td>
+ *             If greater than 0, batched queries that each hold a single value for the same single query attribute
+ *             are run as <code>column IN (?, ?, ...)</code> statements of up to this many values, and the rows are
+ *             split back into per query results by the value of that column. The query template must select the
+ *             column under its own name. Rows are matched to queries by the exact string of the column value,
+ *             canonicalized by caseInsensitiveDataAttributes, so values the database considers equal but that print
+ *             differently, such as with a case-insensitive collation, padded CHAR columns or numeric keys like 7 and
+ *             "007", do not match. A statement that returns a row matching none of its values is logged and its
+ *             queries are run one by one. Other batched queries are run one by one, as are all queries of row mappers
+ *             whose rows can not be split by column.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">0</td>
+ *     </tr>
+ *     <tr>
+ *         <td  valign="top">fetchSize</td>
+ *         <td>
+ *             The number of rows the driver fetches from the database at a time, -1 for the driver default.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">-1</td>
+ *     </tr>
+ *     <tr>
+ *         <td  valign="top">maxRows</td>
+ *         <td>
+ *             The maximum number of rows a query returns, further rows are silently dropped. -1 for no limit.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">-1</td>
+ *     </tr>
+ *     <tr>
+ *         <td  valign="top">queryTimeout</td>
+ *         <td>
+ *             How long the driver waits for a query to execute, rounded up to whole seconds. Null for the driver
+ *             default.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">null</td>
+ *     </tr>
+ *     <tr>
+ *         <td  valign="top">streamResults</td>
+ *         <td>
+ *             If true queries run in a read-only transaction, which is joined if one is already active. Drivers
+ *             such as PostgreSQL then read the rows through a cursor of <b>fetchSize</b> rows instead of buffering
+ *             the whole result set, <b>fetchSize</b> must be set for this to take effect. Memory stays flat for
+ *             DAOs that process rows as they are read, such as {@link MultiRowJdbcPersonAttributeDao}.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">false</td>
+ *     </tr>
  * </table>
  *
  * @author Eric Dalquist 
 
  */
-public abstract class AbstractJdbcPersonAttributeDao<R> extends AbstractQueryPersonAttributeDao<PartialWhereClause> {
+public abstract class AbstractJdbcPersonAttributeDao<R> extends AbstractQueryPersonAttributeDao<PartialWhereClause>
+    implements IBatchPersonAttributeDao {
     private static final Map<CaseCanonicalizationMode, MessageFormat>
             DEFAULT_DATA_ATTRIBUTE_CASE_CANONICALIZATION_FUNCTIONS;
 
@@ -77,19 +144,28 @@ public abstract class AbstractJdbcPersonAttributeDao<R> extends AbstractQueryPer
 
     private static final Pattern WHERE_PLACEHOLDER = Pattern.compile("\\{0\\}");
 
-
     private final JdbcTemplate simpleJdbcTemplate;
     private final String queryTemplate;
+    private final String[] queryTemplateParts;
     private QueryType queryType = QueryType.AND;
+    private int batchSize;
+    private int fetchSize = -1;
+    private int maxRows = -1;
+    private Duration queryTimeout;
+    private boolean streamResults;
+    private volatile TransactionTemplate readOnlyTransactionTemplate;
     private Map<String, CaseCanonicalizationMode> caseInsensitiveDataAttributes;
 
     private Map<CaseCanonicalizationMode, MessageFormat> dataAttributeCaseCanonicalizationFunctions =
             DEFAULT_DATA_ATTRIBUTE_CASE_CANONICALIZATION_FUNCTIONS;
 
+    private final Map<String, String> canonicalizedDataAttributes = new ConcurrentHashMap<>();
+
     public AbstractJdbcPersonAttributeDao() {
         super();
         this.simpleJdbcTemplate = null;
         this.queryTemplate = null;
+        this.queryTemplateParts = null;
     }
 
     /**
@@ -102,6 +178,7 @@ public abstract class AbstractJdbcPersonAttributeDao<R> extends AbstractQueryPer
 
         this.simpleJdbcTemplate = new JdbcTemplate(ds);
         this.queryTemplate = queryTemplate;
+        this.queryTemplateParts = WHERE_PLACEHOLDER.split(queryTemplate, -1);
     }
 
     /**
@@ -128,6 +205,79 @@ public abstract class AbstractJdbcPersonAttributeDao<R> extends AbstractQueryPer
     }
 
 
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Maximum number of values in the IN list of a batched statement, 0 to run batched queries one by one. The rows
+     * of a batched statement are matched to the queries by the exact string of the column value, a statement with a
+     * row that matches none of its values is run again one query at a time. Only enable batching where the column
+     * values are returned exactly as they are queried.
+     *
+     * @param batchSize the batchSize to set
+     */
+    public void setBatchSize(final int batchSize) {
+        Validate.isTrue(batchSize >= 0, "batchSize may not be negative");
+        this.batchSize = batchSize;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * @param fetchSize The number of rows the driver fetches at a time, -1 for the driver default.
+     */
+    public void setFetchSize(final int fetchSize) {
+        this.fetchSize = fetchSize;
+        if (this.simpleJdbcTemplate != null) {
+            this.simpleJdbcTemplate.setFetchSize(fetchSize);
+        }
+    }
+
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    /**
+     * @param maxRows The maximum number of rows a query returns, -1 for no limit.
+     */
+    public void setMaxRows(final int maxRows) {
+        this.maxRows = maxRows;
+        if (this.simpleJdbcTemplate != null) {
+            this.simpleJdbcTemplate.setMaxRows(maxRows);
+        }
+    }
+
+    public Duration getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    /**
+     * @param queryTimeout How long the driver waits for a query, rounded up to whole seconds. Null for the driver default.
+     */
+    public void setQueryTimeout(final Duration queryTimeout) {
+        Validate.isTrue(queryTimeout == null || !queryTimeout.isNegative(), "queryTimeout may not be negative");
+        this.queryTimeout = queryTimeout;
+        if (this.simpleJdbcTemplate != null) {
+            this.simpleJdbcTemplate.setQueryTimeout(queryTimeout == null ? -1
+                : (int) Math.min(Integer.MAX_VALUE, (queryTimeout.toMillis() + 999) / 1000));
+        }
+    }
+
+    public boolean isStreamResults() {
+        return streamResults;
+    }
+
+    /**
+     * @param streamResults True to run queries in a read-only transaction so that drivers can stream the rows
+     *                      through a cursor of fetchSize rows.
+     */
+    public void setStreamResults(final boolean streamResults) {
+        this.streamResults = streamResults;
+    }
+
     /**
      * Takes the {@link List} from the query and parses it into the {@link List} of {@link IPersonAttributes} attributes to be returned.
      *
@@ -142,6 +292,32 @@ public abstract class AbstractJdbcPersonAttributeDao<R> extends AbstractQueryPer
      */
     @JsonIgnore
     protected abstract RowMapper<R> getRowMapper();
+
+    /**
+     * Whether the rows returned by the {@link #getRowMapper()} can be split by {@link #getColumnValue(Object, String)},
+     * queries are only batched if they can. The default implementation is true for a {@link ColumnMapParameterizedRowMapper}.
+     *
+     * @return true if batched statements can be split into the rows of each query
+     */
+    protected boolean canSplitRowsByColumn() {
+        return this.getRowMapper() instanceof ColumnMapParameterizedRowMapper;
+    }
+
+    /**
+     * Get the value of a column from a row returned by the {@link #getRowMapper()}, used to split the rows of batched
+     * statements if {@link #canSplitRowsByColumn()}. The default implementation supports rows that are a {@link Map}
+     * of column name to value.
+     *
+     * @param row The row
+     * @param column The name of the column
+     * @return The value of the column in the row, may be null
+     */
+    protected Object getColumnValue(final R row, final String column) {
+        if (row instanceof Map<?, ?> columns) {
+            return columns.get(column);
+        }
+        throw new UnsupportedOperationException("Rows of type " + row.getClass().getName() + " can not be split by column");
+    }
     
     @Override
     protected PartialWhereClause appendAttributeToQuery(PartialWhereClause queryBuilder, String dataAttribute, final List<Object> queryValues) {
@@ -189,6 +365,10 @@ public abstract class AbstractJdbcPersonAttributeDao<R> extends AbstractQueryPer
      * @return Canonicalized data attribute column name
      */
     protected String canonicalizeDataAttributeForSql(final String dataAttribute) {
+        return this.canonicalizedDataAttributes.computeIfAbsent(dataAttribute, this::formatDataAttributeForSql);
+    }
+
+    private String formatDataAttributeForSql(final String dataAttribute) {
         if (this.caseInsensitiveDataAttributes == null || this.caseInsensitiveDataAttributes.isEmpty() || !(this.caseInsensitiveDataAttributes.containsKey(dataAttribute))) {
             return dataAttribute;
         }
@@ -203,7 +383,23 @@ public abstract class AbstractJdbcPersonAttributeDao<R> extends AbstractQueryPer
         if (mf == null) {
             return dataAttribute;
         }
-        return mf.format(new String[]{dataAttribute});
+        //MessageFormat is not thread-safe
+        synchronized (mf) {
+            return mf.format(new String[]{dataAttribute});
+        }
+    }
+
+    /**
+     * Merge the generated portion of the WHERE clause with the query template, which was split at its placeholders
+     * once so that no pattern is matched per query.
+     */
+    private String compileQuery(final CharSequence partialSqlWhere) {
+        var querySQL = new StringBuilder(this.queryTemplate.length() + partialSqlWhere.length());
+        querySQL.append(this.queryTemplateParts[0]);
+        for (var i = 1; i < this.queryTemplateParts.length; i++) {
+            querySQL.append(partialSqlWhere).append(this.queryTemplateParts[i]);
+        }
+        return querySQL.toString();
     }
 
 
@@ -212,38 +408,247 @@ public abstract class AbstractJdbcPersonAttributeDao<R> extends AbstractQueryPer
      */
     @Override
     protected List<IPersonAttributes> getPeopleForQuery(final PartialWhereClause queryBuilder, final String queryUserName) {
-        //Execute the query
-        var rowMapper = this.getRowMapper();
-
-        final List<R> results;
+        final String querySQL;
+        final Object[] arguments;
         if (queryBuilder != null) {
             //Merge the generated SQL with the base query template
-            var partialSqlWhere = queryBuilder.sql;
-            var queryMatcher = WHERE_PLACEHOLDER.matcher(this.queryTemplate);
-            var querySQL = queryMatcher.replaceAll(partialSqlWhere.toString());
+            querySQL = this.compileQuery(queryBuilder.sql);
+            arguments = queryBuilder.arguments.toArray();
+        } else {
+            querySQL = this.queryTemplate;
+            arguments = new Object[0];
+        }
+
+        if (this.logger.isDebugEnabled()) {
+            this.logger.debug("Executing '" + this.queryTemplate + "' with arguments " + Arrays.toString(arguments));
+        }
+
+        var people = this.getPeopleForSql(querySQL, arguments, queryUserName);
+
+        if (this.logger.isDebugEnabled()) {
+            this.logger.debug("Executed '" + this.queryTemplate + "' with arguments " + Arrays.toString(arguments) + " and got results " + people);
+        }
+
+        return people;
+    }
+
+    /**
+     * Executes the SQL of a query and parses the rows into people. The default implementation maps all rows with the
+     * {@link #getRowMapper()} and then passes them to {@link #parseAttributeMapFromResults(List, String)}, subclasses
+     * may instead process each row as it is read.
+     *
+     * @param querySQL The SQL to execute
+     * @param arguments The arguments to bind to the SQL
+     * @param queryUserName The username passed in the query map, null if no username attribute existed in the query Map.
+     * @return The results of the query
+     */
+    protected List<IPersonAttributes> getPeopleForSql(final String querySQL, final Object[] arguments, final String queryUserName) {
+        var results = this.executeQuery(() -> this.simpleJdbcTemplate.query(querySQL, this.getRowMapper(), arguments));
+        return this.parseAttributeMapFromResults(results, queryUserName);
+    }
+
+    /**
+     * Runs JDBC work of a query, in a read-only transaction if <b>streamResults</b> is true.
+     *
+     * @param query The JDBC work
+     * @param <T> The type of the result
+     * @return The result of the work
+     */
+    protected <T> T executeQuery(final Supplier<T> query) {
+        if (!this.streamResults) {
+            return query.get();
+        }
+
+        var transactionTemplate = this.readOnlyTransactionTemplate;
+        if (transactionTemplate == null) {
+            transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(this.simpleJdbcTemplate.getDataSource()));
+            transactionTemplate.setReadOnly(true);
+            this.readOnlyTransactionTemplate = transactionTemplate;
+        }
+        return transactionTemplate.execute(status -> query.get());
+    }
+
+    /**
+     * @return The DataSource queries are executed against
+     */
+    @JsonIgnore
+    public DataSource getDataSource() {
+        return this.simpleJdbcTemplate.getDataSource();
+    }
+
+    /**
+     * @return The JdbcTemplate queries are executed with
+     */
+    @JsonIgnore
+    protected JdbcTemplate getJdbcTemplate() {
+        return this.simpleJdbcTemplate;
+    }
+
+    private List<R> queryRows(final PartialWhereClause queryBuilder) {
+        var querySQL = this.compileQuery(queryBuilder.sql);
+
+        if (this.logger.isDebugEnabled()) {
+            this.logger.debug("Executing '" + this.queryTemplate + "' with arguments " + queryBuilder.arguments);
+        }
+
+        var results = this.executeQuery(() -> this.simpleJdbcTemplate.query(querySQL, this.getRowMapper(), queryBuilder.arguments.toArray()));
+
+        if (this.logger.isDebugEnabled()) {
+            this.logger.debug("Executed '" + this.queryTemplate + "' with arguments " + queryBuilder.arguments + " and got results " + results);
+        }
+
+        return results;
+    }
+
+    @Override
+    public List<Set<IPersonAttributes>> getBatchedPeopleWithMultivaluedAttributes(final List<Map<String, List<Object>>> queries,
+                                                                                 final IPersonAttributeDaoFilter filter,
+                                                                                 final Set<IPersonAttributes> resultPeople) {
+        Validate.notNull(queries, "queries may not be null.");
+
+        final List<Set<IPersonAttributes>> results = new ArrayList<>(queries.size());
+        final Map<String, List<Integer>> batchedQueriesByAttribute = new LinkedHashMap<>();
+        for (var i = 0; i < queries.size(); i++) {
+            results.add(null);
+            var batchAttribute = this.getBatchAttribute(queries.get(i));
+            if (batchAttribute != null) {
+                batchedQueriesByAttribute.computeIfAbsent(batchAttribute, key -> new ArrayList<>()).add(i);
+            } else {
+                results.set(i, this.getPeopleWithMultivaluedAttributes(queries.get(i), filter, resultPeople));
+            }
+        }
+
+        for (var batch : batchedQueriesByAttribute.entrySet()) {
+            this.runBatch(batch.getKey(), batch.getValue(), queries, filter, resultPeople, results);
+        }
+        return results;
+    }
+
+    /**
+     * Get the query attribute a query can be batched on: the only query attribute of the query that is mapped, to a
+     * single column, with a single value that is not a wildcard. Nothing is batched if the rows can not be split.
+     *
+     * @return the query attribute, null if the query can not be batched
+     */
+    private String getBatchAttribute(final Map<String, List<Object>> query) {
+        var queryAttributeMapping = this.getQueryAttributeMapping();
+        if (this.batchSize <= 0 || queryAttributeMapping == null || queryAttributeMapping.isEmpty()
+            || !this.canSplitRowsByColumn()) {
+            return null;
+        }
 
-            if (this.logger.isDebugEnabled()) {
-                this.logger.debug("Executing '" + this.queryTemplate + "' with arguments " + queryBuilder.arguments);
+        String batchAttribute = null;
+        for (var queryAttrEntry : queryAttributeMapping.entrySet()) {
+            var queryValues = query.get(queryAttrEntry.getKey());
+            if (queryValues == null) {
+                if (this.isRequireAllQueryAttributes()) {
+                    return null;
+                }
+                continue;
+            }
+            var dataAttributes = queryAttrEntry.getValue();
+            if (batchAttribute != null || dataAttributes == null || dataAttributes.size() != 1 || queryValues.size() != 1) {
+                return null;
             }
+            var queryValue = queryValues.get(0);
+            var queryString = queryValue != null ? queryValue.toString() : null;
+            if (StringUtils.isBlank(queryString) || IPersonAttributeDao.WILDCARD_PATTERN.matcher(queryString).find()) {
+                return null;
+            }
+            batchAttribute = queryAttrEntry.getKey();
+        }
+        return batchAttribute;
+    }
+
+    /**
+     * Run the queries batched on a query attribute as IN list statements of up to batchSize values, and set the
+     * people found for each query in the results. Rows are matched to the queries by the exact string of their value,
+     * if a statement returns a row that matches none of its values the queries of that statement are run one by one.
+     */
+    private void runBatch(final String queryAttribute, final List<Integer> queryIndexes,
+                          final List<Map<String, List<Object>>> queries, final IPersonAttributeDaoFilter filter,
+                          final Set<IPersonAttributes> resultPeople, final List<Set<IPersonAttributes>> results) {
+        var dataAttribute = this.getQueryAttributeMapping().get(queryAttribute).iterator().next();
+
+        //Group the queries by their canonicalized value, several queries may look for the same value
+        final Map<String, List<Integer>> queryIndexesByValue = new LinkedHashMap<>();
+        for (var index : queryIndexes) {
+            var queryValues = this.canonicalizeAttribute(queryAttribute, queries.get(index).get(queryAttribute),
+                this.getCaseInsensitiveQueryAttributes());
+            queryIndexesByValue.computeIfAbsent(queryValues.get(0).toString(), key -> new ArrayList<>()).add(index);
+        }
 
-            results = this.simpleJdbcTemplate.query(querySQL, rowMapper, queryBuilder.arguments.toArray());
+        final List<String> values = new ArrayList<>(queryIndexesByValue.keySet());
+        final Map<String, List<R>> rowsByValue = new HashMap<>();
+        final Set<String> unbatchedValues = new HashSet<>();
+        for (var start = 0; start < values.size(); start += this.batchSize) {
+            var chunk = values.subList(start, Math.min(start + this.batchSize, values.size()));
 
-            if (this.logger.isDebugEnabled()) {
-                this.logger.debug("Executed '" + this.queryTemplate + "' with arguments " + queryBuilder.arguments + " and got results " + results);
+            var queryBuilder = new PartialWhereClause();
+            queryBuilder.sql.append(this.canonicalizeDataAttributeForSql(dataAttribute)).append(" IN (");
+            for (var i = 0; i < chunk.size(); i++) {
+                queryBuilder.sql.append(i == 0 ? "?" : ", ?");
             }
-        } else {
+            queryBuilder.sql.append(")");
+            queryBuilder.arguments.addAll(chunk);
+
+            final Set<String> chunkValues = new HashSet<>(chunk);
+            final Map<String, List<R>> chunkRowsByValue = new HashMap<>();
+            String unmatchedValue = null;
+            for (var row : this.queryRows(queryBuilder)) {
+                var value = this.canonicalizeDataValue(dataAttribute, this.getColumnValue(row, dataAttribute));
+                if (!chunkValues.contains(value)) {
+                    unmatchedValue = value;
+                    break;
+                }
+                chunkRowsByValue.computeIfAbsent(value, key -> new ArrayList<>()).add(row);
+            }
+
+            if (unmatchedValue != null) {
+                this.logger.warn("Batched query on '{}' returned a row with value '{}' that matches none of the values {}, "
+                                 + "running its queries one by one", dataAttribute, unmatchedValue, chunk);
+                unbatchedValues.addAll(chunk);
+            } else {
+                rowsByValue.putAll(chunkRowsByValue);
+            }
+        }
 
-            if (this.logger.isDebugEnabled()) {
-                this.logger.debug("Executing '" + this.queryTemplate);
+        var usernameAttributeProvider = this.getUsernameAttributeProvider();
+        for (var valueEntry : queryIndexesByValue.entrySet()) {
+            if (unbatchedValues.contains(valueEntry.getKey())) {
+                for (var index : valueEntry.getValue()) {
+                    results.set(index, this.getPeopleWithMultivaluedAttributes(queries.get(index), filter, resultPeople));
+                }
+                continue;
             }
-            results = this.simpleJdbcTemplate.query(this.queryTemplate, rowMapper);
 
-            if (this.logger.isDebugEnabled()) {
-                this.logger.debug("Executed '" + this.queryTemplate + "' and got results " + results);
+            var rows = rowsByValue.getOrDefault(valueEntry.getKey(), List.of());
+            for (var index : valueEntry.getValue()) {
+                var queryUserName = usernameAttributeProvider.getUsernameFromQuery(queries.get(index));
+                final Set<IPersonAttributes> people = new LinkedHashSet<>();
+                for (var person : this.parseAttributeMapFromResults(rows, queryUserName)) {
+                    people.add(this.mapPersonAttributes(person));
+                }
+                results.set(index, CollectionsUtil.safelyWrapAsUnmodifiableSet(people));
             }
         }
+    }
 
-        return this.parseAttributeMapFromResults(results, queryUserName);
+    /**
+     * Canonicalize a value of a column the way the database compares it, according to the
+     * caseInsensitiveDataAttributes.
+     */
+    private String canonicalizeDataValue(final String dataAttribute, final Object value) {
+        var stringValue = String.valueOf(value);
+        if (this.caseInsensitiveDataAttributes == null || !this.caseInsensitiveDataAttributes.containsKey(dataAttribute)
+            || this.dataAttributeCaseCanonicalizationFunctions == null || this.dataAttributeCaseCanonicalizationFunctions.isEmpty()) {
+            return stringValue;
+        }
+        var canonicalizationMode = this.caseInsensitiveDataAttributes.get(dataAttribute);
+        if (canonicalizationMode == null) {
+            canonicalizationMode = getDefaultCaseCanonicalizationMode();
+        }
+        return canonicalizationMode.canonicalize(stringValue, this.getCaseCanonicalizationLocale());
     }
 
     public Map<String, CaseCanonicalizationMode> getCaseInsensitiveDataAttributes() {
@@ -252,6 +657,13 @@ public abstract class AbstractJdbcPersonAttributeDao<R> extends AbstractQueryPer
 
     public void setCaseInsensitiveDataAttributes(final Map<String, CaseCanonicalizationMode> caseInsensitiveDataAttributes) {
         this.caseInsensitiveDataAttributes = caseInsensitiveDataAttributes;
+        this.canonicalizedDataAttributes.clear();
+    }
+
+    @Override
+    public void setDefaultCaseCanonicalizationMode(final CaseCanonicalizationMode defaultCaseCanonicalizationMode) {
+        super.setDefaultCaseCanonicalizationMode(defaultCaseCanonicalizationMode);
+        this.canonicalizedDataAttributes.clear();
     }
 
     public void setCaseInsensitiveDataAttributesAsCollection(final Collection<String> caseInsensitiveDataAttributes) {
@@ -282,6 +694,7 @@ public abstract class AbstractJdbcPersonAttributeDao<R> extends AbstractQueryPer
     @JsonIgnore
     public void setDataAttributeCaseCanonicalizationFunctions(final Map<CaseCanonicalizationMode, MessageFormat> dataAttributeCaseCanonicalizationFunctions) {
         this.dataAttributeCaseCanonicalizationFunctions = dataAttributeCaseCanonicalizationFunctions;
+        this.canonicalizedDataAttributes.clear();
     }
 
     @JsonIgnore
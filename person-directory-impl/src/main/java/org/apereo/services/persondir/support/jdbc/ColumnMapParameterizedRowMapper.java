@@ -21,26 +21,54 @@ package org.apereo.services.persondir.support.jdbc;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.JdbcUtils;
 
+import java.lang.ref.WeakReference;
+import java.sql.Array;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * JDK5 clone of {@link org.springframework.jdbc.core.ColumnMapRowMapper}
+ * <br>
+ * The column keys of a result set are resolved once, on its first row, and the slot of each key is shared by all
+ * result sets with the same columns. Rows are read-only case-insensitive maps holding their values in an array
+ * indexed by those slots. SQL array columns are read into a {@link List} of their elements.
+ * <br>
+ * Unlike earlier versions the rows can not be modified. Subclasses overriding the deprecated
+ * {@link #createColumnMap(int)} keep getting rows built in the Map it creates, one per row.
  *
  * @author Eric Dalquist
 
  */
 public class ColumnMapParameterizedRowMapper implements RowMapper<Map<String, Object>> {
+    private static final int MAX_SHAPES = 64;
+
     private final boolean ignoreNull;
 
+    private final boolean columnMapOverridden;
+
+    /**
+     * The slots of each result set shape, keyed by its column keys.
+     */
+    private final Map<List<String>, SlotIndexedRow.Columns> shapes = new ConcurrentHashMap<>();
+
+    /**
+     * The slots of the result set being mapped by each thread, rows of a result set are mapped by one thread.
+     */
+    private final ThreadLocal<ResultSetColumns> currentColumns = new ThreadLocal<>();
+
     public ColumnMapParameterizedRowMapper() {
         this(false);
     }
 
     public ColumnMapParameterizedRowMapper(final boolean ignoreNull) {
         this.ignoreNull = ignoreNull;
+        this.columnMapOverridden = isCreateColumnMapOverridden(this.getClass());
     }
 
 
@@ -49,6 +77,24 @@ public class ColumnMapParameterizedRowMapper implements RowMapper<Map<String, Ob
      */
     @Override
     public final Map<String, Object> mapRow(final ResultSet rs, final int rowNum) throws SQLException {
+        if (this.columnMapOverridden) {
+            return this.mapRowToColumnMap(rs);
+        }
+
+        var columns = this.getColumns(rs, rowNum);
+        var row = new SlotIndexedRow(columns);
+
+        for (var i = 1; i <= columns.getColumnCount(); i++) {
+            var obj = this.getColumnValue(rs, i);
+            if (!this.ignoreNull || obj != null) {
+                row.set(columns.slotOfColumn(i - 1), obj);
+            }
+        }
+
+        return row;
+    }
+
+    private Map<String, Object> mapRowToColumnMap(final ResultSet rs) throws SQLException {
         var rsmd = rs.getMetaData();
         var columnCount = rsmd.getColumnCount();
         var mapOfColValues = this.createColumnMap(columnCount);
@@ -65,6 +111,48 @@ public class ColumnMapParameterizedRowMapper implements RowMapper<Map<String, Ob
         return mapOfColValues;
     }
 
+    private static boolean isCreateColumnMapOverridden(final Class<?> type) {
+        for (var current = type; current != ColumnMapParameterizedRowMapper.class; current = current.getSuperclass()) {
+            try {
+                current.getDeclaredMethod("createColumnMap", int.class);
+                return true;
+            } catch (final NoSuchMethodException e) {
+                // Not declared at this level, look at the superclass
+            }
+        }
+        return false;
+    }
+
+    private SlotIndexedRow.Columns getColumns(final ResultSet rs, final int rowNum) throws SQLException {
+        var current = this.currentColumns.get();
+        if (rowNum > 0 && current != null && current.resultSet.get() == rs) {
+            return current.columns;
+        }
+
+        var rsmd = rs.getMetaData();
+        var columnCount = rsmd.getColumnCount();
+        final List<String> columnKeys = new ArrayList<>(columnCount);
+        for (var i = 1; i <= columnCount; i++) {
+            columnKeys.add(this.getColumnKey(JdbcUtils.lookupColumnName(rsmd, i)));
+        }
+
+        var columns = this.shapes.get(columnKeys);
+        if (columns == null) {
+            columns = new SlotIndexedRow.Columns(columnKeys);
+            if (this.shapes.size() < MAX_SHAPES) {
+                this.shapes.put(columnKeys, columns);
+            }
+        }
+        this.currentColumns.set(new ResultSetColumns(new WeakReference<>(rs), columns));
+        return columns;
+    }
+
+    /**
+     * The slots of a result set, which is only weakly referenced so that it is not kept after it was mapped.
+     */
+    private record ResultSetColumns(WeakReference<ResultSet> resultSet, SlotIndexedRow.Columns columns) {
+    }
+
     /**
      * Create a Map instance to be used as column map.
      * <br>
@@ -72,7 +160,10 @@ public class ColumnMapParameterizedRowMapper implements RowMapper<Map<String, Ob
      *
      * @param columnCount the column count, to be used as initial capacity for the Map
      * @return the new Map instance
+     * @deprecated Rows are slot indexed, this is only called for every row if a subclass overrides it, which
+     * keeps the rows in the Map it creates at the cost of building that Map for each row.
      */
+    @Deprecated
     @SuppressWarnings("unchecked")
     protected Map<String, Object> createColumnMap(final int columnCount) {
         return new TreeMap(String.CASE_INSENSITIVE_ORDER);
@@ -94,7 +185,8 @@ public class ColumnMapParameterizedRowMapper implements RowMapper<Map<String, Ob
      * <br>
      *
      * The default implementation uses the <code>getObject</code> method. Additionally, this implementation includes
-     * a "hack" to get around Oracle returning a non standard object for their TIMESTAMP datatype.
+     * a "hack" to get around Oracle returning a non standard object for their TIMESTAMP datatype, and reads SQL
+     * arrays into a {@link List} of their elements.
      *
      * @param rs is the ResultSet holding the data
      * @param index is the column index
@@ -103,6 +195,57 @@ public class ColumnMapParameterizedRowMapper implements RowMapper<Map<String, Ob
      * @see org.springframework.jdbc.support.JdbcUtils#getResultSetValue
      */
     protected Object getColumnValue(final ResultSet rs, final int index) throws SQLException {
-        return JdbcUtils.getResultSetValue(rs, index);
+        return getResultSetValue(rs, index);
+    }
+
+    /**
+     * Retrieve a JDBC object value for the specified column, reading SQL arrays into a {@link List} of their
+     * elements while the result set is still open.
+     *
+     * @param rs is the ResultSet holding the data
+     * @param index is the column index
+     * @throws SQLException SQL Exception
+     * @return the Object returned, a List for a SQL array
+     */
+    static Object getResultSetValue(final ResultSet rs, final int index) throws SQLException {
+        var value = JdbcUtils.getResultSetValue(rs, index);
+        if (value instanceof Array array) {
+            try {
+                return toList(array);
+            } finally {
+                try {
+                    array.free();
+                } catch (final SQLException e) {
+                    // Not supported by older drivers, the array is released with the result set
+                }
+            }
+        }
+        return value;
+    }
+
+    private static List<Object> toList(final Array array) throws SQLException {
+        final Object elements;
+        try {
+            elements = array.getArray();
+        } catch (final SQLFeatureNotSupportedException e) {
+            // The elements are in the second column of the array result set, the first holds their indexes
+            final List<Object> values = new ArrayList<>();
+            try (var arrayResultSet = array.getResultSet()) {
+                while (arrayResultSet.next()) {
+                    values.add(JdbcUtils.getResultSetValue(arrayResultSet, 2));
+                }
+            }
+            return values;
+        }
+
+        if (elements == null) {
+            return null;
+        }
+        var length = java.lang.reflect.Array.getLength(elements);
+        final List<Object> values = new ArrayList<>(length);
+        for (var i = 0; i < length; i++) {
+            values.add(java.lang.reflect.Array.get(elements, i));
+        }
+        return values;
     }
 }
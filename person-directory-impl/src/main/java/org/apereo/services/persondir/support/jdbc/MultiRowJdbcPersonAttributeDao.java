@@ -18,21 +18,34 @@
  */
 package org.apereo.services.persondir.support.jdbc;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.MapMaker;
+import org.apache.commons.lang3.Validate;
 import org.apereo.services.persondir.IPersonAttributeDao;
 import org.apereo.services.persondir.IPersonAttributes;
 import org.apereo.services.persondir.support.CaseInsensitiveNamedPersonImpl;
 import org.apereo.services.persondir.support.MultivaluedPersonAttributeUtils;
+import org.springframework.dao.DataRetrievalFailureException;
 import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
 
 import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * An {@link IPersonAttributeDao}
@@ -93,6 +106,32 @@ import java.util.Set;
  *         <td valign="top">Yes</td>
  *         <td valign="top">null</td>
  *     </tr>
+ *     <tr>
+ *         <td  valign="top">aggregation</td>
+ *         <td>
+ *             How the values are aggregated by the database before they are transferred.
+ *             {@link Aggregation#ARRAY} returns one row per user and attribute name, the values in an
+ *             <code>array_agg</code> array. {@link Aggregation#JSON} returns one row per user, the attributes in a
+ *             <code>json_object_agg</code> object of arrays. Both wrap the query template, so it must select the
+ *             userName column, and only apply when nameValueColumnMappings maps a single name column to a single
+ *             value column, and not to batched queries. If the database rejects the aggregated SQL of a query it is
+ *             run as is, and so is the same SQL until aggregationRetryInterval has passed.
+ *             With JSON the values are those of the JSON object as read by Jackson: strings, numbers as Integer,
+ *             Long, BigInteger or Double, booleans and nulls. Values of other types, such as timestamps, arrive as
+ *             the strings the database writes them as, so use JSON only where string values are wanted.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">NONE</td>
+ *     </tr>
+ *     <tr>
+ *         <td  valign="top">aggregationRetryInterval</td>
+ *         <td>
+ *             How long the SQL of a query whose aggregation the database rejected is run without aggregation before
+ *             the aggregation is tried again.
+ *         </td>
+ *         <td valign="top">No</td>
+ *         <td valign="top">10 minutes</td>
+ *     </tr>
  * </table>
  *
  * @author andrew.petro@yale.edu
@@ -103,12 +142,50 @@ import java.util.Set;
 public class MultiRowJdbcPersonAttributeDao extends AbstractJdbcPersonAttributeDao<Map<String, Object>> {
     private static final RowMapper<Map<String, Object>> MAPPER = new ColumnMapParameterizedRowMapper();
 
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+
+    private static final TypeReference<Map<String, Object>> JSON_ATTRIBUTES_TYPE = new TypeReference<>() {
+    };
+
+    /**
+     * Name of the column holding the attributes of a user with {@link Aggregation#JSON}.
+     */
+    static final String JSON_ATTRIBUTES_COLUMN = "pd_attributes";
+
+    /**
+     * How the values of the rows of a user are aggregated by the database.
+     */
+    public enum Aggregation {
+        /**
+         * One row per value, as selected by the query template.
+         */
+        NONE,
+        /**
+         * One row per user and attribute name, the values aggregated with <code>array_agg</code>.
+         */
+        ARRAY,
+        /**
+         * One row per user, the attributes aggregated with <code>json_object_agg</code>. The values are read as JSON,
+         * so values that are not strings, numbers or booleans arrive as strings.
+         */
+        JSON
+    }
+
     /**
      * {@link Map} of columns from a name column to value columns.
      * Keys are Strings, Values are Strings or List of Strings 
      */
     private Map<String, Set<String>> nameValueColumnMappings = null;
 
+    private Aggregation aggregation = Aggregation.NONE;
+
+    private Duration aggregationRetryInterval = Duration.ofMinutes(10);
+
+    /**
+     * Time in milliseconds the database rejected the aggregated SQL, by the SQL of the query.
+     */
+    private final Map<String, Long> rejectedAggregations = new ConcurrentHashMap<>();
+
     public MultiRowJdbcPersonAttributeDao() {
         super();
     }
@@ -151,11 +228,104 @@ public class MultiRowJdbcPersonAttributeDao extends AbstractJdbcPersonAttributeD
         }
     }
 
+    public Aggregation getAggregation() {
+        return this.aggregation;
+    }
+
+    /**
+     * @param aggregation How the values of the rows of a user are aggregated by the database.
+     */
+    public void setAggregation(final Aggregation aggregation) {
+        Validate.notNull(aggregation, "aggregation may not be null");
+        this.aggregation = aggregation;
+        this.rejectedAggregations.clear();
+    }
+
+    public Duration getAggregationRetryInterval() {
+        return this.aggregationRetryInterval;
+    }
+
+    /**
+     * @param aggregationRetryInterval How long SQL whose aggregation the database rejected is run without aggregation.
+     */
+    public void setAggregationRetryInterval(final Duration aggregationRetryInterval) {
+        Validate.notNull(aggregationRetryInterval, "aggregationRetryInterval may not be null");
+        Validate.isTrue(!aggregationRetryInterval.isNegative(), "aggregationRetryInterval may not be negative");
+        this.aggregationRetryInterval = aggregationRetryInterval;
+    }
+
     @Override
     protected RowMapper<Map<String, Object>> getRowMapper() {
         return MAPPER;
     }
 
+    /**
+     * Reads the rows in a single pass, resolving the columns once per result set and adding the values of each row
+     * straight to the attributes of its person instead of first mapping every row.
+     */
+    @Override
+    protected List<IPersonAttributes> getPeopleForSql(final String querySQL, final Object[] arguments, final String queryUserName) {
+        var aggregatedSQL = this.getAggregatedSql(querySQL);
+        if (aggregatedSQL != null) {
+            try {
+                return this.queryPeople(aggregatedSQL, arguments, queryUserName, this.aggregation == Aggregation.JSON);
+            } catch (final BadSqlGrammarException e) {
+                this.rejectedAggregations.put(querySQL, System.currentTimeMillis());
+                this.logger.warn("The database rejected the {} aggregation of the query, running it without aggregation for {}: {}",
+                    this.aggregation, this.aggregationRetryInterval, e.getMessage());
+            }
+        }
+        return this.queryPeople(querySQL, arguments, queryUserName, false);
+    }
+
+    private List<IPersonAttributes> queryPeople(final String querySQL, final Object[] arguments, final String queryUserName,
+                                                final boolean jsonAttributes) {
+        return this.executeQuery(() -> {
+            var rowCallbackHandler = new PeopleRowCallbackHandler(queryUserName, jsonAttributes);
+            this.getJdbcTemplate().query(querySQL, rowCallbackHandler, arguments);
+            return rowCallbackHandler.getPeople();
+        });
+    }
+
+    /**
+     * Wrap the SQL of a query in the SQL aggregating its values.
+     *
+     * @return the aggregated SQL, null if the query is not aggregated
+     */
+    String getAggregatedSql(final String querySQL) {
+        var columnMappings = this.nameValueColumnMappings;
+        if (this.aggregation == Aggregation.NONE || columnMappings == null || columnMappings.size() != 1) {
+            return null;
+        }
+        var rejectedAt = this.rejectedAggregations.get(querySQL);
+        if (rejectedAt != null) {
+            if (System.currentTimeMillis() - rejectedAt < this.aggregationRetryInterval.toMillis()) {
+                return null;
+            }
+            this.rejectedAggregations.remove(querySQL, rejectedAt);
+        }
+        var columnMapping = columnMappings.entrySet().iterator().next();
+        if (columnMapping.getValue().size() != 1) {
+            return null;
+        }
+
+        var userNameColumn = this.getConfiguredUserNameAttribute();
+        var nameColumn = columnMapping.getKey();
+        var valueColumn = columnMapping.getValue().iterator().next();
+        var perName = "SELECT pd_rows." + userNameColumn + " AS " + userNameColumn
+                      + ", pd_rows." + nameColumn + " AS " + nameColumn
+                      + ", array_agg(pd_rows." + valueColumn + ") AS " + valueColumn
+                      + " FROM (" + querySQL + ") pd_rows"
+                      + " GROUP BY pd_rows." + userNameColumn + ", pd_rows." + nameColumn;
+        if (this.aggregation == Aggregation.ARRAY) {
+            return perName;
+        }
+        return "SELECT pd_names." + userNameColumn + " AS " + userNameColumn
+               + ", json_object_agg(pd_names." + nameColumn + ", pd_names." + valueColumn + ") AS " + JSON_ATTRIBUTES_COLUMN
+               + " FROM (" + perName + ") pd_names"
+               + " GROUP BY pd_names." + userNameColumn;
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     protected List<IPersonAttributes> parseAttributeMapFromResults(final List<Map<String, Object>> queryResults, final String queryUserName) {
@@ -219,7 +389,7 @@ public class MultiRowJdbcPersonAttributeDao extends AbstractJdbcPersonAttributeD
                         throw new BadSqlGrammarException("No attribute value column named '" + valueColumn + "' exists in result set", this.getQueryTemplate(), null);
                     }
 
-                    attrValues.add(attrValue);
+                    addValue(attrValues, attrValue);
                 }
 
                 //Add the name/values to the attributes Map
@@ -243,4 +413,144 @@ public class MultiRowJdbcPersonAttributeDao extends AbstractJdbcPersonAttributeD
 
         return people;
     }
+
+    /**
+     * Add a value to the values of an attribute, the elements of a SQL array read as a List each being a value.
+     */
+    private static void addValue(final List<Object> attrValues, final Object attrValue) {
+        if (attrValue instanceof List<?> elements) {
+            attrValues.addAll(elements);
+        } else {
+            attrValues.add(attrValue);
+        }
+    }
+
+    /**
+     * Add the attributes of a JSON object of attribute names to values, as returned with {@link Aggregation#JSON}.
+     */
+    static void addJsonAttributes(final Map<String, List<Object>> attributes, final String json) {
+        if (json == null) {
+            return;
+        }
+
+        final Map<String, Object> jsonAttributes;
+        try {
+            jsonAttributes = JSON_MAPPER.readValue(json, JSON_ATTRIBUTES_TYPE);
+        } catch (final JsonProcessingException e) {
+            throw new DataRetrievalFailureException("Invalid JSON attributes in column '" + JSON_ATTRIBUTES_COLUMN + "'", e);
+        }
+        for (var jsonAttribute : jsonAttributes.entrySet()) {
+            final List<Object> attrValues = new ArrayList<>();
+            addValue(attrValues, jsonAttribute.getValue());
+            MultivaluedPersonAttributeUtils.addResult(attributes, jsonAttribute.getKey(), attrValues);
+        }
+    }
+
+    /**
+     * Collects the attributes of each person from the rows of a result set, like
+     * {@link #parseAttributeMapFromResults(List, String)} does from mapped rows.
+     */
+    private final class PeopleRowCallbackHandler implements RowCallbackHandler {
+        private final String queryUserName;
+
+        /**
+         * If each row holds the attributes of a user as a JSON object, see {@link Aggregation#JSON}.
+         */
+        private final boolean jsonAttributes;
+
+        private final Map<String, Map<String, List<Object>>> peopleAttributesBuilder = new LinkedHashMap<>();
+
+        /**
+         * Index of the userName column, 0 if the result set has none.
+         */
+        private int userNameColumn;
+
+        private int[] nameColumns;
+
+        private int[][] valueColumns;
+
+        private PeopleRowCallbackHandler(final String queryUserName, final boolean jsonAttributes) {
+            this.queryUserName = queryUserName;
+            this.jsonAttributes = jsonAttributes;
+        }
+
+        @Override
+        public void processRow(final ResultSet rs) throws SQLException {
+            if (this.nameColumns == null) {
+                this.resolveColumns(rs.getMetaData());
+            }
+
+            final String userName;  // Choose a username from the best available option, as parseAttributeMapFromResults
+            if (this.userNameColumn > 0 && (isUserNameAttributeConfigured() || this.queryUserName == null)) {
+                userName = ColumnMapParameterizedRowMapper.getResultSetValue(rs, this.userNameColumn).toString();
+            } else if (this.queryUserName != null) {
+                userName = this.queryUserName;
+            } else {
+                throw new BadSqlGrammarException("No userName column named '" + getConfiguredUserNameAttribute() + "' exists in result set and no userName provided in query Map", getQueryTemplate(), null);
+            }
+
+            var attributes = this.peopleAttributesBuilder.computeIfAbsent(userName, key -> new LinkedHashMap<>());
+            if (this.jsonAttributes) {
+                addJsonAttributes(attributes, rs.getString(this.nameColumns[0]));
+                return;
+            }
+            for (var i = 0; i < this.nameColumns.length; i++) {
+                var attrName = String.valueOf(ColumnMapParameterizedRowMapper.getResultSetValue(rs, this.nameColumns[i]));
+
+                var columns = this.valueColumns[i];
+                final List<Object> attrValues = new ArrayList<>(columns.length);
+                for (var valueColumn : columns) {
+                    addValue(attrValues, ColumnMapParameterizedRowMapper.getResultSetValue(rs, valueColumn));
+                }
+
+                MultivaluedPersonAttributeUtils.addResult(attributes, attrName, attrValues);
+            }
+        }
+
+        private void resolveColumns(final ResultSetMetaData metaData) throws SQLException {
+            final Map<String, Integer> columnIndexes = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (var i = 1; i <= metaData.getColumnCount(); i++) {
+                columnIndexes.put(JdbcUtils.lookupColumnName(metaData, i), i);
+            }
+
+            this.userNameColumn = columnIndexes.getOrDefault(getConfiguredUserNameAttribute(), 0);
+            if (this.jsonAttributes) {
+                this.nameColumns = new int[] {columnIndexes.get(JSON_ATTRIBUTES_COLUMN)};
+                return;
+            }
+
+            var columnMappings = getNameValueColumnMappings();
+            this.nameColumns = new int[columnMappings.size()];
+            this.valueColumns = new int[columnMappings.size()][];
+            var i = 0;
+            for (var columnMapping : columnMappings.entrySet()) {
+                var keyColumn = columnMapping.getKey();
+                var keyIndex = columnIndexes.get(keyColumn);
+                if (keyIndex == null) {
+                    throw new BadSqlGrammarException("No attribute key column named '" + keyColumn + "' exists in result set", getQueryTemplate(), null);
+                }
+                this.nameColumns[i] = keyIndex;
+
+                var valueColumnNames = columnMapping.getValue();
+                this.valueColumns[i] = new int[valueColumnNames.size()];
+                var j = 0;
+                for (var valueColumn : valueColumnNames) {
+                    var valueIndex = columnIndexes.get(valueColumn);
+                    if (valueIndex == null) {
+                        throw new BadSqlGrammarException("No attribute value column named '" + valueColumn + "' exists in result set", getQueryTemplate(), null);
+                    }
+                    this.valueColumns[i][j++] = valueIndex;
+                }
+                i++;
+            }
+        }
+
+        private List<IPersonAttributes> getPeople() {
+            final List<IPersonAttributes> people = new ArrayList<>(this.peopleAttributesBuilder.size());
+            for (var mappedAttributesEntry : this.peopleAttributesBuilder.entrySet()) {
+                people.add(new CaseInsensitiveNamedPersonImpl(mappedAttributesEntry.getKey(), mappedAttributesEntry.getValue()));
+            }
+            return people;
+        }
+    }
 }
@@ -19,6 +19,8 @@
 package org.apereo.services.persondir.support.jdbc;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.apereo.services.persondir.IBatchPersonAttributeDao;
 import org.apereo.services.persondir.IPersonAttributeDaoFilter;
 import org.apereo.services.persondir.IPersonAttributes;
 import org.apereo.services.persondir.support.AbstractDefaultAttributePersonAttributeDao;
@@ -29,7 +31,9 @@ import org.springframework.beans.factory.BeanInitializationException;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.AbstractSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.EmptySqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
 
 import javax.sql.DataSource;
 import java.sql.ResultSet;
@@ -38,9 +42,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * Implementation of PersonAttributeDao based on Spring's {@link NamedParameterJdbcTemplate}.  
@@ -69,9 +77,18 @@ import java.util.Set;
  *     &lt;/property&gt;
  * &lt;/bean&gt;
  *
+ * <p>By default a named parameter is bound to the first value of its query attribute. If
+ * 'expandMultiValuedParameters' is true it is bound to all the values, which Spring expands to a list of
+ * placeholders, so that the SQL can use <code>IN (:attribute)</code>.</p>
+ *
+ * <p>If 'batchSize' is greater than 0, 'usernameColumn' is set and 'expandMultiValuedParameters' is true, batched
+ * queries that differ only in their username are run as one statement per 'batchSize' usernames, the SQL testing the
+ * username with <code>IN (:username)</code>. The rows are assigned to the queries by the value of the
+ * 'usernameColumn', compared case insensitively. Other batched queries are run one by one.</p>
+ *
  * @author drew wills
  */
-public class NamedParameterJdbcPersonAttributeDao extends AbstractDefaultAttributePersonAttributeDao implements InitializingBean {
+public class NamedParameterJdbcPersonAttributeDao extends AbstractDefaultAttributePersonAttributeDao implements InitializingBean, IBatchPersonAttributeDao {
 
     // Instance Members
     private NamedParameterJdbcTemplate jdbcTemplate;
@@ -85,6 +102,14 @@ public class NamedParameterJdbcPersonAttributeDao extends AbstractDefaultAttribu
     private IUsernameAttributeProvider usernameAttributeProvider;
     private Set<String> availableQueryAttributes = null;  // default
     private Set<String> userAttributeNames = null;  // default
+    private boolean expandMultiValuedParameters = false;
+    private int batchSize = 0;
+    private String usernameColumn = null;
+
+    /*
+     * Names of the parameters of the SQL
+     */
+    private Set<String> sqlParameterNames;
 
     public void setDataSource(final DataSource dataSource) {
         this.dataSource = dataSource;
@@ -107,6 +132,29 @@ public class NamedParameterJdbcPersonAttributeDao extends AbstractDefaultAttribu
         this.userAttributeNames = CollectionsUtil.safelyWrapAsUnmodifiableSet(userAttributeNames);
     }
 
+    /**
+     * @param expandMultiValuedParameters true to bind all the values of a query attribute to its named parameter,
+     *                                    false to bind the first value only
+     */
+    public void setExpandMultiValuedParameters(final boolean expandMultiValuedParameters) {
+        this.expandMultiValuedParameters = expandMultiValuedParameters;
+    }
+
+    /**
+     * @param batchSize the maximum number of usernames queried by one statement, 0 to run batched queries one by one
+     */
+    public void setBatchSize(final int batchSize) {
+        Validate.isTrue(batchSize >= 0, "batchSize may not be negative");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param usernameColumn the column holding the username a row belongs to, required to batch queries
+     */
+    public void setUsernameColumn(final String usernameColumn) {
+        this.usernameColumn = usernameColumn;
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
         if (dataSource == null) throw new BeanInitializationException("dataSource property is required");
@@ -114,6 +162,13 @@ public class NamedParameterJdbcPersonAttributeDao extends AbstractDefaultAttribu
         if (userAttributeNames == null) throw new BeanInitializationException("userAttributeNames property is required");
         if (usernameAttributeProvider == null) throw new BeanInitializationException("usernameAttributeProvider is required");
         jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+
+        final Set<String> parameterNames = new HashSet<>();
+        var parsedSql = NamedParameterUtils.parseSqlStatement(sql);
+        for (var parameter : NamedParameterUtils.buildSqlParameterList(parsedSql, new EmptySqlParameterSource())) {
+            parameterNames.add(parameter.getName());
+        }
+        sqlParameterNames = parameterNames;
     }
 
     /*
@@ -130,9 +185,67 @@ public class NamedParameterJdbcPersonAttributeDao extends AbstractDefaultAttribu
                                                                      final IPersonAttributeDaoFilter filter,
                                                                      final Set<IPersonAttributes> resultPeople) {
         var username = usernameAttributeProvider.getUsernameFromQuery(queryParameters);
-        var rslt = new RowCallbackHandlerImpl(username);
-        jdbcTemplate.query(sql, new SqlParameterSourceImpl(queryParameters), rslt);
-        return rslt.getResults();
+        var rslt = new RowCallbackHandlerImpl(false);
+        jdbcTemplate.query(sql, new SqlParameterSourceImpl(queryParameters, expandMultiValuedParameters), rslt);
+        return rslt.getResults(username);
+    }
+
+    @Override
+    public List<Set<IPersonAttributes>> getBatchedPeopleWithMultivaluedAttributes(final List<Map<String, List<Object>>> queries,
+                                                                                 final IPersonAttributeDaoFilter filter,
+                                                                                 final Set<IPersonAttributes> resultPeople) {
+        Validate.notNull(queries, "queries may not be null");
+
+        final List<Set<IPersonAttributes>> results = new ArrayList<>(queries.size());
+        if (!isBatchable(queries)) {
+            for (var query : queries) {
+                results.add(getPeopleWithMultivaluedAttributes(query, filter, resultPeople));
+            }
+            return results;
+        }
+
+        var usernameAttribute = usernameAttributeProvider.getUsernameAttribute();
+        for (var start = 0; start < queries.size(); start += batchSize) {
+            var batch = queries.subList(start, Math.min(start + batchSize, queries.size()));
+
+            final List<String> usernames = new ArrayList<>(batch.size());
+            for (var query : batch) {
+                usernames.add(usernameAttributeProvider.getUsernameFromQuery(query));
+            }
+            final Map<String, List<Object>> queryParameters = new HashMap<>(batch.get(0));
+            queryParameters.put(usernameAttribute, new ArrayList<>(new LinkedHashSet<>(usernames)));
+
+            var rslt = new RowCallbackHandlerImpl(true);
+            jdbcTemplate.query(sql, new SqlParameterSourceImpl(queryParameters, true), rslt);
+            for (var username : usernames) {
+                results.add(rslt.getResults(username));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Whether the queries can be run as batches: batching is configured and the queries hold a username and the
+     * same values for the other parameters of the SQL.
+     */
+    private boolean isBatchable(final List<Map<String, List<Object>>> queries) {
+        if (batchSize < 1 || usernameColumn == null || !expandMultiValuedParameters || queries.size() < 2) {
+            return false;
+        }
+
+        var usernameAttribute = usernameAttributeProvider.getUsernameAttribute();
+        var first = queries.get(0);
+        for (var query : queries) {
+            if (usernameAttributeProvider.getUsernameFromQuery(query) == null) {
+                return false;
+            }
+            for (var parameterName : sqlParameterNames) {
+                if (!parameterName.equals(usernameAttribute) && !Objects.equals(first.get(parameterName), query.get(parameterName))) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
     @Override
@@ -148,18 +261,21 @@ public class NamedParameterJdbcPersonAttributeDao extends AbstractDefaultAttribu
 
         // Instance Members.
         private final Map<String, List<Object>> queryParameters;
+        private final boolean expandMultiValuedParameters;
 
-        public SqlParameterSourceImpl(final Map<String, List<Object>> queryParameters) {
+        public SqlParameterSourceImpl(final Map<String, List<Object>> queryParameters, final boolean expandMultiValuedParameters) {
             this.queryParameters = queryParameters;
+            this.expandMultiValuedParameters = expandMultiValuedParameters;
         }
 
         @Override
         public Object getValue(final String paramName) throws IllegalArgumentException {
-            // Use the first one
             var val = queryParameters.get(paramName);
-            return val != null && val.size() != 0
-                    ? val.get(0)
-                    : null;
+            if (val == null || val.size() == 0) {
+                return null;
+            }
+            // All of them, expanded to an IN list by the template, or the first one
+            return expandMultiValuedParameters ? val : val.get(0);
         }
 
         @Override
@@ -173,36 +289,72 @@ public class NamedParameterJdbcPersonAttributeDao extends AbstractDefaultAttribu
     private class RowCallbackHandlerImpl implements RowCallbackHandler {
 
         // Instance Members
-        final String username;
-        final Map<String, Set<Object>> attributes = new HashMap<>();
+        final boolean byUsernameColumn;  // true to assign the rows by the usernameColumn
+        final Map<String, List<Set<Object>>> attributesByUsername = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        List<Set<Object>> attributes;  // the values of each attribute, when not assigning by username
+        String[] attributeNames;
+        int[] attributeColumns;
+        int usernameColumnIndex;
 
-        public RowCallbackHandlerImpl(final String username) {
-            this.username = username;
+        public RowCallbackHandlerImpl(final boolean byUsernameColumn) {
+            this.byUsernameColumn = byUsernameColumn;
         }
 
         @Override
         public void processRow(final ResultSet rs) throws SQLException {
+            if (attributeColumns == null) {
+                // Resolve the columns once, the values of each attribute are buffered by its position
+                attributeNames = userAttributeNames.toArray(new String[0]);
+                attributeColumns = new int[attributeNames.length];
+                for (var i = 0; i < attributeNames.length; i++) {
+                    attributeColumns[i] = rs.findColumn(attributeNames[i]);
+                }
+                if (byUsernameColumn) {
+                    usernameColumnIndex = rs.findColumn(usernameColumn);
+                }
+            }
 
-            for (var attrName : userAttributeNames) {
-                var values = attributes.get(attrName);
-                if (values == null) {
-                    values = new HashSet<>();
-                    attributes.put(attrName, values);
+            final List<Set<Object>> values;
+            if (byUsernameColumn) {
+                values = attributesByUsername.computeIfAbsent(String.valueOf(rs.getObject(usernameColumnIndex)), key -> newBuffers());
+            } else {
+                if (attributes == null) {
+                    attributes = newBuffers();
                 }
-                var val = rs.getObject(attrName);
-                if (val != null) {
-                    values.add(val);
+                values = attributes;
+            }
+            for (var i = 0; i < attributeColumns.length; i++) {
+                var val = ColumnMapParameterizedRowMapper.getResultSetValue(rs, attributeColumns[i]);
+                if (val instanceof List<?> elements) {
+                    for (var element : elements) {
+                        if (element != null) {
+                            values.get(i).add(element);
+                        }
+                    }
+                } else if (val != null) {
+                    values.get(i).add(val);
                 }
             }
 
         }
 
-        public Set<IPersonAttributes> getResults() {
-            final Map<String, List<Object>> mapOfLists = new HashMap<>();
-            for (var y : attributes.entrySet()) {
-                mapOfLists.put(y.getKey(), new ArrayList<>(y.getValue()));
+        private List<Set<Object>> newBuffers() {
+            final List<Set<Object>> buffers = new ArrayList<>(attributeColumns.length);
+            for (var i = 0; i < attributeColumns.length; i++) {
+                buffers.add(new LinkedHashSet<>());
+            }
+            return buffers;
+        }
+
+        public Set<IPersonAttributes> getResults(final String resultUsername) {
+            final Map<String, List<Object>> mapOfLists = new LinkedHashMap<>();
+            var values = byUsernameColumn ? attributesByUsername.get(resultUsername) : attributes;
+            if (values != null) {
+                for (var i = 0; i < attributeNames.length; i++) {
+                    mapOfLists.put(attributeNames[i], new ArrayList<>(values.get(i)));
+                }
             }
-            var person = new CaseInsensitiveNamedPersonImpl(username, mapOfLists);
+            var person = new CaseInsensitiveNamedPersonImpl(resultUsername, mapOfLists);
             return Collections.singleton(person);
         }
 
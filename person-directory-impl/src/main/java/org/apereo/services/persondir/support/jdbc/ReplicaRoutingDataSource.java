@@ -0,0 +1,392 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.jdbc;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.apache.commons.lang3.Validate;
+import org.apereo.services.persondir.support.PersonAttributeQueryContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link DataSource} that spreads connections over several replica DataSources holding the same data, for use by
+ * the JDBC PersonAttributeDaos in place of a single DataSource.
+ * <br>
+ * A replica is ejected when getting a connection from it failed <b>failureThreshold</b> times in a row, and is
+ * tried again once <b>ejectionDuration</b> passed. Getting a connection fails over to the other replicas, ejected
+ * replicas are only used if all replicas are ejected.
+ * <br>
+ * Only getting connections is monitored: a replica that hands out connections whose statements fail is not ejected,
+ * and behind a connection pool each failure takes the pool's checkout timeout, so configure the pools of the
+ * replicas with a short timeout.
+ * <br>
+ * <br>
+ * Configuration:
+ * <table border="1">
+ * <tr>
+ * <th>Property</th>
+ * <th>Description</th>
+ * <th>Required</th>
+ * <th>Default</th>
+ * </tr>
+ * <tr>
+ * <td  valign="top">dataSources</td>
+ * <td>
+ * The replica DataSources.
+ * </td>
+ * <td valign="top">Yes</td>
+ * <td valign="top">null</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">selectionStrategy</td>
+ * <td>
+ * How a replica is chosen: {@link SelectionStrategy#ROUND_ROBIN} in turn, or
+ * {@link SelectionStrategy#LEAST_OUTSTANDING} the replica with the fewest open connections.
+ * </td>
+ * <td valign="top">No</td>
+ * <td valign="top">ROUND_ROBIN</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">failureThreshold</td>
+ * <td>
+ * The number of consecutive failures to get a connection after which a replica is ejected.
+ * </td>
+ * <td valign="top">No</td>
+ * <td valign="top">3</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">ejectionDuration</td>
+ * <td>
+ * How long an ejected replica is not used.
+ * </td>
+ * <td valign="top">No</td>
+ * <td valign="top">30 seconds</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">pinRequests</td>
+ * <td>
+ * If true, all connections taken within an open {@link PersonAttributeQueryContext} come from the same replica
+ * while it is healthy, so that the queries of a request see consistent data.
+ * </td>
+ * <td valign="top">No</td>
+ * <td valign="top">false</td>
+ * </tr>
+ * </table>
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource {
+    /**
+     * How a replica is chosen for a connection.
+     */
+    public enum SelectionStrategy {
+        ROUND_ROBIN,
+        LEAST_OUTSTANDING
+    }
+
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private volatile List<Replica> replicas = List.of();
+
+    private SelectionStrategy selectionStrategy = SelectionStrategy.ROUND_ROBIN;
+
+    private int failureThreshold = 3;
+
+    private Duration ejectionDuration = Duration.ofSeconds(30);
+
+    private boolean pinRequests;
+
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    private final String pinAttributeName = getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(this));
+
+    public ReplicaRoutingDataSource() {
+        super();
+    }
+
+    public ReplicaRoutingDataSource(final List<DataSource> dataSources) {
+        this();
+        this.setDataSources(dataSources);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return this.route(null, null, false);
+    }
+
+    @Override
+    public Connection getConnection(final String username, final String password) throws SQLException {
+        return this.route(username, password, true);
+    }
+
+    private Connection route(final String username, final String password, final boolean withCredentials) throws SQLException {
+        var candidates = this.replicas;
+        if (candidates.isEmpty()) {
+            throw new IllegalStateException("No 'dataSources' have been specified.");
+        }
+
+        var context = this.pinRequests ? PersonAttributeQueryContext.current() : null;
+        var pinned = context != null ? (Replica) context.getAttribute(this.pinAttributeName) : null;
+
+        final List<Replica> tried = new ArrayList<>(candidates.size());
+        SQLException failure = null;
+        while (tried.size() < candidates.size()) {
+            var now = System.nanoTime();
+            var replica = pinned != null && !tried.contains(pinned) && !pinned.isEjected(now)
+                ? pinned
+                : this.select(candidates, tried, now);
+            tried.add(replica);
+
+            final Connection connection;
+            try {
+                connection = withCredentials
+                    ? replica.dataSource.getConnection(username, password)
+                    : replica.dataSource.getConnection();
+            } catch (final SQLException e) {
+                if (replica.onFailure(System.nanoTime(), this.failureThreshold, this.ejectionDuration)) {
+                    this.logger.warn("Ejecting replica {} for {} after {} consecutive failures: {}",
+                        replica.dataSource, this.ejectionDuration, this.failureThreshold, e.getMessage());
+                }
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+                continue;
+            }
+
+            replica.onSuccess();
+            if (context != null && replica != pinned) {
+                context.setAttribute(this.pinAttributeName, replica);
+            }
+            return replica.track(connection);
+        }
+        throw failure;
+    }
+
+    /**
+     * Select a replica that was not tried yet, preferring replicas that are not ejected.
+     */
+    private Replica select(final List<Replica> candidates, final List<Replica> tried, final long now) {
+        final List<Replica> available = new ArrayList<>(candidates.size());
+        for (var replica : candidates) {
+            if (!tried.contains(replica) && !replica.isEjected(now)) {
+                available.add(replica);
+            }
+        }
+        if (available.isEmpty()) {
+            // All replicas left are ejected, trying one of them beats failing
+            for (var replica : candidates) {
+                if (!tried.contains(replica)) {
+                    available.add(replica);
+                }
+            }
+        }
+
+        var offset = Math.floorMod(this.nextReplica.getAndIncrement(), available.size());
+        if (this.selectionStrategy == SelectionStrategy.ROUND_ROBIN) {
+            return available.get(offset);
+        }
+
+        // Start at the round robin offset so that ties are spread over the replicas
+        var selected = available.get(offset);
+        for (var i = 1; i < available.size(); i++) {
+            var replica = available.get((offset + i) % available.size());
+            if (replica.outstanding.get() < selected.outstanding.get()) {
+                selected = replica;
+            }
+        }
+        return selected;
+    }
+
+    @JsonIgnore
+    public List<DataSource> getDataSources() {
+        final List<DataSource> dataSources = new ArrayList<>(this.replicas.size());
+        this.replicas.forEach(replica -> dataSources.add(replica.dataSource));
+        return dataSources;
+    }
+
+    /**
+     * @param dataSources The replica DataSources, holding the same data.
+     */
+    public void setDataSources(final List<DataSource> dataSources) {
+        Validate.notEmpty(dataSources, "dataSources may not be empty");
+        Validate.noNullElements(dataSources, "dataSources may not contain null");
+        final List<Replica> newReplicas = new ArrayList<>(dataSources.size());
+        dataSources.forEach(dataSource -> newReplicas.add(new Replica(dataSource)));
+        this.replicas = List.copyOf(newReplicas);
+    }
+
+    public SelectionStrategy getSelectionStrategy() {
+        return selectionStrategy;
+    }
+
+    /**
+     * @param selectionStrategy How a replica is chosen for a connection.
+     */
+    public void setSelectionStrategy(final SelectionStrategy selectionStrategy) {
+        Validate.notNull(selectionStrategy, "selectionStrategy may not be null");
+        this.selectionStrategy = selectionStrategy;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    /**
+     * @param failureThreshold The number of consecutive failures after which a replica is ejected.
+     */
+    public void setFailureThreshold(final int failureThreshold) {
+        Validate.isTrue(failureThreshold > 0, "failureThreshold must be greater than 0");
+        this.failureThreshold = failureThreshold;
+    }
+
+    public Duration getEjectionDuration() {
+        return ejectionDuration;
+    }
+
+    /**
+     * @param ejectionDuration How long an ejected replica is not used.
+     */
+    public void setEjectionDuration(final Duration ejectionDuration) {
+        Validate.isTrue(ejectionDuration != null && !ejectionDuration.isNegative(), "ejectionDuration may not be null or negative");
+        this.ejectionDuration = ejectionDuration;
+    }
+
+    public boolean isPinRequests() {
+        return pinRequests;
+    }
+
+    /**
+     * @param pinRequests True to take all connections of a {@link PersonAttributeQueryContext} from the same replica.
+     */
+    public void setPinRequests(final boolean pinRequests) {
+        this.pinRequests = pinRequests;
+    }
+
+    /**
+     * @return The number of replicas that are not ejected.
+     */
+    @JsonIgnore
+    public int getHealthyReplicaCount() {
+        var now = System.nanoTime();
+        var count = 0;
+        for (var replica : this.replicas) {
+            if (!replica.isEjected(now)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of open connections of each replica, in the order of the dataSources.
+     */
+    @JsonIgnore
+    public List<Integer> getOutstandingConnections() {
+        final List<Integer> outstanding = new ArrayList<>(this.replicas.size());
+        this.replicas.forEach(replica -> outstanding.add(replica.outstanding.get()));
+        return outstanding;
+    }
+
+    /**
+     * A replica DataSource and its state.
+     */
+    private static final class Replica {
+        private final DataSource dataSource;
+
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+        private volatile long ejectedUntilNanos;
+
+        private volatile boolean ejected;
+
+        private Replica(final DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        private boolean isEjected(final long now) {
+            return this.ejected && now - this.ejectedUntilNanos < 0;
+        }
+
+        private void onSuccess() {
+            this.consecutiveFailures.set(0);
+            this.ejected = false;
+        }
+
+        /**
+         * @return true if the replica was ejected by this failure
+         */
+        private boolean onFailure(final long now, final int failureThreshold, final Duration ejectionDuration) {
+            if (this.consecutiveFailures.incrementAndGet() < failureThreshold || this.isEjected(now)) {
+                return false;
+            }
+            this.ejectedUntilNanos = now + ejectionDuration.toNanos();
+            this.ejected = true;
+            return true;
+        }
+
+        /**
+         * Count the connection as outstanding until it is closed.
+         */
+        private Connection track(final Connection connection) {
+            this.outstanding.incrementAndGet();
+            var closed = new AtomicBoolean();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "toString":
+                            return "Connection of replica " + this.dataSource + ": " + connection;
+                        case "unwrap":
+                            return ((Class<?>) args[0]).isInstance(proxy) ? proxy : connection.unwrap((Class<?>) args[0]);
+                        case "isWrapperFor":
+                            return ((Class<?>) args[0]).isInstance(proxy) || connection.isWrapperFor((Class<?>) args[0]);
+                        case "close":
+                            if (closed.compareAndSet(false, true)) {
+                                this.outstanding.decrementAndGet();
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (final InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.jdbc;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A read-only row of a result set, holding its values in an array indexed by the slots of a {@link Columns}
+ * shared by all rows of the same shape. Keys are compared case-insensitively and iterated in case-insensitive
+ * order, like those of a {@link TreeMap} with {@link String#CASE_INSENSITIVE_ORDER}.
+ */
+final class SlotIndexedRow extends AbstractMap<String, Object> {
+    private final Columns columns;
+
+    private final Object[] values;
+
+    private final boolean[] present;
+
+    private int size = -1;
+
+    SlotIndexedRow(final Columns columns) {
+        this.columns = columns;
+        this.values = new Object[columns.keys.length];
+        this.present = new boolean[columns.keys.length];
+    }
+
+    void set(final int slot, final Object value) {
+        this.values[slot] = value;
+        this.present[slot] = true;
+    }
+
+    @Override
+    public Object get(final Object key) {
+        var slot = this.columns.slotOf(key);
+        return slot < 0 ? null : this.values[slot];
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        var slot = this.columns.slotOf(key);
+        return slot >= 0 && this.present[slot];
+    }
+
+    @Override
+    public int size() {
+        if (this.size < 0) {
+            var count = 0;
+            for (var isPresent : this.present) {
+                if (isPresent) {
+                    count++;
+                }
+            }
+            this.size = count;
+        }
+        return this.size;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new Iterator<>() {
+                    private int next = advance(0);
+
+                    private int advance(final int from) {
+                        var i = from;
+                        while (i < columns.sortedSlots.length && !present[columns.sortedSlots[i]]) {
+                            i++;
+                        }
+                        return i;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return this.next < columns.sortedSlots.length;
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        var slot = columns.sortedSlots[this.next];
+                        this.next = advance(this.next + 1);
+                        return new SimpleImmutableEntry<>(columns.keys[slot], values[slot]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return SlotIndexedRow.this.size();
+            }
+        };
+    }
+
+    /**
+     * The slots of the columns of a result set shape. Columns with the same key, ignoring case, share a slot.
+     */
+    static final class Columns {
+        private final String[] keys;
+
+        private final int[] slotOfColumn;
+
+        private final int[] sortedSlots;
+
+        private final Map<String, Integer> slots = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        /**
+         * @param columnKeys the keys of the columns, in the order of the result set
+         */
+        Columns(final List<String> columnKeys) {
+            this.slotOfColumn = new int[columnKeys.size()];
+            for (var i = 0; i < columnKeys.size(); i++) {
+                this.slotOfColumn[i] = this.slots.computeIfAbsent(columnKeys.get(i), key -> this.slots.size());
+            }
+
+            this.keys = new String[this.slots.size()];
+            this.sortedSlots = new int[this.slots.size()];
+            var i = 0;
+            for (var slot : this.slots.entrySet()) {
+                this.keys[slot.getValue()] = slot.getKey();
+                this.sortedSlots[i++] = slot.getValue();
+            }
+        }
+
+        /**
+         * @param column the index of the column in the result set, starting at 0
+         * @return the slot of the column
+         */
+        int slotOfColumn(final int column) {
+            return this.slotOfColumn[column];
+        }
+
+        int getColumnCount() {
+            return this.slotOfColumn.length;
+        }
+
+        private int slotOf(final Object key) {
+            if (!(key instanceof String stringKey)) {
+                return -1;
+            }
+            var slot = this.slots.get(stringKey);
+            return slot == null ? -1 : slot;
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(this.keys);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.json;
+
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import org.apereo.services.persondir.IPersonAttributes;
+
+/**
+ * Jackson module that registers streaming (de)serialization for {@link IPersonAttributes}.
+ * Register it explicitly on the {@link com.fasterxml.jackson.databind.ObjectMapper} that
+ * reads or writes people:
+ *
+ * <pre><code>
+ * var mapper = new ObjectMapper().registerModule(new PersonAttributesJacksonModule());
+ * var json = mapper.writeValueAsString(person);
+ * var person = mapper.readValue(json, IPersonAttributes.class);
+ * </code></pre>
+ */
+public class PersonAttributesJacksonModule extends SimpleModule {
+    /**
+     * Name of the JSON field holding the person name.
+     */
+    public static final String NAME_FIELD = "name";
+
+    /**
+     * Name of the JSON field holding the attributes object.
+     */
+    public static final String ATTRIBUTES_FIELD = "attributes";
+
+    private static final long serialVersionUID = 1L;
+
+    public PersonAttributesJacksonModule() {
+        super(PersonAttributesJacksonModule.class.getSimpleName());
+        addSerializer(IPersonAttributes.class, new PersonAttributesJsonSerializer());
+        addDeserializer(IPersonAttributes.class, new PersonAttributesJsonDeserializer());
+    }
+}
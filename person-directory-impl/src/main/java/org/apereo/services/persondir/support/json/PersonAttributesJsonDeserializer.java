@@ -0,0 +1,187 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.json;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import org.apereo.services.persondir.IPersonAttributes;
+import org.apereo.services.persondir.support.AttributeNamedPersonImpl;
+import org.apereo.services.persondir.support.NamedPersonImpl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the form written by {@link PersonAttributesJsonSerializer} token by token, building the
+ * attribute map of the person directly instead of binding to generic {@link Map}s and {@link List}s
+ * first. A person without a name is created as an {@link AttributeNamedPersonImpl}.
+ */
+public class PersonAttributesJsonDeserializer extends StdDeserializer<IPersonAttributes> {
+    private static final long serialVersionUID = 1L;
+
+    public PersonAttributesJsonDeserializer() {
+        super(IPersonAttributes.class);
+    }
+
+    @Override
+    public IPersonAttributes deserialize(final JsonParser p, final DeserializationContext ctxt) throws IOException {
+        var token = p.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = p.nextToken();
+        }
+
+        String name = null;
+        Map<String, List<Object>> attributes = null;
+        for (; token == JsonToken.FIELD_NAME; token = p.nextToken()) {
+            var field = p.currentName();
+            p.nextToken();
+            if (PersonAttributesJacksonModule.NAME_FIELD.equals(field)) {
+                name = p.currentToken() == JsonToken.VALUE_NULL ? null : p.getValueAsString();
+            } else if (PersonAttributesJacksonModule.ATTRIBUTES_FIELD.equals(field)) {
+                attributes = readAttributes(p, ctxt);
+            } else {
+                p.skipChildren();
+            }
+        }
+
+        if (token != JsonToken.END_OBJECT) {
+            return (IPersonAttributes) ctxt.handleUnexpectedToken(IPersonAttributes.class, p);
+        }
+
+        if (attributes == null) {
+            attributes = Collections.emptyMap();
+        }
+        if (name == null) {
+            return new AttributeNamedPersonImpl(attributes);
+        }
+        return new NamedPersonImpl(name, attributes);
+    }
+
+    /**
+     * Read a JSON object of user name to attribute object, as used by the backing map of
+     * {@link org.apereo.services.persondir.support.ComplexStubPersonAttributeDao}. The parser must
+     * have a codec set if attribute values contain nested objects or arrays.
+     *
+     * @param p the parser, positioned before or on the opening token
+     * @return the backing map
+     * @throws IOException if the content is not well-formed or not of the expected structure
+     */
+    public static Map<String, Map<String, List<Object>>> readBackingMap(final JsonParser p) throws IOException {
+        var token = p.currentToken() == null ? p.nextToken() : p.currentToken();
+        expect(p, token, JsonToken.START_OBJECT);
+
+        final Map<String, Map<String, List<Object>>> backingMap = new LinkedHashMap<>();
+        for (token = p.nextToken(); token == JsonToken.FIELD_NAME; token = p.nextToken()) {
+            var userName = p.currentName();
+            p.nextToken();
+            backingMap.put(userName, readAttributes(p, null));
+        }
+        expect(p, token, JsonToken.END_OBJECT);
+        return backingMap;
+    }
+
+    /**
+     * Read a JSON object of attribute name to values. Values given as an array become a multi-valued
+     * attribute, a single scalar becomes a single valued attribute.
+     *
+     * @param p    the parser, positioned on the opening token of the object
+     * @param ctxt the context, may be null when reading outside of an {@link com.fasterxml.jackson.databind.ObjectMapper}
+     * @return the attributes, or null for a JSON null
+     * @throws IOException if the content is not well-formed or not of the expected structure
+     */
+    public static Map<String, List<Object>> readAttributes(final JsonParser p,
+                                                           final DeserializationContext ctxt) throws IOException {
+        var token = p.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        expect(p, token, JsonToken.START_OBJECT);
+
+        final Map<String, List<Object>> attributes = new LinkedHashMap<>();
+        for (token = p.nextToken(); token == JsonToken.FIELD_NAME; token = p.nextToken()) {
+            var attributeName = p.currentName();
+            token = p.nextToken();
+            if (token == JsonToken.VALUE_NULL) {
+                attributes.put(attributeName, null);
+            } else if (token == JsonToken.START_ARRAY) {
+                final List<Object> values = new ArrayList<>(2);
+                for (token = p.nextToken(); token != JsonToken.END_ARRAY; token = p.nextToken()) {
+                    if (token == null) {
+                        throw new JsonParseException(p, "Unexpected end-of-input in values of attribute " + attributeName);
+                    }
+                    values.add(readValue(p, token, ctxt));
+                }
+                attributes.put(attributeName, values);
+            } else {
+                final List<Object> values = new ArrayList<>(1);
+                values.add(readValue(p, token, ctxt));
+                attributes.put(attributeName, values);
+            }
+        }
+        expect(p, token, JsonToken.END_OBJECT);
+        return attributes;
+    }
+
+    private static Object readValue(final JsonParser p, final JsonToken token,
+                                    final DeserializationContext ctxt) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                return p.getText();
+            case VALUE_NUMBER_INT:
+                // Coerced as Jackson's own untyped deserializer does
+                if (ctxt != null && ctxt.isEnabled(DeserializationFeature.USE_BIG_INTEGER_FOR_INTS)) {
+                    return p.getBigIntegerValue();
+                }
+                if (ctxt != null && ctxt.isEnabled(DeserializationFeature.USE_LONG_FOR_INTS)) {
+                    return p.getLongValue();
+                }
+                return p.getNumberValue();
+            case VALUE_NUMBER_FLOAT:
+                if (ctxt != null && ctxt.isEnabled(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS)) {
+                    return p.getDecimalValue();
+                }
+                return p.getNumberValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return null;
+            default:
+                if (ctxt != null) {
+                    return ctxt.readValue(p, Object.class);
+                }
+                return p.readValueAs(Object.class);
+        }
+    }
+
+    private static void expect(final JsonParser p, final JsonToken actual, final JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new JsonParseException(p, "Expected " + expected + " but found " + actual);
+        }
+    }
+}
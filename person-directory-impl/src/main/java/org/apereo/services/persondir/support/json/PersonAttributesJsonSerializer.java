@@ -0,0 +1,108 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import org.apereo.services.persondir.IPersonAttributes;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams an {@link IPersonAttributes} straight to the {@link JsonGenerator} as
+ * <code>{"name":"...","attributes":{"attr":[values]}}</code>. Common scalar values are
+ * written directly; anything else is handed to the configured serializers.
+ */
+public class PersonAttributesJsonSerializer extends StdSerializer<IPersonAttributes> {
+    private static final long serialVersionUID = 1L;
+
+    public PersonAttributesJsonSerializer() {
+        super(IPersonAttributes.class);
+    }
+
+    @Override
+    public void serialize(final IPersonAttributes person, final JsonGenerator gen,
+                          final SerializerProvider provider) throws IOException {
+        gen.writeStartObject(person);
+        gen.writeStringField(PersonAttributesJacksonModule.NAME_FIELD, person.getName());
+        gen.writeFieldName(PersonAttributesJacksonModule.ATTRIBUTES_FIELD);
+        writeAttributes(person.getAttributes(), gen, provider);
+        gen.writeEndObject();
+    }
+
+    /**
+     * Write an attribute map as a JSON object of attribute name to array of values.
+     *
+     * @param attributes the attributes to write
+     * @param gen        the generator
+     * @param provider   the serializer provider, used for values that are not simple scalars
+     * @throws IOException if the generator fails
+     */
+    public static void writeAttributes(final Map<String, List<Object>> attributes, final JsonGenerator gen,
+                                       final SerializerProvider provider) throws IOException {
+        if (attributes == null) {
+            gen.writeNull();
+            return;
+        }
+
+        gen.writeStartObject();
+        for (var entry : attributes.entrySet()) {
+            gen.writeFieldName(entry.getKey());
+            var values = entry.getValue();
+            if (values == null) {
+                gen.writeNull();
+                continue;
+            }
+            gen.writeStartArray(values, values.size());
+            for (var value : values) {
+                writeValue(value, gen, provider);
+            }
+            gen.writeEndArray();
+        }
+        gen.writeEndObject();
+    }
+
+    private static void writeValue(final Object value, final JsonGenerator gen,
+                                   final SerializerProvider provider) throws IOException {
+        if (value == null) {
+            gen.writeNull();
+        } else if (value instanceof String string) {
+            gen.writeString(string);
+        } else if (value instanceof Integer number) {
+            gen.writeNumber(number);
+        } else if (value instanceof Long number) {
+            gen.writeNumber(number);
+        } else if (value instanceof Double number) {
+            gen.writeNumber(number);
+        } else if (value instanceof Boolean bool) {
+            gen.writeBoolean(bool);
+        } else if (value instanceof BigDecimal number) {
+            gen.writeNumber(number);
+        } else if (value instanceof BigInteger number) {
+            gen.writeNumber(number);
+        } else {
+            provider.defaultSerializeValue(value, gen);
+        }
+    }
+}
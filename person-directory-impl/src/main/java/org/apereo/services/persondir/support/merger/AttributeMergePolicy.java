@@ -0,0 +1,47 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.merger;
+
+/**
+ * How the values of an attribute returned by a PersonAttributeDao are merged into the values
+ * already collected for the same attribute.
+ *
+ * @see PolicyBasedAttributeMerger
+ */
+public enum AttributeMergePolicy {
+    /**
+     * The new values replace the collected values, as done by {@link ReplacingAttributeAdder}.
+     */
+    REPLACE,
+
+    /**
+     * The new values are appended to the collected values, as done by {@link MultivaluedAttributeMerger}.
+     */
+    ADD,
+
+    /**
+     * The new values are appended to the collected values, dropping duplicates.
+     */
+    ADD_DISTINCT,
+
+    /**
+     * The new values are only used if no values were collected yet, as done by {@link NoncollidingAttributeAdder}.
+     */
+    NONCOLLIDING
+}
@@ -21,6 +21,7 @@ package org.apereo.services.persondir.support.merger;
 import org.apache.commons.lang3.Validate;
 import org.apereo.services.persondir.IPersonAttributes;
 import org.apereo.services.persondir.support.NamedPersonImpl;
+import org.apereo.services.persondir.util.CollectionsUtil;
 
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
@@ -82,7 +83,7 @@ public abstract class BaseAdditiveAttributeMerger implements IAttributeMerger {
             else {
                 var toModifyAttributes = this.buildMutableAttributeMap(toModifyPerson.getAttributes());
                 var mergedAttributes = this.mergePersonAttributes(toModifyAttributes, toConsiderPerson.getAttributes());
-                var mergedPerson = new NamedPersonImpl(toConsiderName, mergedAttributes);
+                var mergedPerson = this.buildMergedPerson(toConsiderName, mergedAttributes);
 
                 //Remove then re-add the mergedPerson entry
                 toModify.remove(mergedPerson);
@@ -94,13 +95,29 @@ public abstract class BaseAdditiveAttributeMerger implements IAttributeMerger {
     }
 
     /**
-     * Do a deep clone of an attribute Map to ensure it is completley mutable.
+     * Creates an accumulator that indexes the people once and merges into mutable working copies of their
+     * attributes, creating the merged people only when the results are requested.
+     *
+     * @see IAttributeMerger#newMergeAccumulator()
+     */
+    @Override
+    public IAttributeMergeAccumulator newMergeAccumulator() {
+        return new IndexedAttributeMergeAccumulator(this);
+    }
+
+    /**
+     * Do a deep clone of an attribute Map to ensure it is completley mutable. If {@link #isCopyValueLists()}
+     * is false only the Map is copied and the value Lists are shared with the original attributes.
      *
      * @param attributes Attribute map
      * @return Mutable attribute map
      */
     protected Map<String, List<Object>> buildMutableAttributeMap(final Map<String, List<Object>> attributes) {
         var mutableValuesBuilder = this.createMutableAttributeMap(attributes.size());
+        if (!this.isCopyValueLists()) {
+            mutableValuesBuilder.putAll(attributes);
+            return mutableValuesBuilder;
+        }
 
         for (var attrEntry : attributes.entrySet()) {
             var key = attrEntry.getKey();
@@ -116,6 +133,38 @@ public abstract class BaseAdditiveAttributeMerger implements IAttributeMerger {
         return mutableValuesBuilder;
     }
 
+    /**
+     * Create a merged person. If {@link #isCopyValueLists()} is false its value Lists may be shared with the people
+     * that were merged, so they are wrapped read-only to keep changes to the merged person from reaching them.
+     *
+     * @param name       the name of the person
+     * @param attributes the merged attributes, owned by the caller
+     * @return the merged person
+     */
+    IPersonAttributes buildMergedPerson(final String name, final Map<String, List<Object>> attributes) {
+        if (this.isCopyValueLists()) {
+            return new NamedPersonImpl(name, attributes);
+        }
+
+        var readOnlyValues = this.createMutableAttributeMap(attributes.size());
+        for (var attrEntry : attributes.entrySet()) {
+            var value = attrEntry.getValue();
+            readOnlyValues.put(attrEntry.getKey(), value == null ? null : CollectionsUtil.safelyWrapAsUnmodifiableList(value));
+        }
+        return new NamedPersonImpl(name, readOnlyValues);
+    }
+
+    /**
+     * Whether the value Lists must be copied before merging because {@link #mergePersonAttributes(Map, Map)}
+     * modifies the Lists of the toModify argument in place. Mergers that only put new or existing Lists into
+     * toModify return false, which lets merged people share every List that the merge did not change.
+     *
+     * @return true if value Lists are copied before merging, defaults to true
+     */
+    protected boolean isCopyValueLists() {
+        return true;
+    }
+
     /**
      * Create the Map used when merging attributes
      *
@@ -0,0 +1,59 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.merger;
+
+import org.apereo.services.persondir.IPersonAttributes;
+
+import java.util.Set;
+
+/**
+ * Accumulates the results of several sibling PersonAttributeDaos, one result Set at a time, using the
+ * strategy of the {@link IAttributeMerger} that created it. Implementations may keep a mutable working
+ * state between calls to {@link #add(Set)} and only build the merged {@link IPersonAttributes} when
+ * {@link #getResults()} is called. Instances are not thread-safe and are meant to be used for a single query.
+ *
+ * @see IAttributeMerger#newMergeAccumulator()
+ */
+public interface IAttributeMergeAccumulator {
+    /**
+     * Merge a Set of query results into the accumulated results. The first Set added is used as-is.
+     *
+     * @param toConsider The query results, this will not be modified.
+     * @throws IllegalArgumentException if toConsider is null
+     */
+    void add(Set<IPersonAttributes> toConsider);
+
+    /**
+     * Get the merged results of all the Sets added so far.
+     *
+     * @return Merged set of {@link IPersonAttributes}, null if {@link #add(Set)} has not been called.
+     */
+    Set<IPersonAttributes> getResults();
+
+    /**
+     * Get the results merged so far without ending the in-place merging of the working state, for example to hand
+     * them to the next PersonAttributeDao. The people may build their attributes only when they are first read, and
+     * are only valid until the next call to {@link #add(Set)}. Use {@link #getResults()} for the final results.
+     *
+     * @return Merged set of {@link IPersonAttributes}, null if {@link #add(Set)} has not been called.
+     */
+    default Set<IPersonAttributes> getCurrentResults() {
+        return this.getResults();
+    }
+}
@@ -40,6 +40,17 @@ public interface IAttributeMerger {
      */
     Set<IPersonAttributes> mergeResults(Set<IPersonAttributes> toModify, Set<IPersonAttributes> toConsider);
 
+    /**
+     * Create an accumulator that merges the results of several sibling PersonAttributeDaos one Set at a time,
+     * with the same outcome as successive calls to {@link #mergeResults(Set, Set)}. The default implementation
+     * delegates to {@link #mergeResults(Set, Set)}, implementations may keep an indexed working state instead.
+     *
+     * @return A new accumulator for the results of a single query
+     */
+    default IAttributeMergeAccumulator newMergeAccumulator() {
+        return new SequentialAttributeMergeAccumulator(this);
+    }
+
     /**
      * Modify the "toModify" argument in consideration of the "toConsider" argument. Return the resulting Set which may
      * or may not be the same reference as the "toModify" argument.
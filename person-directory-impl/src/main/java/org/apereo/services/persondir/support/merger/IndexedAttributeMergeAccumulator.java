@@ -0,0 +1,243 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.merger;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apereo.services.persondir.IPersonAttributes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Accumulator for {@link BaseAdditiveAttributeMerger} that produces the same results as successive calls to
+ * {@link BaseAdditiveAttributeMerger#mergeResults(Set, Set)} without rebuilding the name index, copying the
+ * attributes and creating a new person on every merge.
+ * <p>
+ * People are indexed by name once. The attributes of a person are copied into a mutable working map the first
+ * time another result is merged into them, later merges modify that map directly. The merged people are only
+ * created by {@link #getResults()}, and only for the people that changed since the previous call. A merged
+ * person is moved to the end of the results, as {@link BaseAdditiveAttributeMerger#mergeResults(Set, Set)} does.
+ * {@link #getCurrentResults()} leaves the working maps in place, its people copy their attributes only when read.
+ */
+class IndexedAttributeMergeAccumulator implements IAttributeMergeAccumulator {
+    private final BaseAdditiveAttributeMerger attributeMerger;
+
+    private final Map<String, PersonState> people = new LinkedHashMap<>();
+
+    private Set<IPersonAttributes> results;
+
+    private Set<IPersonAttributes> currentResults;
+
+    private boolean empty = true;
+
+    private int round;
+
+    IndexedAttributeMergeAccumulator(final BaseAdditiveAttributeMerger attributeMerger) {
+        this.attributeMerger = attributeMerger;
+    }
+
+    @Override
+    public void add(final Set<IPersonAttributes> toConsider) {
+        Validate.notNull(toConsider, "toConsider cannot be null");
+
+        this.empty = false;
+        this.round++;
+
+        for (var toConsiderPerson : toConsider) {
+            var toConsiderName = toConsiderPerson.getName();
+            var state = this.people.get(toConsiderName);
+
+            //No matching person, just add the new person
+            if (state == null) {
+                this.people.put(toConsiderName, new PersonState(toConsiderPerson, this.round));
+                this.results = null;
+                this.currentResults = null;
+                continue;
+            }
+
+            //Person was added by this same Set, a second add would not modify the results
+            if (state.round == this.round) {
+                continue;
+            }
+
+            var working = state.working;
+            if (working == null) {
+                working = this.attributeMerger.buildMutableAttributeMap(state.person.getAttributes());
+            }
+
+            var toConsiderAttributes = toConsiderPerson.getAttributes();
+            var merged = this.attributeMerger.mergePersonAttributes(working, toConsiderAttributes);
+            if (merged == working) {
+                //Lists handed over from toConsider are copied if a later merge could modify them
+                if (this.attributeMerger.isCopyValueLists()) {
+                    for (var attrEntry : toConsiderAttributes.entrySet()) {
+                        var values = attrEntry.getValue();
+                        if (values != null && merged.get(attrEntry.getKey()) == values) {
+                            merged.put(attrEntry.getKey(), new ArrayList<>(values));
+                        }
+                    }
+                }
+                state.working = merged;
+                state.person = null;
+            } else {
+                //The merger returned a map it does not own, keep it read-only
+                state.working = null;
+                state.person = this.attributeMerger.buildMergedPerson(toConsiderName, merged);
+            }
+
+            //Remove then re-add the merged entry
+            this.people.remove(toConsiderName);
+            this.people.put(toConsiderName, state);
+            this.results = null;
+            this.currentResults = null;
+        }
+    }
+
+    @Override
+    public Set<IPersonAttributes> getResults() {
+        if (this.empty) {
+            return null;
+        }
+
+        if (this.results == null) {
+            final Set<IPersonAttributes> merged = new LinkedHashSet<>(this.people.size());
+            for (var personEntry : this.people.entrySet()) {
+                var state = personEntry.getValue();
+                if (state.person == null) {
+                    //The person shares the lists of the working map, the next merge starts from a fresh copy
+                    state.person = this.attributeMerger.buildMergedPerson(personEntry.getKey(), state.working);
+                    state.working = null;
+                }
+                merged.add(state.person);
+            }
+            this.results = Collections.unmodifiableSet(merged);
+        }
+
+        return this.results;
+    }
+
+    @Override
+    public Set<IPersonAttributes> getCurrentResults() {
+        if (this.empty) {
+            return null;
+        }
+        if (this.results != null) {
+            return this.results;
+        }
+
+        if (this.currentResults == null) {
+            final Set<IPersonAttributes> current = new LinkedHashSet<>(this.people.size());
+            for (var personEntry : this.people.entrySet()) {
+                var state = personEntry.getValue();
+                current.add(state.person != null ? state.person : new WorkingPerson(personEntry.getKey(), state.working));
+            }
+            this.currentResults = Collections.unmodifiableSet(current);
+        }
+        return this.currentResults;
+    }
+
+    private static final class PersonState {
+        private final int round;
+
+        private IPersonAttributes person;
+
+        private Map<String, List<Object>> working;
+
+        private PersonState(final IPersonAttributes person, final int round) {
+            this.person = person;
+            this.round = round;
+        }
+    }
+
+    /**
+     * A person whose attributes are a working map, copied the first time they are read. The copy is made once
+     * even when the person is read from several threads, for example by the children of a concurrent cascade.
+     */
+    private final class WorkingPerson implements IPersonAttributes {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+
+        private transient Map<String, List<Object>> working;
+
+        private volatile IPersonAttributes snapshot;
+
+        private WorkingPerson(final String name, final Map<String, List<Object>> working) {
+            this.name = name;
+            this.working = working;
+        }
+
+        private IPersonAttributes getSnapshot() {
+            var person = this.snapshot;
+            if (person == null) {
+                synchronized (this) {
+                    person = this.snapshot;
+                    if (person == null) {
+                        person = attributeMerger.buildMergedPerson(this.name, attributeMerger.buildMutableAttributeMap(this.working));
+                        this.snapshot = person;
+                        this.working = null;
+                    }
+                }
+            }
+            return person;
+        }
+
+        @Override
+        public String getName() {
+            return this.name;
+        }
+
+        @Override
+        public Map<String, List<Object>> getAttributes() {
+            return this.getSnapshot().getAttributes();
+        }
+
+        @Override
+        public Object getAttributeValue(final String name) {
+            return this.getSnapshot().getAttributeValue(name);
+        }
+
+        @Override
+        public List<Object> getAttributeValues(final String name) {
+            return this.getSnapshot().getAttributeValues(name);
+        }
+
+        @Override
+        public boolean equals(final Object object) {
+            return object == this || object instanceof IPersonAttributes person && this.name.equals(person.getName());
+        }
+
+        @Override
+        public int hashCode() {
+            // Same as BasePersonImpl
+            return new HashCodeBuilder(1574945487, 827742191).append(this.name).toHashCode();
+        }
+
+        @Override
+        public String toString() {
+            return this.getSnapshot().toString();
+        }
+    }
+}
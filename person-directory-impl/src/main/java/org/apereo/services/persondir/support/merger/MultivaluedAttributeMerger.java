@@ -21,7 +21,7 @@ package org.apereo.services.persondir.support.merger;
 import org.apache.commons.lang3.Validate;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -36,6 +36,9 @@ import java.util.TreeSet;
  *  <li>If one map has a {@link List} and the other a single value the value is added to the {@link List}</li>
  *  <li>If both maps have a single value a {@link List} is created from the two.</li>
  * </ul>
+ * If <code>distinctValueEquality</code> is set duplicate values are removed from the merged {@link List}
+ * using a hash lookup of {@link ValueEquality#keyOf(Object)}, keeping the first occurrence of each value
+ * in its original order. Otherwise <code>distinctValues</code> removes duplicates by sorting the values.
  *
  * @author Eric Dalquist
 
@@ -43,10 +46,22 @@ import java.util.TreeSet;
 public class MultivaluedAttributeMerger extends BaseAdditiveAttributeMerger {
     private boolean distinctValues;
 
+    private ValueEquality distinctValueEquality;
+
     public void setDistinctValues(final boolean distinctValues) {
         this.distinctValues = distinctValues;
     }
 
+    /**
+     * Remove duplicate values in linear time, keeping the first occurrence of each value. Takes
+     * precedence over <code>distinctValues</code>.
+     *
+     * @param distinctValueEquality when two values are the same value, null to disable
+     */
+    public void setDistinctValueEquality(final ValueEquality distinctValueEquality) {
+        this.distinctValueEquality = distinctValueEquality;
+    }
+
     /* (non-Javadoc)
      * @see org.jasig.services.persondir.support.merger.BaseAdditiveAttributeMerger#mergePersonAttributes(java.util.Map, java.util.Map)
      */
@@ -59,10 +74,15 @@ public class MultivaluedAttributeMerger extends BaseAdditiveAttributeMerger {
         for (var sourceEntry : toConsider.entrySet()) {
             var sourceKey = sourceEntry.getKey();
 
-            var values = toModify.computeIfAbsent(sourceKey, k -> new LinkedList<>());
+            var values = toModify.get(sourceKey);
+            if (values == null) {
+                values = Collections.emptyList();
+            }
 
             var sourceValue = sourceEntry.getValue();
-            if (this.distinctValues) {
+            if (this.distinctValueEquality != null) {
+                toModify.put(sourceKey, this.distinctValueEquality.distinct(values, sourceValue));
+            } else if (this.distinctValues) {
                 final Set<Object> temp = new TreeSet<>((o1, o2) -> {
                     if (o1 instanceof String && o2 instanceof String && o1.toString().equalsIgnoreCase(o2.toString())) {
                         return 0;
@@ -76,11 +96,22 @@ public class MultivaluedAttributeMerger extends BaseAdditiveAttributeMerger {
                 temp.addAll(values);
                 temp.addAll(sourceValue);
                 toModify.put(sourceKey, new ArrayList<>(temp));
+            } else if (values.isEmpty()) {
+                toModify.put(sourceKey, sourceValue);
             } else {
-                values.addAll(sourceValue);
+                //A new List is built so value Lists can be shared between merged people
+                final List<Object> mergedValues = new ArrayList<>(values.size() + sourceValue.size());
+                mergedValues.addAll(values);
+                mergedValues.addAll(sourceValue);
+                toModify.put(sourceKey, mergedValues);
             }
         }
 
         return toModify;
     }
+
+    @Override
+    protected boolean isCopyValueLists() {
+        return false;
+    }
 }
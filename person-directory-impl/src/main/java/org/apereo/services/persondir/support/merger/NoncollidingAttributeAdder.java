@@ -51,4 +51,9 @@ public class NoncollidingAttributeAdder extends BaseAdditiveAttributeMerger {
 
         return toModify;
     }
+
+    @Override
+    protected boolean isCopyValueLists() {
+        return false;
+    }
 }
@@ -0,0 +1,175 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.merger;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merger that applies an {@link AttributeMergePolicy} per attribute, so a single aggregator can for example
+ * replace <code>mail</code>, union <code>eduPersonAffiliation</code> and keep the first <code>displayName</code>.
+ * Attributes without a configured policy use the <code>defaultPolicy</code>.
+ * <p>
+ * The policy table is compiled into an immutable lookup plan when it is set, every person is merged in a
+ * single pass over the considered attributes.
+ *
+ * <br>
+ * <br>
+ * Configuration:
+ * <table border="1">
+ * <tr>
+ * <th>Property</th>
+ * <th>Description</th>
+ * <th>Required</th>
+ * <th>Default</th>
+ * </tr>
+ * <tr>
+ * <td  valign="top">attributePolicies</td>
+ * <td>Map of attribute name to the {@link AttributeMergePolicy} used for it.</td>
+ * <td valign="top">No</td>
+ * <td valign="top">empty</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">defaultPolicy</td>
+ * <td>The {@link AttributeMergePolicy} used for attributes not in <b>attributePolicies</b>.</td>
+ * <td valign="top">No</td>
+ * <td valign="top">{@link AttributeMergePolicy#ADD}</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">distinctValueEquality</td>
+ * <td>The {@link ValueEquality} used by {@link AttributeMergePolicy#ADD_DISTINCT}.</td>
+ * <td valign="top">No</td>
+ * <td valign="top">{@link ValueEquality#EXACT}</td>
+ * </tr>
+ * </table>
+ */
+public class PolicyBasedAttributeMerger extends BaseAdditiveAttributeMerger {
+    private Map<String, AttributeMergePolicy> attributePolicies = Map.of();
+
+    /**
+     * Attributes whose policy differs from the default policy, rebuilt whenever a policy changes.
+     */
+    private Map<String, AttributeMergePolicy> mergePlan = Map.of();
+
+    private AttributeMergePolicy defaultPolicy = AttributeMergePolicy.ADD;
+
+    private ValueEquality distinctValueEquality = ValueEquality.EXACT;
+
+    public PolicyBasedAttributeMerger() {
+    }
+
+    public PolicyBasedAttributeMerger(final Map<String, AttributeMergePolicy> attributePolicies,
+                                      final AttributeMergePolicy defaultPolicy) {
+        this.setAttributePolicies(attributePolicies);
+        this.setDefaultPolicy(defaultPolicy);
+    }
+
+    public Map<String, AttributeMergePolicy> getAttributePolicies() {
+        return this.attributePolicies;
+    }
+
+    /**
+     * @param attributePolicies Map of attribute name to the policy used to merge its values
+     */
+    public void setAttributePolicies(final Map<String, AttributeMergePolicy> attributePolicies) {
+        Validate.notNull(attributePolicies, "attributePolicies cannot be null");
+
+        final Map<String, AttributeMergePolicy> mergePlan = new HashMap<>(attributePolicies.size());
+        for (var policyEntry : attributePolicies.entrySet()) {
+            Validate.notNull(policyEntry.getKey(), "attributePolicies cannot contain a null attribute name");
+            Validate.notNull(policyEntry.getValue(), "attributePolicies cannot contain a null policy, for attribute %s",
+                policyEntry.getKey());
+            if (policyEntry.getValue() != this.defaultPolicy) {
+                mergePlan.put(policyEntry.getKey(), policyEntry.getValue());
+            }
+        }
+        this.attributePolicies = Map.copyOf(attributePolicies);
+        this.mergePlan = Map.copyOf(mergePlan);
+    }
+
+    public AttributeMergePolicy getDefaultPolicy() {
+        return this.defaultPolicy;
+    }
+
+    public void setDefaultPolicy(final AttributeMergePolicy defaultPolicy) {
+        Validate.notNull(defaultPolicy, "defaultPolicy cannot be null");
+        this.defaultPolicy = defaultPolicy;
+        this.setAttributePolicies(this.attributePolicies);
+    }
+
+    public ValueEquality getDistinctValueEquality() {
+        return this.distinctValueEquality;
+    }
+
+    public void setDistinctValueEquality(final ValueEquality distinctValueEquality) {
+        Validate.notNull(distinctValueEquality, "distinctValueEquality cannot be null");
+        this.distinctValueEquality = distinctValueEquality;
+    }
+
+    @Override
+    protected Map<String, List<Object>> mergePersonAttributes(final Map<String, List<Object>> toModify,
+                                                              final Map<String, List<Object>> toConsider) {
+        Validate.notNull(toModify, "toModify cannot be null");
+        Validate.notNull(toConsider, "toConsider cannot be null");
+
+        var plan = this.mergePlan;
+        for (var sourceEntry : toConsider.entrySet()) {
+            var sourceKey = sourceEntry.getKey();
+            var sourceValue = sourceEntry.getValue();
+
+            var policy = plan.isEmpty() ? this.defaultPolicy : plan.getOrDefault(sourceKey, this.defaultPolicy);
+            switch (policy) {
+                case REPLACE:
+                    toModify.put(sourceKey, sourceValue);
+                    break;
+                case NONCOLLIDING:
+                    if (!toModify.containsKey(sourceKey)) {
+                        toModify.put(sourceKey, sourceValue);
+                    }
+                    break;
+                case ADD_DISTINCT:
+                    var values = toModify.get(sourceKey);
+                    toModify.put(sourceKey, this.distinctValueEquality.distinct(values != null ? values : List.of(), sourceValue));
+                    break;
+                default:
+                    var currentValues = toModify.get(sourceKey);
+                    if (currentValues == null || currentValues.isEmpty()) {
+                        toModify.put(sourceKey, sourceValue != null ? sourceValue : new ArrayList<>(0));
+                    } else if (sourceValue != null && !sourceValue.isEmpty()) {
+                        final List<Object> mergedValues = new ArrayList<>(currentValues.size() + sourceValue.size());
+                        mergedValues.addAll(currentValues);
+                        mergedValues.addAll(sourceValue);
+                        toModify.put(sourceKey, mergedValues);
+                    }
+                    break;
+            }
+        }
+
+        return toModify;
+    }
+
+    @Override
+    protected boolean isCopyValueLists() {
+        return false;
+    }
+}
@@ -44,4 +44,9 @@ public class ReplacingAttributeAdder extends BaseAdditiveAttributeMerger {
 
         return toModify;
     }
+
+    @Override
+    protected boolean isCopyValueLists() {
+        return false;
+    }
 }
@@ -13,4 +13,9 @@ public class ReturnChangesAdditiveAttributeMerger extends BaseAdditiveAttributeM
     protected Map<String, List<Object>> mergePersonAttributes(final Map<String, List<Object>> toModify, final Map<String, List<Object>> toConsider) {
         return toConsider;
     }
+
+    @Override
+    protected boolean isCopyValueLists() {
+        return false;
+    }
 }
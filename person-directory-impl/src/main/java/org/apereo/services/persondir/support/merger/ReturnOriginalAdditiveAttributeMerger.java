@@ -13,4 +13,9 @@ public class ReturnOriginalAdditiveAttributeMerger extends BaseAdditiveAttribute
     protected Map<String, List<Object>> mergePersonAttributes(final Map<String, List<Object>> toModify, final Map<String, List<Object>> toConsider) {
         return toModify;
     }
+
+    @Override
+    protected boolean isCopyValueLists() {
+        return false;
+    }
 }
@@ -0,0 +1,55 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.merger;
+
+import org.apache.commons.lang3.Validate;
+import org.apereo.services.persondir.IPersonAttributes;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Accumulator that hands every added Set to {@link IAttributeMerger#mergeResults(Set, Set)}, used for
+ * mergers that do not provide their own {@link IAttributeMergeAccumulator}.
+ */
+class SequentialAttributeMergeAccumulator implements IAttributeMergeAccumulator {
+    private final IAttributeMerger attributeMerger;
+
+    private Set<IPersonAttributes> results;
+
+    SequentialAttributeMergeAccumulator(final IAttributeMerger attributeMerger) {
+        this.attributeMerger = attributeMerger;
+    }
+
+    @Override
+    public void add(final Set<IPersonAttributes> toConsider) {
+        Validate.notNull(toConsider, "toConsider cannot be null");
+
+        if (this.results == null) {
+            this.results = new LinkedHashSet<>(toConsider);
+        } else {
+            this.results = this.attributeMerger.mergeResults(this.results, toConsider);
+        }
+    }
+
+    @Override
+    public Set<IPersonAttributes> getResults() {
+        return this.results;
+    }
+}
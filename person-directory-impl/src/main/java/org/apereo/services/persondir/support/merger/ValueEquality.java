@@ -0,0 +1,140 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.merger;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Defines when two attribute values are considered the same value, by mapping each value to a key
+ * that can be used with hash based collections. Two values are equal if their keys are equal.
+ */
+public enum ValueEquality {
+    /**
+     * Values are compared with {@link Object#equals(Object)}.
+     */
+    EXACT {
+        @Override
+        public Object keyOf(final Object value) {
+            return value;
+        }
+    },
+
+    /**
+     * {@link String} values are compared ignoring case, other values with {@link Object#equals(Object)}.
+     */
+    CASE_INSENSITIVE {
+        @Override
+        public Object keyOf(final Object value) {
+            if (value instanceof String string) {
+                return string.toLowerCase(Locale.ROOT);
+            }
+            return value;
+        }
+    },
+
+    /**
+     * {@link String} values are compared after Unicode NFKC normalization, trimming, collapsing whitespace
+     * and ignoring case. Integral and decimal {@link Number}s are compared by numeric value regardless of
+     * their type, other values with {@link Object#equals(Object)}.
+     */
+    NORMALIZED {
+        @Override
+        public Object keyOf(final Object value) {
+            if (value instanceof String string) {
+                var normalized = Normalizer.normalize(string, Normalizer.Form.NFKC);
+                normalized = WHITESPACE.matcher(normalized.strip()).replaceAll(" ");
+                return normalized.toLowerCase(Locale.ROOT);
+            }
+            var number = toBigDecimal(value);
+            if (number != null) {
+                return number.stripTrailingZeros();
+            }
+            return value;
+        }
+    };
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    /**
+     * Convert an integral or finite decimal {@link Number} to a {@link BigDecimal}.
+     *
+     * @return the number as a BigDecimal, null if the value is not such a number
+     */
+    private static BigDecimal toBigDecimal(final Object value) {
+        if (value instanceof BigDecimal number) {
+            return number;
+        }
+        if (value instanceof BigInteger number) {
+            return new BigDecimal(number);
+        }
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return BigDecimal.valueOf(((Number) value).longValue());
+        }
+        if (value instanceof Double || value instanceof Float) {
+            var number = ((Number) value).doubleValue();
+            if (Double.isFinite(number)) {
+                return BigDecimal.valueOf(number);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Map a value to the key used to compare it with other values.
+     *
+     * @param value the attribute value, may be null
+     * @return the key of the value, may be null
+     */
+    public abstract Object keyOf(Object value);
+
+    /**
+     * Combine two lists of values into a new list without duplicates, keeping the first occurrence
+     * of each value in its original order.
+     *
+     * @param values     the first values
+     * @param moreValues the values to add, may be null
+     * @return the distinct values
+     */
+    public List<Object> distinct(final List<Object> values, final List<Object> moreValues) {
+        var size = values.size() + (moreValues != null ? moreValues.size() : 0);
+        final List<Object> result = new ArrayList<>(size);
+        final Set<Object> seen = new HashSet<>(Math.max(16, (int) (size / .75f) + 1));
+        for (var value : values) {
+            if (seen.add(this.keyOf(value))) {
+                result.add(value);
+            }
+        }
+        if (moreValues != null) {
+            for (var value : moreValues) {
+                if (seen.add(this.keyOf(value))) {
+                    result.add(value);
+                }
+            }
+        }
+        return result;
+    }
+}
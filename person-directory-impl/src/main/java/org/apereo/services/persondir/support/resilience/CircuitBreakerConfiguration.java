@@ -0,0 +1,179 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.resilience;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import java.time.Duration;
+
+/**
+ * Settings of a {@link PersonAttributeDaoCircuitBreaker}.
+ *
+ * <br>
+ * <br>
+ * Configuration:
+ * <table border="1">
+ * <tr>
+ * <th>Property</th>
+ * <th>Description</th>
+ * <th>Default</th>
+ * </tr>
+ * <tr>
+ * <td  valign="top">failureRateThreshold</td>
+ * <td>Percentage of failed calls in the sliding window at or above which the circuit opens.</td>
+ * <td valign="top">50</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">slowCallRateThreshold</td>
+ * <td>Percentage of slow calls in the sliding window at or above which the circuit opens.</td>
+ * <td valign="top">100</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">slowCallDurationThreshold</td>
+ * <td>Calls taking at least this long are slow calls.</td>
+ * <td valign="top">10 seconds</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">slidingWindowSize</td>
+ * <td>Number of most recent calls the rates are calculated over while the circuit is closed.</td>
+ * <td valign="top">20</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">minimumNumberOfCalls</td>
+ * <td>Number of calls in the sliding window needed before the rates are evaluated, at most slidingWindowSize.</td>
+ * <td valign="top">10</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">waitDurationInOpenState</td>
+ * <td>How long the circuit stays open before trial calls are permitted.</td>
+ * <td valign="top">60 seconds</td>
+ * </tr>
+ * <tr>
+ * <td  valign="top">permittedNumberOfCallsInHalfOpenState</td>
+ * <td>Number of trial calls that decide whether a half open circuit closes or opens again.</td>
+ * <td valign="top">3</td>
+ * </tr>
+ * </table>
+ */
+public class CircuitBreakerConfiguration {
+    private float failureRateThreshold = 50;
+
+    private float slowCallRateThreshold = 100;
+
+    private Duration slowCallDurationThreshold = Duration.ofSeconds(10);
+
+    private int slidingWindowSize = 20;
+
+    private int minimumNumberOfCalls = 10;
+
+    private Duration waitDurationInOpenState = Duration.ofSeconds(60);
+
+    private int permittedNumberOfCallsInHalfOpenState = 3;
+
+    public float getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    public void setFailureRateThreshold(final float failureRateThreshold) {
+        Validate.isTrue(failureRateThreshold > 0 && failureRateThreshold <= 100,
+            "failureRateThreshold must be between 0 (exclusive) and 100");
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    public float getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    public void setSlowCallRateThreshold(final float slowCallRateThreshold) {
+        Validate.isTrue(slowCallRateThreshold > 0 && slowCallRateThreshold <= 100,
+            "slowCallRateThreshold must be between 0 (exclusive) and 100");
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    public Duration getSlowCallDurationThreshold() {
+        return slowCallDurationThreshold;
+    }
+
+    public void setSlowCallDurationThreshold(final Duration slowCallDurationThreshold) {
+        Validate.notNull(slowCallDurationThreshold, "slowCallDurationThreshold cannot be null");
+        this.slowCallDurationThreshold = slowCallDurationThreshold;
+    }
+
+    public int getSlidingWindowSize() {
+        return slidingWindowSize;
+    }
+
+    public void setSlidingWindowSize(final int slidingWindowSize) {
+        Validate.isTrue(slidingWindowSize > 0, "slidingWindowSize must be greater than 0");
+        this.slidingWindowSize = slidingWindowSize;
+    }
+
+    public int getMinimumNumberOfCalls() {
+        return minimumNumberOfCalls;
+    }
+
+    public void setMinimumNumberOfCalls(final int minimumNumberOfCalls) {
+        Validate.isTrue(minimumNumberOfCalls > 0, "minimumNumberOfCalls must be greater than 0");
+        this.minimumNumberOfCalls = minimumNumberOfCalls;
+    }
+
+    public Duration getWaitDurationInOpenState() {
+        return waitDurationInOpenState;
+    }
+
+    public void setWaitDurationInOpenState(final Duration waitDurationInOpenState) {
+        Validate.notNull(waitDurationInOpenState, "waitDurationInOpenState cannot be null");
+        this.waitDurationInOpenState = waitDurationInOpenState;
+    }
+
+    public int getPermittedNumberOfCallsInHalfOpenState() {
+        return permittedNumberOfCallsInHalfOpenState;
+    }
+
+    public void setPermittedNumberOfCallsInHalfOpenState(final int permittedNumberOfCallsInHalfOpenState) {
+        Validate.isTrue(permittedNumberOfCallsInHalfOpenState > 0, "permittedNumberOfCallsInHalfOpenState must be greater than 0");
+        this.permittedNumberOfCallsInHalfOpenState = permittedNumberOfCallsInHalfOpenState;
+    }
+
+    /**
+     * Check the settings that depend on each other, the setters validate each setting on its own.
+     *
+     * @throws IllegalArgumentException if <code>minimumNumberOfCalls</code> is greater than <code>slidingWindowSize</code>,
+     *                                  the circuit could then never open
+     */
+    public void validate() {
+        Validate.isTrue(this.minimumNumberOfCalls <= this.slidingWindowSize,
+            "minimumNumberOfCalls (%s) cannot be greater than slidingWindowSize (%s)", this.minimumNumberOfCalls, this.slidingWindowSize);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+            .append("failureRateThreshold", this.failureRateThreshold)
+            .append("slowCallRateThreshold", this.slowCallRateThreshold)
+            .append("slowCallDurationThreshold", this.slowCallDurationThreshold)
+            .append("slidingWindowSize", this.slidingWindowSize)
+            .append("minimumNumberOfCalls", this.minimumNumberOfCalls)
+            .append("waitDurationInOpenState", this.waitDurationInOpenState)
+            .append("permittedNumberOfCallsInHalfOpenState", this.permittedNumberOfCallsInHalfOpenState)
+            .toString();
+    }
+}
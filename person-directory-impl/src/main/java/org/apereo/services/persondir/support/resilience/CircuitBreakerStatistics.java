@@ -0,0 +1,116 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.resilience;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import java.io.Serializable;
+
+/**
+ * Point in time snapshot of a {@link PersonAttributeDaoCircuitBreaker}. The call counts and rates cover the
+ * calls recorded since the circuit last changed state.
+ */
+public class CircuitBreakerStatistics implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+
+    private final PersonAttributeDaoCircuitBreaker.State state;
+
+    private final int bufferedCalls;
+
+    private final int failedCalls;
+
+    private final int slowCalls;
+
+    private final long notPermittedCalls;
+
+    private final float failureRate;
+
+    private final float slowCallRate;
+
+    public CircuitBreakerStatistics(final String name, final PersonAttributeDaoCircuitBreaker.State state,
+                                    final int bufferedCalls, final int failedCalls, final int slowCalls,
+                                    final long notPermittedCalls, final float failureRate, final float slowCallRate) {
+        this.name = name;
+        this.state = state;
+        this.bufferedCalls = bufferedCalls;
+        this.failedCalls = failedCalls;
+        this.slowCalls = slowCalls;
+        this.notPermittedCalls = notPermittedCalls;
+        this.failureRate = failureRate;
+        this.slowCallRate = slowCallRate;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public PersonAttributeDaoCircuitBreaker.State getState() {
+        return state;
+    }
+
+    public int getBufferedCalls() {
+        return bufferedCalls;
+    }
+
+    public int getFailedCalls() {
+        return failedCalls;
+    }
+
+    public int getSlowCalls() {
+        return slowCalls;
+    }
+
+    /**
+     * @return number of calls rejected since the circuit breaker was created or reset
+     */
+    public long getNotPermittedCalls() {
+        return notPermittedCalls;
+    }
+
+    /**
+     * @return percentage of failed calls, 0 if no calls were recorded
+     */
+    public float getFailureRate() {
+        return failureRate;
+    }
+
+    /**
+     * @return percentage of slow calls, 0 if no calls were recorded
+     */
+    public float getSlowCallRate() {
+        return slowCallRate;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+            .append("name", this.name)
+            .append("state", this.state)
+            .append("bufferedCalls", this.bufferedCalls)
+            .append("failedCalls", this.failedCalls)
+            .append("slowCalls", this.slowCalls)
+            .append("notPermittedCalls", this.notPermittedCalls)
+            .append("failureRate", this.failureRate)
+            .append("slowCallRate", this.slowCallRate)
+            .toString();
+    }
+}
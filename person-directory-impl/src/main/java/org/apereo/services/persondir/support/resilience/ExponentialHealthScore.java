@@ -0,0 +1,103 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.resilience;
+
+import org.apache.commons.lang3.Validate;
+
+import java.time.Duration;
+
+/**
+ * Exponentially weighted moving averages of the call duration and error rate of a PersonAttributeDao,
+ * combined into a single score where lower is healthier. Instances are thread-safe.
+ */
+public class ExponentialHealthScore {
+    private final double smoothingFactor;
+
+    private final long errorPenaltyNanos;
+
+    private double latencyNanos;
+
+    private double errorRate;
+
+    private long calls;
+
+    /**
+     * @param smoothingFactor weight of the most recent call, greater than 0 and at most 1
+     * @param errorPenalty    duration added to the score for an error rate of 100%
+     */
+    public ExponentialHealthScore(final double smoothingFactor, final Duration errorPenalty) {
+        Validate.isTrue(smoothingFactor > 0 && smoothingFactor <= 1, "smoothingFactor must be between 0 (exclusive) and 1");
+        Validate.notNull(errorPenalty, "errorPenalty can not be null");
+        this.smoothingFactor = smoothingFactor;
+        this.errorPenaltyNanos = errorPenalty.toNanos();
+    }
+
+    /**
+     * @param durationNanos how long the successful call took
+     */
+    public synchronized void onSuccess(final long durationNanos) {
+        update(durationNanos, 0);
+    }
+
+    /**
+     * @param durationNanos how long the failed call took
+     */
+    public synchronized void onError(final long durationNanos) {
+        update(durationNanos, 1);
+    }
+
+    private void update(final long durationNanos, final double error) {
+        if (this.calls == 0) {
+            this.latencyNanos = durationNanos;
+            this.errorRate = error;
+        } else {
+            this.latencyNanos += this.smoothingFactor * (durationNanos - this.latencyNanos);
+            this.errorRate += this.smoothingFactor * (error - this.errorRate);
+        }
+        this.calls++;
+    }
+
+    /**
+     * @return the weighted call duration in nanoseconds
+     */
+    public synchronized double getLatencyNanos() {
+        return this.latencyNanos;
+    }
+
+    /**
+     * @return the weighted error rate, between 0 and 1
+     */
+    public synchronized double getErrorRate() {
+        return this.errorRate;
+    }
+
+    /**
+     * @return the number of calls recorded
+     */
+    public synchronized long getCalls() {
+        return this.calls;
+    }
+
+    /**
+     * @return the weighted call duration plus the error penalty scaled by the error rate, 0 if no calls were recorded
+     */
+    public synchronized double getScore() {
+        return this.latencyNanos + this.errorRate * this.errorPenaltyNanos;
+    }
+}
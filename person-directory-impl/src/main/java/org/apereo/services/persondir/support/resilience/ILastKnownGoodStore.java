@@ -0,0 +1,48 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.resilience;
+
+/**
+ * Bounded local store of the last successful result of a PersonAttributeDao per query, used to answer
+ * queries while the PersonAttributeDao is unavailable. Implementations must be thread-safe and may drop
+ * entries to stay within their bounds.
+ */
+public interface ILastKnownGoodStore {
+    /**
+     * @param key   the canonical form of the query
+     * @param entry the people found and when
+     */
+    void put(String key, LastKnownGoodEntry entry);
+
+    /**
+     * @param key the canonical form of the query
+     * @return the last stored entry, null if there is none
+     */
+    LastKnownGoodEntry get(String key);
+
+    /**
+     * @param key the canonical form of the query
+     */
+    void remove(String key);
+
+    /**
+     * @return the number of entries stored
+     */
+    int size();
+}
@@ -0,0 +1,66 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.resilience;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link ILastKnownGoodStore} on the heap, evicting the least recently used entry once full.
+ */
+public class InMemoryLastKnownGoodStore implements ILastKnownGoodStore {
+    private final Map<String, LastKnownGoodEntry> entries;
+
+    /**
+     * @param maxEntries the maximum number of queries to keep results for
+     */
+    public InMemoryLastKnownGoodStore(final int maxEntries) {
+        Validate.isTrue(maxEntries > 0, "maxEntries must be greater than 0");
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, LastKnownGoodEntry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public synchronized void put(final String key, final LastKnownGoodEntry entry) {
+        this.entries.put(key, entry);
+    }
+
+    @Override
+    public synchronized LastKnownGoodEntry get(final String key) {
+        return this.entries.get(key);
+    }
+
+    @Override
+    public synchronized void remove(final String key) {
+        this.entries.remove(key);
+    }
+
+    @Override
+    public synchronized int size() {
+        return this.entries.size();
+    }
+}
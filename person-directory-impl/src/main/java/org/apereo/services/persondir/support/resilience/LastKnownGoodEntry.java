@@ -0,0 +1,58 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.resilience;
+
+import org.apereo.services.persondir.IPersonAttributes;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.Set;
+
+/**
+ * The people a PersonAttributeDao found for a query and when. Instances are immutable.
+ */
+public class LastKnownGoodEntry implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Set<IPersonAttributes> people;
+
+    private final long storedAt;
+
+    /**
+     * @param people   the people found
+     * @param storedAt when they were found, in milliseconds since the epoch
+     */
+    public LastKnownGoodEntry(final Set<IPersonAttributes> people, final long storedAt) {
+        this.people = people;
+        this.storedAt = storedAt;
+    }
+
+    public Set<IPersonAttributes> getPeople() {
+        return this.people;
+    }
+
+    public Instant getStoredAt() {
+        return Instant.ofEpochMilli(this.storedAt);
+    }
+
+    @Override
+    public String toString() {
+        return "LastKnownGoodEntry[people=" + this.people + ", storedAt=" + this.getStoredAt() + "]";
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.resilience;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the durations of the most recent calls to a PersonAttributeDao in a ring buffer to estimate
+ * latency percentiles. Instances are thread-safe.
+ */
+public class LatencyRecorder {
+    private final long[] samples;
+
+    private int index;
+
+    private int count;
+
+    /**
+     * @param size the number of most recent calls to keep
+     */
+    public LatencyRecorder(final int size) {
+        Validate.isTrue(size > 0, "size must be greater than 0");
+        this.samples = new long[size];
+    }
+
+    /**
+     * @param durationNanos how long a call took
+     */
+    public synchronized void record(final long durationNanos) {
+        this.samples[this.index] = durationNanos;
+        this.index = (this.index + 1) % this.samples.length;
+        if (this.count < this.samples.length) {
+            this.count++;
+        }
+    }
+
+    /**
+     * @return the number of calls currently kept
+     */
+    public synchronized int getCount() {
+        return this.count;
+    }
+
+    /**
+     * Get the duration that the given percentage of the recorded calls did not exceed.
+     *
+     * @param percentile the percentile, greater than 0 and at most 100
+     * @return the duration in nanoseconds, -1 if no calls were recorded
+     */
+    public long getPercentile(final double percentile) {
+        Validate.isTrue(percentile > 0 && percentile <= 100, "percentile must be between 0 (exclusive) and 100");
+
+        final long[] sorted;
+        synchronized (this) {
+            if (this.count == 0) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(this.samples, this.count);
+        }
+        Arrays.sort(sorted);
+        var rank = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(rank, 0)];
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.resilience;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.apache.commons.lang3.Validate;
+import org.apereo.services.persondir.IPersonAttributes;
+import org.apereo.services.persondir.support.json.PersonAttributesJacksonModule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * {@link ILastKnownGoodStore} in a memory-mapped file, so that entries live outside of the heap and survive
+ * restarts. The file is split in fixed size slots, a query is stored in the slot its key hashes to and replaces
+ * whatever that slot held. Results that do not fit in a slot are not stored, and remove the entry of the same query so
+ * that it is not served in their place. The people are stored as JSON written by {@link PersonAttributesJacksonModule}.
+ * <br>
+ * Each slot holds the length of the payload, the time the entry was stored, the length of the key, the key
+ * and the people. A payload length of 0 marks an empty slot.
+ * <br>
+ * The store must be closed to write its entries to the file, {@link org.apereo.services.persondir.support.LastKnownGoodPersonAttributeDao}
+ * closes its store when destroyed.
+ */
+public class MappedFileLastKnownGoodStore implements ILastKnownGoodStore, Closeable {
+    private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    private static final TypeReference<Collection<IPersonAttributes>> PEOPLE_TYPE = new TypeReference<>() {
+    };
+
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer buffer;
+
+    private final int slots;
+
+    private final int slotSize;
+
+    private final ObjectWriter writer;
+
+    private final ObjectReader reader;
+
+    private int size;
+
+    /**
+     * Open or create the store. An existing file of the same size is reused with its entries.
+     *
+     * @param file     the file to map
+     * @param slots    the number of slots, the maximum number of entries
+     * @param slotSize the size of a slot in bytes, the maximum size of an entry
+     * @throws IOException if the file can not be opened or mapped
+     */
+    public MappedFileLastKnownGoodStore(final Path file, final int slots, final int slotSize) throws IOException {
+        Validate.notNull(file, "file can not be null");
+        Validate.isTrue(slots > 0, "slots must be greater than 0");
+        Validate.isTrue(slotSize > HEADER_SIZE, "slotSize must be greater than " + HEADER_SIZE);
+        var fileSize = (long) slots * slotSize;
+        Validate.isTrue(fileSize <= Integer.MAX_VALUE, "slots * slotSize must be at most " + Integer.MAX_VALUE);
+
+        this.slots = slots;
+        this.slotSize = slotSize;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (this.channel.size() != fileSize) {
+            this.channel.truncate(0);
+        }
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+
+        var mapper = new ObjectMapper().registerModule(new PersonAttributesJacksonModule());
+        this.writer = mapper.writerFor(PEOPLE_TYPE);
+        this.reader = mapper.readerFor(PEOPLE_TYPE);
+
+        for (var slot = 0; slot < slots; slot++) {
+            if (this.buffer.getInt(slot * slotSize) > 0) {
+                this.size++;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void put(final String key, final LastKnownGoodEntry entry) {
+        var keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final byte[] peopleBytes;
+        try {
+            peopleBytes = this.writer.writeValueAsBytes(entry.getPeople());
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Failed to serialize the people of " + key, e);
+        }
+
+        var offset = this.offsetOf(key);
+        var payloadLength = keyBytes.length + peopleBytes.length;
+        if (HEADER_SIZE + payloadLength > this.slotSize) {
+            this.logger.debug("Not storing the people of {}, {} bytes do not fit in a slot of {} bytes",
+                key, HEADER_SIZE + payloadLength, this.slotSize);
+            if (this.isStoredAt(offset, keyBytes)) {
+                this.clearSlot(offset);
+            }
+            return;
+        }
+
+        if (this.buffer.getInt(offset) == 0) {
+            this.size++;
+        }
+        this.buffer.putInt(offset, 0);
+        this.buffer.putLong(offset + Integer.BYTES, entry.getStoredAt().toEpochMilli());
+        this.buffer.putInt(offset + Integer.BYTES + Long.BYTES, keyBytes.length);
+        this.buffer.put(offset + HEADER_SIZE, keyBytes);
+        this.buffer.put(offset + HEADER_SIZE + keyBytes.length, peopleBytes);
+        // Written last, so that a torn write leaves an empty slot
+        this.buffer.putInt(offset, payloadLength);
+    }
+
+    @Override
+    public synchronized LastKnownGoodEntry get(final String key) {
+        var offset = this.offsetOf(key);
+        var keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (!this.isStoredAt(offset, keyBytes)) {
+            return null;
+        }
+
+        var payloadLength = this.buffer.getInt(offset);
+        var keyLength = keyBytes.length;
+        var peopleBytes = new byte[payloadLength - keyLength];
+        this.buffer.get(offset + HEADER_SIZE + keyLength, peopleBytes);
+        final List<IPersonAttributes> people;
+        try {
+            people = this.reader.readValue(peopleBytes);
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Failed to read the people of " + key, e);
+        }
+        return new LastKnownGoodEntry(new LinkedHashSet<>(people), this.buffer.getLong(offset + Integer.BYTES));
+    }
+
+    @Override
+    public synchronized void remove(final String key) {
+        var offset = this.offsetOf(key);
+        if (this.isStoredAt(offset, key.getBytes(StandardCharsets.UTF_8))) {
+            this.clearSlot(offset);
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Write the entries to the file and close it. Closing an already closed store does nothing.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!this.channel.isOpen()) {
+            return;
+        }
+        this.buffer.force();
+        this.channel.close();
+    }
+
+    private int offsetOf(final String key) {
+        return Math.floorMod(key.hashCode(), this.slots) * this.slotSize;
+    }
+
+    private boolean isStoredAt(final int offset, final byte[] keyBytes) {
+        var payloadLength = this.buffer.getInt(offset);
+        var keyLength = this.buffer.getInt(offset + Integer.BYTES + Long.BYTES);
+        if (payloadLength <= 0 || keyLength != keyBytes.length || keyLength > payloadLength) {
+            return false;
+        }
+        var storedKey = new byte[keyLength];
+        this.buffer.get(offset + HEADER_SIZE, storedKey);
+        return Arrays.equals(storedKey, keyBytes);
+    }
+
+    private void clearSlot(final int offset) {
+        if (this.buffer.getInt(offset) > 0) {
+            this.size--;
+        }
+        this.buffer.putInt(offset, 0);
+    }
+}
@@ -0,0 +1,255 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.resilience;
+
+import org.apache.commons.lang3.Validate;
+
+import java.time.Clock;
+
+/**
+ * Circuit breaker guarding calls to a single PersonAttributeDao.
+ * <p>
+ * While <b>CLOSED</b> the outcome of the most recent calls is kept in a count based sliding window. Once the
+ * window holds <code>minimumNumberOfCalls</code> and the failure rate or slow call rate reaches its threshold the
+ * circuit <b>OPEN</b>s and calls are rejected without being attempted. After <code>waitDurationInOpenState</code>
+ * the circuit becomes <b>HALF_OPEN</b> and permits a limited number of trial calls, their outcome either closes
+ * the circuit again or re-opens it.
+ * <p>
+ * Callers ask for permission with {@link #tryAcquirePermission()} and report every permitted call with
+ * {@link #onSuccess(long)} or {@link #onError(long)}. Instances are thread-safe.
+ * <p>
+ * The settings of the {@link CircuitBreakerConfiguration} are copied when the circuit breaker is created, later
+ * changes to the configuration only apply to circuit breakers created after them.
+ */
+public class PersonAttributeDaoCircuitBreaker {
+    /**
+     * States of a circuit breaker.
+     */
+    public enum State {
+        /**
+         * Calls are permitted and their outcome is recorded.
+         */
+        CLOSED,
+
+        /**
+         * Calls are rejected.
+         */
+        OPEN,
+
+        /**
+         * A limited number of trial calls is permitted.
+         */
+        HALF_OPEN
+    }
+
+    private static final byte FAILED = 1;
+
+    private static final byte SLOW = 2;
+
+    private final String name;
+
+    private final float failureRateThreshold;
+
+    private final float slowCallRateThreshold;
+
+    private final long slowCallDurationNanos;
+
+    private final int slidingWindowSize;
+
+    private final int minimumNumberOfCalls;
+
+    private final long waitDurationInOpenStateMillis;
+
+    private final int permittedNumberOfCallsInHalfOpenState;
+
+    private final byte[] window;
+
+    private Clock clock = Clock.systemUTC();
+
+    private State state = State.CLOSED;
+
+    private int windowIndex;
+
+    private int bufferedCalls;
+
+    private int failedCalls;
+
+    private int slowCalls;
+
+    private int halfOpenPermits;
+
+    private long openedAt;
+
+    private long notPermittedCalls;
+
+    /**
+     * @param name          Name of the circuit breaker, used in its statistics
+     * @param configuration Settings of the circuit breaker, copied by the constructor
+     * @throws IllegalArgumentException if the configuration is not consistent
+     * @see CircuitBreakerConfiguration#validate()
+     */
+    public PersonAttributeDaoCircuitBreaker(final String name, final CircuitBreakerConfiguration configuration) {
+        Validate.notNull(configuration, "configuration cannot be null");
+        configuration.validate();
+        this.name = name;
+        this.failureRateThreshold = configuration.getFailureRateThreshold();
+        this.slowCallRateThreshold = configuration.getSlowCallRateThreshold();
+        this.slowCallDurationNanos = configuration.getSlowCallDurationThreshold().toNanos();
+        this.slidingWindowSize = configuration.getSlidingWindowSize();
+        this.minimumNumberOfCalls = configuration.getMinimumNumberOfCalls();
+        this.waitDurationInOpenStateMillis = configuration.getWaitDurationInOpenState().toMillis();
+        this.permittedNumberOfCallsInHalfOpenState = configuration.getPermittedNumberOfCallsInHalfOpenState();
+        this.window = new byte[Math.max(this.slidingWindowSize, this.permittedNumberOfCallsInHalfOpenState)];
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param clock Clock used to time the open state, defaults to the UTC system clock
+     */
+    public synchronized void setClock(final Clock clock) {
+        Validate.notNull(clock, "clock cannot be null");
+        this.clock = clock;
+    }
+
+    public synchronized State getState() {
+        return this.state;
+    }
+
+    /**
+     * Ask whether a call may be attempted. Every permitted call must be reported through {@link #onSuccess(long)}
+     * or {@link #onError(long)}.
+     *
+     * @return true if the call may be attempted, false if it must be rejected
+     */
+    public synchronized boolean tryAcquirePermission() {
+        if (this.state == State.OPEN) {
+            if (this.clock.millis() - this.openedAt < this.waitDurationInOpenStateMillis) {
+                this.notPermittedCalls++;
+                return false;
+            }
+            this.transitionTo(State.HALF_OPEN);
+        }
+
+        if (this.state == State.HALF_OPEN) {
+            if (this.halfOpenPermits <= 0) {
+                this.notPermittedCalls++;
+                return false;
+            }
+            this.halfOpenPermits--;
+        }
+
+        return true;
+    }
+
+    /**
+     * Record a permitted call that returned normally.
+     *
+     * @param durationNanos how long the call took
+     */
+    public synchronized void onSuccess(final long durationNanos) {
+        this.record(durationNanos >= this.slowCallDurationNanos ? SLOW : 0);
+    }
+
+    /**
+     * Record a permitted call that failed.
+     *
+     * @param durationNanos how long the call took
+     */
+    public synchronized void onError(final long durationNanos) {
+        this.record((byte) (FAILED | (durationNanos >= this.slowCallDurationNanos ? SLOW : 0)));
+    }
+
+    /**
+     * Move the circuit back to the closed state and forget all recorded calls.
+     */
+    public synchronized void reset() {
+        this.transitionTo(State.CLOSED);
+        this.notPermittedCalls = 0;
+    }
+
+    /**
+     * @return a snapshot of the state and counters of this circuit breaker
+     */
+    public synchronized CircuitBreakerStatistics getStatistics() {
+        return new CircuitBreakerStatistics(this.name, this.state, this.bufferedCalls, this.failedCalls, this.slowCalls,
+            this.notPermittedCalls, this.getFailureRate(), this.getSlowCallRate());
+    }
+
+    private void record(final byte outcome) {
+        if (this.state == State.OPEN) {
+            return;
+        }
+
+        var windowSize = this.state == State.HALF_OPEN
+            ? this.permittedNumberOfCallsInHalfOpenState
+            : this.slidingWindowSize;
+        if (this.bufferedCalls == windowSize) {
+            var evicted = this.window[this.windowIndex];
+            this.failedCalls -= evicted & FAILED;
+            this.slowCalls -= (evicted & SLOW) >> 1;
+        } else {
+            this.bufferedCalls++;
+        }
+        this.window[this.windowIndex] = outcome;
+        this.windowIndex = (this.windowIndex + 1) % windowSize;
+        this.failedCalls += outcome & FAILED;
+        this.slowCalls += (outcome & SLOW) >> 1;
+
+        if (this.state == State.HALF_OPEN) {
+            if (this.bufferedCalls == windowSize) {
+                this.transitionTo(this.isThresholdReached() ? State.OPEN : State.CLOSED);
+            }
+        } else if (this.bufferedCalls >= this.minimumNumberOfCalls && this.isThresholdReached()) {
+            this.transitionTo(State.OPEN);
+        }
+    }
+
+    private boolean isThresholdReached() {
+        return this.getFailureRate() >= this.failureRateThreshold
+               || this.getSlowCallRate() >= this.slowCallRateThreshold;
+    }
+
+    private float getFailureRate() {
+        return this.bufferedCalls == 0 ? 0 : this.failedCalls * 100f / this.bufferedCalls;
+    }
+
+    private float getSlowCallRate() {
+        return this.bufferedCalls == 0 ? 0 : this.slowCalls * 100f / this.bufferedCalls;
+    }
+
+    private void transitionTo(final State newState) {
+        this.state = newState;
+        this.windowIndex = 0;
+        this.bufferedCalls = 0;
+        this.failedCalls = 0;
+        this.slowCalls = 0;
+        this.halfOpenPermits = newState == State.HALF_OPEN ? this.permittedNumberOfCallsInHalfOpenState : 0;
+        if (newState == State.OPEN) {
+            this.openedAt = this.clock.millis();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.getStatistics().toString();
+    }
+}
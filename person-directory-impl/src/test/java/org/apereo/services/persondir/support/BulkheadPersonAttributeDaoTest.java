@@ -0,0 +1,155 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support;
+
+import org.apereo.services.persondir.IPersonAttributeDao;
+import org.apereo.services.persondir.IPersonAttributeDaoFilter;
+import org.apereo.services.persondir.IPersonAttributes;
+import org.apereo.services.persondir.support.resilience.BulkheadFullException;
+import org.apereo.services.persondir.util.Util;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Testcase for the BulkheadPersonAttributeDao.
+ */
+public class BulkheadPersonAttributeDaoTest {
+
+    @Test
+    public void testBulkhead() throws Exception {
+        var entered = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var blockingSource = new StubPersonAttributeDao(Map.of("shirtColor", Util.list("blue"))) {
+            @Override
+            public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query,
+                                                                             final IPersonAttributeDaoFilter filter,
+                                                                             final Set<IPersonAttributes> resultPeople) {
+                entered.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getPeopleWithMultivaluedAttributes(query, filter, resultPeople);
+            }
+        };
+
+        var bulkhead = new BulkheadPersonAttributeDao(blockingSource);
+        bulkhead.setMaxConcurrentCalls(1);
+        final Map<String, List<Object>> query = Map.of("username", Util.list("awp9"));
+
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            var blocked = executor.submit(() -> bulkhead.getPeopleWithMultivaluedAttributes(query));
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+            assertEquals(1, bulkhead.getInFlightCalls());
+
+            assertThrows(BulkheadFullException.class, () -> bulkhead.getPeopleWithMultivaluedAttributes(query));
+
+            bulkhead.setMaxWaitDuration(Duration.ofMillis(20));
+            assertThrows(BulkheadFullException.class, () -> bulkhead.getPeopleWithMultivaluedAttributes(query));
+            bulkhead.setMaxQueueDepth(0);
+            assertThrows(BulkheadFullException.class, () -> bulkhead.getPeopleWithMultivaluedAttributes(query));
+            assertEquals(3, bulkhead.getRejectedCalls());
+            assertEquals(0, bulkhead.getQueueDepth());
+
+            // A rejected child is recovered from by the aggregators
+            var fallback = new StubPersonAttributeDao(Map.of("tieColor", Util.list("black")));
+            var merging = new MergingPersonAttributeDaoImpl();
+            merging.setPersonAttributeDaos(List.<IPersonAttributeDao>of(bulkhead, fallback));
+            var people = merging.getPeopleWithMultivaluedAttributes(query);
+            assertEquals(Map.of("tieColor", Util.list("black")), people.iterator().next().getAttributes());
+            assertEquals(4, bulkhead.getRejectedCalls());
+
+            release.countDown();
+            assertEquals(Util.list("blue"), blocked.get().iterator().next().getAttributeValues("shirtColor"));
+            assertEquals(0, bulkhead.getInFlightCalls());
+            assertEquals(1, bulkhead.getPermittedCalls());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testChangeMaxConcurrentCalls() throws Exception {
+        var entered = new Semaphore(0);
+        var release = new CountDownLatch(1);
+        var blockingSource = new StubPersonAttributeDao(Map.of("shirtColor", Util.list("blue"))) {
+            @Override
+            public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query,
+                                                                             final IPersonAttributeDaoFilter filter,
+                                                                             final Set<IPersonAttributes> resultPeople) {
+                if (query.containsKey("block")) {
+                    entered.release();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.getPeopleWithMultivaluedAttributes(query, filter, resultPeople);
+            }
+        };
+
+        var bulkhead = new BulkheadPersonAttributeDao(blockingSource);
+        bulkhead.setMaxConcurrentCalls(1);
+        final Map<String, List<Object>> blockingQuery = Map.of("username", Util.list("awp9"), "block", Util.list("true"));
+        final Map<String, List<Object>> query = Map.of("username", Util.list("awp9"));
+
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            var first = executor.submit(() -> bulkhead.getPeopleWithMultivaluedAttributes(blockingQuery));
+            assertTrue(entered.tryAcquire(10, TimeUnit.SECONDS));
+            assertThrows(BulkheadFullException.class, () -> bulkhead.getPeopleWithMultivaluedAttributes(query));
+
+            // Raising the limit frees a slot next to the running query
+            bulkhead.setMaxConcurrentCalls(2);
+            var second = executor.submit(() -> bulkhead.getPeopleWithMultivaluedAttributes(blockingQuery));
+            assertTrue(entered.tryAcquire(10, TimeUnit.SECONDS));
+            assertEquals(2, bulkhead.getInFlightCalls());
+
+            // Lowering the limit counts the running queries against it
+            bulkhead.setMaxConcurrentCalls(1);
+            assertEquals(2, bulkhead.getInFlightCalls());
+            assertThrows(BulkheadFullException.class, () -> bulkhead.getPeopleWithMultivaluedAttributes(query));
+
+            release.countDown();
+            first.get();
+            second.get();
+            assertEquals(0, bulkhead.getInFlightCalls());
+            assertEquals(Util.list("blue"), bulkhead.getPeopleWithMultivaluedAttributes(query).iterator().next().getAttributeValues("shirtColor"));
+            assertEquals(3, bulkhead.getPermittedCalls());
+            assertEquals(2, bulkhead.getRejectedCalls());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+}
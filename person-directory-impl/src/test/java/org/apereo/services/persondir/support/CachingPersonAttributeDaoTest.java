@@ -18,7 +18,9 @@
  */
 package org.apereo.services.persondir.support;
 
+import org.apereo.services.persondir.IPersonAttributeDaoFilter;
 import org.apereo.services.persondir.IPersonAttributes;
+import org.apereo.services.persondir.mock.ThrowingPersonAttributeDao;
 import org.apereo.services.persondir.support.cache.AttributeBasedCacheKeyGenerator;
 import org.apereo.services.persondir.util.Util;
 import org.junit.jupiter.api.AfterEach;
@@ -26,12 +28,14 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.Serializable;
+import java.time.Duration;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -401,4 +405,165 @@ public class CachingPersonAttributeDaoTest extends AbstractDefaultQueryPersonAtt
 
         return dao;
     }
+
+    @Test
+    public void testMemoizedMetadata() {
+        var calls = new AtomicInteger();
+        var countingDao = new StubPersonAttributeDao(Map.of("phone", Util.list("777-7777"))) {
+            @Override
+            public Set<String> getAvailableQueryAttributes(final IPersonAttributeDaoFilter filter) {
+                calls.incrementAndGet();
+                return new HashSet<>(Set.of(defaultAttr));
+            }
+        };
+
+        var dao = new CachingPersonAttributeDaoImpl();
+        dao.setCachedPersonAttributesDao(countingDao);
+        dao.setMemoizeMetadata(true);
+
+        var filter = IPersonAttributeDaoFilter.alwaysChoose();
+        assertEquals(Set.of(defaultAttr), dao.getAvailableQueryAttributes(filter));
+        assertEquals(Set.of(defaultAttr), dao.getAvailableQueryAttributes(filter));
+        assertThrows(UnsupportedOperationException.class, () -> dao.getAvailableQueryAttributes(filter).clear());
+        assertEquals(1, calls.get());
+
+        dao.clearMetadataCache();
+        dao.getAvailableQueryAttributes(filter);
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testIncompleteResults() {
+        var calls = new AtomicInteger();
+        var countingDao = new StubPersonAttributeDao(Map.of("phone", Util.list("777-7777"))) {
+            @Override
+            public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query,
+                                                                             final IPersonAttributeDaoFilter filter,
+                                                                             final Set<IPersonAttributes> resultPeople) {
+                calls.incrementAndGet();
+                return super.getPeopleWithMultivaluedAttributes(query, filter, resultPeople);
+            }
+        };
+        var mergingDao = new MergingPersonAttributeDaoImpl();
+        mergingDao.setPersonAttributeDaos(List.of(countingDao, new ThrowingPersonAttributeDao()));
+
+        final Map<Serializable, Set<IPersonAttributes>> cacheMap = new HashMap<>();
+        var dao = new CachingPersonAttributeDaoImpl();
+        dao.setCachedPersonAttributesDao(mergingDao);
+        dao.setUserInfoCache(cacheMap);
+        dao.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider(defaultAttr));
+        dao.afterPropertiesSet();
+
+        final Map<String, List<Object>> query = Map.of(defaultAttr, Util.list("edalquist"));
+        var people = dao.getPeopleWithMultivaluedAttributes(query);
+        assertEquals(people, dao.getPeopleWithMultivaluedAttributes(query));
+        assertEquals(1, calls.get());
+        assertTrue(cacheMap.isEmpty());
+
+        dao.setIncompleteResultsTimeToLive(Duration.ZERO);
+        dao.getPeopleWithMultivaluedAttributes(query);
+        dao.getPeopleWithMultivaluedAttributes(query);
+        assertEquals(3, calls.get());
+        assertTrue(cacheMap.isEmpty());
+
+        mergingDao.setPersonAttributeDaos(List.of(countingDao));
+        dao.getPeopleWithMultivaluedAttributes(query);
+        dao.getPeopleWithMultivaluedAttributes(query);
+        assertEquals(4, calls.get());
+        assertEquals(1, cacheMap.size());
+    }
+
+    @Test
+    public void testIncompleteResultsOfWrappedAggregator() {
+        var calls = new AtomicInteger();
+        var countingDao = new StubPersonAttributeDao(Map.of("phone", Util.list("777-7777"))) {
+            @Override
+            public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query,
+                                                                             final IPersonAttributeDaoFilter filter,
+                                                                             final Set<IPersonAttributes> resultPeople) {
+                calls.incrementAndGet();
+                return super.getPeopleWithMultivaluedAttributes(query, filter, resultPeople);
+            }
+        };
+        var mergingDao = new MergingPersonAttributeDaoImpl();
+        mergingDao.setPersonAttributeDaos(List.of(countingDao, new ThrowingPersonAttributeDao()));
+        var lastKnownGoodDao = new LastKnownGoodPersonAttributeDao(mergingDao);
+        var bulkheadDao = new BulkheadPersonAttributeDao();
+        bulkheadDao.setBulkheadedPersonAttributeDao(lastKnownGoodDao);
+
+        final Map<Serializable, Set<IPersonAttributes>> cacheMap = new HashMap<>();
+        var dao = new CachingPersonAttributeDaoImpl();
+        dao.setCachedPersonAttributesDao(bulkheadDao);
+        dao.setUserInfoCache(cacheMap);
+        dao.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider(defaultAttr));
+        dao.afterPropertiesSet();
+
+        final Map<String, List<Object>> query = Map.of(defaultAttr, Util.list("edalquist"));
+        var people = dao.getPeopleWithMultivaluedAttributes(query);
+        assertEquals(Util.list("777-7777"), people.iterator().next().getAttributeValues("phone"));
+        assertEquals(people, dao.getPeopleWithMultivaluedAttributes(query));
+        assertEquals(1, calls.get());
+        assertTrue(cacheMap.isEmpty());
+        // Incomplete results are not remembered as last known good either
+        assertEquals(0, lastKnownGoodDao.getLastKnownGoodStore().size());
+    }
+
+    /**
+     * Test that people served from a last known good store are kept in the short-lived cache of incomplete
+     * results, so that the live source is queried again once it recovers.
+     */
+    @Test
+    public void testLastKnownGoodResults() throws Exception {
+        var calls = new AtomicInteger();
+        var failing = new boolean[1];
+        var source = new StubPersonAttributeDao(Map.of("phone", Util.list("777-7777"))) {
+            @Override
+            public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query,
+                                                                             final IPersonAttributeDaoFilter filter,
+                                                                             final Set<IPersonAttributes> resultPeople) {
+                calls.incrementAndGet();
+                if (failing[0]) {
+                    throw new IllegalStateException("source is down");
+                }
+                return super.getPeopleWithMultivaluedAttributes(query, filter, resultPeople);
+            }
+        };
+        var lastKnownGoodDao = new LastKnownGoodPersonAttributeDao(source);
+        var mergingDao = new MergingPersonAttributeDaoImpl();
+        mergingDao.setPersonAttributeDaos(List.of(lastKnownGoodDao));
+
+        final Map<Serializable, Set<IPersonAttributes>> cacheMap = new HashMap<>();
+        var dao = new CachingPersonAttributeDaoImpl();
+        dao.setCachedPersonAttributesDao(mergingDao);
+        dao.setUserInfoCache(cacheMap);
+        dao.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider(defaultAttr));
+        dao.setIncompleteResultsTimeToLive(Duration.ofMillis(200));
+        dao.afterPropertiesSet();
+
+        final Map<String, List<Object>> query = Map.of(defaultAttr, Util.list("edalquist"));
+        dao.getPeopleWithMultivaluedAttributes(query);
+        assertEquals(1, cacheMap.size());
+        dao.removeUserAttributesMultivaluedSeed(query);
+
+        failing[0] = true;
+        var outcomes = mergingDao.getPeopleWithOutcomes(query, null, null);
+        assertFalse(outcomes.isComplete());
+        assertEquals(PersonAttributeDaoOutcome.Status.STALE, outcomes.getOutcomes().get(0).getStatus());
+        assertEquals(2, calls.get());
+
+        var stale = dao.getPeopleWithMultivaluedAttributes(query);
+        assertEquals(Util.list("777-7777"), stale.iterator().next().getAttributeValues("phone"));
+        assertEquals(stale, dao.getPeopleWithMultivaluedAttributes(query));
+        assertEquals(3, calls.get());
+        assertTrue(cacheMap.isEmpty());
+
+        // The source recovered, once the stale results expire it is queried again
+        failing[0] = false;
+        Thread.sleep(300);
+        dao.getPeopleWithMultivaluedAttributes(query);
+        dao.getPeopleWithMultivaluedAttributes(query);
+        assertEquals(4, calls.get());
+        assertEquals(1, cacheMap.size());
+        assertFalse(StalePersonImpl.isAnyStale(cacheMap.values().iterator().next()));
+    }
 }
@@ -18,7 +18,10 @@
  */
 package org.apereo.services.persondir.support;
 
+import org.apereo.services.persondir.IBatchPersonAttributeDao;
 import org.apereo.services.persondir.IPersonAttributeDao;
+import org.apereo.services.persondir.IPersonAttributeDaoFilter;
+import org.apereo.services.persondir.IPersonAttributes;
 import org.apereo.services.persondir.mock.ThrowingPersonAttributeDao;
 import org.apereo.services.persondir.support.merger.MultivaluedAttributeMerger;
 import org.apereo.services.persondir.util.Util;
@@ -27,8 +30,12 @@ import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -207,6 +214,167 @@ public class CascadingPersonAttributeDaoTest
         assertNull(results);
     }
 
+    @Test
+    public void testRouteByQueryAttributes() {
+        var calls = new AtomicInteger();
+        var uidSource = new StubPersonAttributeDao(Map.of("uid", Util.list("u1"))) {
+            @Override
+            public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query,
+                                                                             final IPersonAttributeDaoFilter filter,
+                                                                             final Set<IPersonAttributes> resultPeople) {
+                calls.incrementAndGet();
+                return super.getPeopleWithMultivaluedAttributes(query, filter, resultPeople);
+            }
+
+            @Override
+            public Set<String> getAvailableQueryAttributes(final IPersonAttributeDaoFilter filter) {
+                return Set.of("uid");
+            }
+        };
+        assertEquals(Set.of("studentId"), this.sourceTwo.getAvailableQueryAttributes(IPersonAttributeDaoFilter.alwaysChoose()));
+
+        var namesBuilt = new AtomicInteger();
+        var targetDao = new CascadingPersonAttributeDao() {
+            @Override
+            protected Set<String> getQueryAttributeNames(final Map<String, List<Object>> seed, final boolean isFirstQuery,
+                                                         final Set<IPersonAttributes> resultPeople) {
+                namesBuilt.incrementAndGet();
+                return super.getQueryAttributeNames(seed, isFirstQuery, resultPeople);
+            }
+        };
+        targetDao.setPersonAttributeDaos(List.of(this.sourceTwo, this.sourceOne, uidSource, this.sourceTwo));
+        targetDao.setMerger(new MultivaluedAttributeMerger());
+        targetDao.setRouteByQueryAttributes(true);
+
+        var results = targetDao.getPerson("edalquist");
+
+        final Map<String, List<Object>> expected = new HashMap<>();
+        expected.put("username", Util.list("edalquist"));
+        expected.put("studentId", Util.list("123456789"));
+        expected.put("major", Util.list("CS"));
+        expected.put("phone", Util.list("777-7777", "777-7777x777"));
+        assertEquals(expected, results.getAttributes());
+        assertEquals(0, calls.get());
+        // Built for the seed, and again only when the results changed, not for every child
+        assertEquals(3, namesBuilt.get());
+
+        targetDao.setRouteByQueryAttributes(false);
+        targetDao.getPeopleWithMultivaluedAttributes(Map.of("username", Util.list("edalquist")));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testBatchedChildQuery() {
+        var batchingSource = new BatchingComplexStubPersonAttributeDao();
+        batchingSource.setBackingMap(this.sourceTwo.getBackingMap());
+        batchingSource.setQueryAttributeName("studentId");
+        batchingSource.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider("username"));
+
+        var serialDao = new CascadingPersonAttributeDao();
+        serialDao.setPersonAttributeDaos(List.of(allPeopleSource(), this.sourceTwo));
+        var expected = serialDao.getPeople(Map.of("username", "edalquist"));
+        assertEquals(3, expected.size());
+
+        var targetDao = new CascadingPersonAttributeDao();
+        targetDao.setPersonAttributeDaos(List.of(allPeopleSource(), batchingSource));
+        var results = targetDao.getPeople(Map.of("username", "edalquist"));
+
+        assertEquals(1, batchingSource.batches);
+        assertEquals(attributesByName(expected), attributesByName(results));
+    }
+
+    @Test
+    public void testBatchedWrappedChildQuery() throws Exception {
+        var batchingSource = new BatchingComplexStubPersonAttributeDao();
+        batchingSource.setBackingMap(this.sourceTwo.getBackingMap());
+        batchingSource.setQueryAttributeName("studentId");
+        batchingSource.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider("username"));
+
+        var cachingDao = new CachingPersonAttributeDaoImpl();
+        cachingDao.setCachedPersonAttributesDao(new BulkheadPersonAttributeDao(new LastKnownGoodPersonAttributeDao(batchingSource)));
+        cachingDao.setUserInfoCache(new HashMap<>());
+        cachingDao.afterPropertiesSet();
+
+        var serialDao = new CascadingPersonAttributeDao();
+        serialDao.setPersonAttributeDaos(List.of(allPeopleSource(), this.sourceTwo));
+        var expected = serialDao.getPeople(Map.of("username", "edalquist"));
+
+        var targetDao = new CascadingPersonAttributeDao();
+        targetDao.setPersonAttributeDaos(List.of(allPeopleSource(), cachingDao));
+        assertEquals(attributesByName(expected), attributesByName(targetDao.getPeople(Map.of("username", "edalquist"))));
+        assertEquals(1, batchingSource.batches);
+
+        // Answered from the cache
+        assertEquals(attributesByName(expected), attributesByName(targetDao.getPeople(Map.of("username", "edalquist"))));
+        assertEquals(1, batchingSource.batches);
+    }
+
+    @Test
+    public void testConcurrentChildQueries() throws Exception {
+        var serialDao = new CascadingPersonAttributeDao();
+        serialDao.setPersonAttributeDaos(List.of(allPeopleSource(), this.sourceTwo));
+        var expected = serialDao.getPeople(Map.of("username", "edalquist"));
+
+        var executorService = Executors.newFixedThreadPool(3);
+        try {
+            var targetDao = new CascadingPersonAttributeDao();
+            targetDao.setPersonAttributeDaos(List.of(allPeopleSource(), this.sourceTwo));
+            targetDao.setExecutorService(executorService);
+            var results = targetDao.getPeople(Map.of("username", "edalquist"));
+            assertEquals(attributesByName(expected), attributesByName(results));
+
+            targetDao.setPersonAttributeDaos(List.of(allPeopleSource(), new ThrowingPersonAttributeDao()));
+            targetDao.setRecoverExceptions(false);
+            var exception = assertThrows(RuntimeException.class, () -> targetDao.getPeople(Map.of("username", "edalquist")));
+            assertEquals("ThrowingPersonAttributeDao always throws", exception.getMessage());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Source that returns every person of sourceOne for any query.
+     */
+    private IPersonAttributeDao allPeopleSource() {
+        return new StubPersonAttributeDao() {
+            @Override
+            public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query,
+                                                                             final IPersonAttributeDaoFilter filter,
+                                                                             final Set<IPersonAttributes> resultPeople) {
+                final Set<IPersonAttributes> people = new LinkedHashSet<>();
+                for (var userName : sourceOne.getBackingMap().keySet()) {
+                    people.add(sourceOne.getPerson(userName));
+                }
+                return people;
+            }
+        };
+    }
+
+    private static Map<String, Map<String, List<Object>>> attributesByName(final Set<IPersonAttributes> people) {
+        final Map<String, Map<String, List<Object>>> attributes = new HashMap<>();
+        for (var person : people) {
+            attributes.put(person.getName(), person.getAttributes());
+        }
+        return attributes;
+    }
+
+    private static class BatchingComplexStubPersonAttributeDao extends ComplexStubPersonAttributeDao
+        implements IBatchPersonAttributeDao {
+        private int batches;
+
+        @Override
+        public List<Set<IPersonAttributes>> getBatchedPeopleWithMultivaluedAttributes(final List<Map<String, List<Object>>> queries,
+                                                                                     final IPersonAttributeDaoFilter filter,
+                                                                                     final Set<IPersonAttributes> resultPeople) {
+            this.batches++;
+            final List<Set<IPersonAttributes>> results = new ArrayList<>();
+            for (var query : queries) {
+                results.add(this.getPeopleWithMultivaluedAttributes(query, filter, resultPeople));
+            }
+            return results;
+        }
+    }
+
     @Override
     protected AbstractAggregatingDefaultQueryPersonAttributeDao getConfiguredAbstractAggregatingDefaultQueryPersonAttributeDao() {
         final List<IPersonAttributeDao> attributeSources = new ArrayList<>();
@@ -0,0 +1,194 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support;
+
+import org.apereo.services.persondir.IBatchPersonAttributeDao;
+import org.apereo.services.persondir.IPersonAttributeDaoFilter;
+import org.apereo.services.persondir.IPersonAttributes;
+import org.apereo.services.persondir.support.resilience.CallNotPermittedException;
+import org.apereo.services.persondir.support.resilience.CircuitBreakerConfiguration;
+import org.apereo.services.persondir.support.resilience.InMemoryLastKnownGoodStore;
+import org.apereo.services.persondir.util.Util;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Testcase for the LastKnownGoodPersonAttributeDao.
+ */
+public class LastKnownGoodPersonAttributeDaoTest {
+
+    @Test
+    public void testLastKnownGood() {
+        var failing = new boolean[1];
+        var source = new StubPersonAttributeDao(Map.of("shirtColor", Util.list("blue"))) {
+            @Override
+            public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query,
+                                                                             final IPersonAttributeDaoFilter filter,
+                                                                             final Set<IPersonAttributes> resultPeople) {
+                if (failing[0]) {
+                    throw new IllegalStateException("source is down");
+                }
+                return super.getPeopleWithMultivaluedAttributes(query, filter, resultPeople);
+            }
+        };
+
+        var dao = new LastKnownGoodPersonAttributeDao(source);
+        dao.setStaleAttributeName("stale");
+        final Map<String, List<Object>> query = Map.of("username", Util.list("awp9"));
+
+        var live = dao.getPeopleWithMultivaluedAttributes(query).iterator().next();
+        assertFalse(StalePersonImpl.isStale(live));
+        assertEquals(1, dao.getLastKnownGoodStore().size());
+
+        failing[0] = true;
+        var stale = dao.getPeopleWithMultivaluedAttributes(query).iterator().next();
+        assertTrue(StalePersonImpl.isStale(stale));
+        assertEquals(Util.list("blue"), stale.getAttributeValues("shirtColor"));
+        assertNotNull(stale.getAttributeValue("stale"));
+        assertThrows(IllegalStateException.class,
+            () -> dao.getPeopleWithMultivaluedAttributes(Map.of("username", Util.list("edalquist"))));
+        assertEquals(2, dao.getFailedCalls());
+        assertEquals(1, dao.getFallbackHits());
+        assertEquals(0.5, dao.getFallbackHitRate(), 0.0001);
+
+        dao.setMaxStaleness(Duration.ofMillis(-1));
+        assertThrows(IllegalStateException.class, () -> dao.getPeopleWithMultivaluedAttributes(query));
+        dao.setMaxStaleness(null);
+
+        // Once open the circuit is answered from the store without calling the source
+        var configuration = new CircuitBreakerConfiguration();
+        configuration.setMinimumNumberOfCalls(1);
+        configuration.setSlidingWindowSize(1);
+        dao.setCircuitBreakerConfiguration(configuration);
+        assertTrue(StalePersonImpl.isStale(dao.getPeopleWithMultivaluedAttributes(query).iterator().next()));
+        failing[0] = false;
+        assertTrue(StalePersonImpl.isStale(dao.getPeopleWithMultivaluedAttributes(query).iterator().next()));
+        assertThrows(CallNotPermittedException.class,
+            () -> dao.getPeopleWithMultivaluedAttributes(Map.of("username", Util.list("edalquist"))));
+    }
+
+    @Test
+    public void testQueryKeys() {
+        var failing = new boolean[1];
+        var shirt = new StubPersonAttributeDao(Map.of("shirtColor", Util.list("blue"))) {
+            @Override
+            public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query,
+                                                                             final IPersonAttributeDaoFilter filter,
+                                                                             final Set<IPersonAttributes> resultPeople) {
+                if (failing[0]) {
+                    throw new IllegalStateException("source is down");
+                }
+                return super.getPeopleWithMultivaluedAttributes(query, filter, resultPeople);
+            }
+        };
+        var tie = new StubPersonAttributeDao(Map.of("tieColor", Util.list("black")));
+        var merging = new MergingPersonAttributeDaoImpl();
+        merging.setPersonAttributeDaos(List.of(shirt, tie));
+        merging.setRecoverExceptions(false);
+        var dao = new LastKnownGoodPersonAttributeDao(merging);
+
+        // Queries with the same toString and values of different types are stored apart
+        dao.getPeopleWithMultivaluedAttributes(Map.of("username", Util.list("awp9, edalquist")));
+        dao.getPeopleWithMultivaluedAttributes(Map.of("username", Util.list("awp9", "edalquist")));
+        dao.getPeopleWithMultivaluedAttributes(Map.of("username", Util.list("1")));
+        dao.getPeopleWithMultivaluedAttributes(Map.of("username", Util.list(1)));
+        assertEquals(4, dao.getLastKnownGoodStore().size());
+
+        // The filter is part of the key, a filter choosing every IPersonAttributeDao is the same as none
+        final Map<String, List<Object>> query = Map.of("username", Util.list("awp9"));
+        dao.getPeopleWithMultivaluedAttributes(query, IPersonAttributeDaoFilter.alwaysChoose(), Set.of());
+        dao.getPeopleWithMultivaluedAttributes(query, personAttributeDao -> personAttributeDao != tie, Set.of());
+        dao.getPeopleWithMultivaluedAttributes(query, null, Set.of());
+        assertEquals(6, dao.getLastKnownGoodStore().size());
+
+        failing[0] = true;
+        assertEquals(Map.of("shirtColor", Util.list("blue")),
+            dao.getPeopleWithMultivaluedAttributes(query, personAttributeDao -> personAttributeDao != tie, Set.of()).iterator().next().getAttributes());
+        assertEquals(Map.of("shirtColor", Util.list("blue"), "tieColor", Util.list("black")),
+            dao.getPeopleWithMultivaluedAttributes(query).iterator().next().getAttributes());
+    }
+
+    @Test
+    public void testBatchResultCount() {
+        var source = new BatchingStub();
+        var dao = new LastKnownGoodPersonAttributeDao(source);
+        final List<Map<String, List<Object>>> queries = List.of(
+            Map.of("username", Util.list("awp9")), Map.of("username", Util.list("edalquist")));
+
+        assertEquals(2, dao.getBatchedPeopleWithMultivaluedAttributes(queries, null, Set.of()).size());
+        assertEquals(2, dao.getLastKnownGoodStore().size());
+
+        // A batch answering fewer queries than were asked is a failure, each query is answered from the store
+        source.dropLast = true;
+        var results = dao.getBatchedPeopleWithMultivaluedAttributes(queries, null, Set.of());
+        assertEquals(2, results.size());
+        assertTrue(StalePersonImpl.isStale(results.get(1).iterator().next()));
+        assertEquals(2, dao.getFallbackHits());
+
+        var failure = assertThrows(IllegalStateException.class, () -> dao.getBatchedPeopleWithMultivaluedAttributes(
+            List.of(Map.of("username", Util.list("dmindler")), Map.of("username", Util.list("jsmith"))), null, Set.of()));
+        assertTrue(failure.getMessage().contains("returned 1 results for 2 queries"), failure.getMessage());
+    }
+
+    @Test
+    public void testDestroyClosesStore() throws Exception {
+        var closed = new AtomicInteger();
+        class ClosingStore extends InMemoryLastKnownGoodStore implements AutoCloseable {
+            ClosingStore() {
+                super(10);
+            }
+
+            @Override
+            public void close() {
+                closed.incrementAndGet();
+            }
+        }
+
+        var dao = new LastKnownGoodPersonAttributeDao(new StubPersonAttributeDao(Map.of("shirtColor", Util.list("blue"))));
+        dao.destroy();
+        dao.setLastKnownGoodStore(new ClosingStore());
+        dao.destroy();
+        assertEquals(1, closed.get());
+    }
+
+    private static class BatchingStub extends StubPersonAttributeDao implements IBatchPersonAttributeDao {
+        private boolean dropLast;
+
+        BatchingStub() {
+            super(Map.of("shirtColor", Util.list("blue")));
+        }
+
+        @Override
+        public List<Set<IPersonAttributes>> getBatchedPeopleWithMultivaluedAttributes(final List<Map<String, List<Object>>> queries,
+                                                                                      final IPersonAttributeDaoFilter filter,
+                                                                                      final Set<IPersonAttributes> resultPeople) {
+            var results = queries.stream()
+                .map(query -> this.getPeopleWithMultivaluedAttributes(query, filter, resultPeople))
+                .toList();
+            return this.dropLast ? results.subList(0, results.size() - 1) : results;
+        }
+    }
+}
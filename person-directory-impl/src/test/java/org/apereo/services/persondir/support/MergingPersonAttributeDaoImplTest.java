@@ -22,12 +22,24 @@ import org.apereo.services.persondir.IPersonAttributeDao;
 import org.apereo.services.persondir.IPersonAttributeDaoFilter;
 import org.apereo.services.persondir.IPersonAttributes;
 import org.apereo.services.persondir.mock.ThrowingPersonAttributeDao;
+import org.apereo.services.persondir.support.jdbc.MultiRowJdbcPersonAttributeDao;
+import org.apereo.services.persondir.support.jdbc.SingleRowJdbcPersonAttributeDao;
 import org.apereo.services.persondir.support.merger.MultivaluedAttributeMerger;
 import org.apereo.services.persondir.support.merger.NoncollidingAttributeAdder;
+import org.apereo.services.persondir.support.resilience.CallNotPermittedException;
+import org.apereo.services.persondir.support.resilience.CircuitBreakerConfiguration;
+import org.apereo.services.persondir.support.resilience.PersonAttributeDaoCircuitBreaker;
 import org.apereo.services.persondir.util.Util;
+import org.hsqldb.jdbcDriver;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -36,6 +48,11 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -181,6 +198,269 @@ public class MergingPersonAttributeDaoImplTest
         assertEquals(this.oneAndTwoAndThree, result.iterator().next().getAttributes());
     }
 
+    /**
+     * Test that a failing source is no longer called once its circuit is open.
+     */
+    @Test
+    public void testCircuitBreaker() {
+        var calls = new AtomicInteger();
+        var throwingSource = new ThrowingPersonAttributeDao() {
+            @Override
+            public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query,
+                                                                             final IPersonAttributeDaoFilter filter,
+                                                                             final Set<IPersonAttributes> resultPeople) {
+                calls.incrementAndGet();
+                return super.getPeopleWithMultivaluedAttributes(query, filter, resultPeople);
+            }
+        };
+
+        var configuration = new CircuitBreakerConfiguration();
+        configuration.setSlidingWindowSize(2);
+        configuration.setMinimumNumberOfCalls(2);
+
+        var impl = new MergingPersonAttributeDaoImpl();
+        impl.setPersonAttributeDaos(List.of(this.sourceOne, throwingSource, this.sourceTwo));
+        impl.setCircuitBreakerConfiguration(configuration);
+
+        final Map<String, List<Object>> queryMap = new HashMap<>();
+        queryMap.put(queryAttr, Util.list("awp9"));
+        for (var i = 0; i < 5; i++) {
+            var result = impl.getPeopleWithMultivaluedAttributes(queryMap);
+            assertEquals(this.oneAndTwo, result.iterator().next().getAttributes());
+        }
+        assertEquals(2, calls.get());
+
+        var statistics = impl.getCircuitBreakerStatistics();
+        assertEquals(3, statistics.size());
+        assertEquals(PersonAttributeDaoCircuitBreaker.State.CLOSED, statistics.get(this.sourceOne).getState());
+        assertEquals(PersonAttributeDaoCircuitBreaker.State.OPEN, statistics.get(throwingSource).getState());
+        assertEquals(3, statistics.get(throwingSource).getNotPermittedCalls());
+
+        impl.setRecoverExceptions(false);
+        assertThrows(CallNotPermittedException.class, () -> impl.getPeopleWithMultivaluedAttributes(queryMap));
+    }
+
+    @Test
+    public void testAdaptiveOrdering() {
+        var calls = new AtomicInteger();
+        var throwingSource = new ThrowingPersonAttributeDao() {
+            @Override
+            public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query,
+                                                                             final IPersonAttributeDaoFilter filter,
+                                                                             final Set<IPersonAttributes> resultPeople) {
+                calls.incrementAndGet();
+                return super.getPeopleWithMultivaluedAttributes(query, filter, resultPeople);
+            }
+        };
+
+        var impl = new MergingPersonAttributeDaoImpl();
+        impl.setPersonAttributeDaos(List.of(throwingSource, this.sourceTwo));
+        impl.setStopOnSuccess(true);
+        impl.setAdaptiveOrdering(true);
+        impl.setAdaptiveExplorationRate(0);
+
+        final Map<String, List<Object>> queryMap = new HashMap<>();
+        queryMap.put(queryAttr, Util.list("awp9"));
+        for (var i = 0; i < 5; i++) {
+            var result = impl.getPeopleWithMultivaluedAttributes(queryMap);
+            assertEquals(this.sourceTwo.getBackingMap(), result.iterator().next().getAttributes());
+        }
+        assertEquals(1, calls.get());
+
+        impl.setAdaptiveExplorationRate(1);
+        impl.getPeopleWithMultivaluedAttributes(queryMap);
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testMemoizedMetadata() {
+        var calls = new AtomicInteger();
+        var countingSource = new StubPersonAttributeDao(this.sourceTwo.getBackingMap()) {
+            @Override
+            public Set<String> getPossibleUserAttributeNames(final IPersonAttributeDaoFilter filter) {
+                calls.incrementAndGet();
+                return super.getPossibleUserAttributeNames(filter);
+            }
+        };
+
+        var impl = new MergingPersonAttributeDaoImpl();
+        impl.setPersonAttributeDaos(List.of(this.sourceOne, countingSource, new ThrowingPersonAttributeDao()));
+        impl.setMemoizeMetadata(true);
+
+        var filter = IPersonAttributeDaoFilter.alwaysChoose();
+        var expected = impl.getPossibleUserAttributeNames(filter);
+        assertEquals(expected, impl.getPossibleUserAttributeNames(filter));
+        assertEquals(2, calls.get());
+
+        impl.setPersonAttributeDaos(List.of(this.sourceOne, countingSource));
+        assertEquals(expected, impl.getPossibleUserAttributeNames(filter));
+        assertSame(impl.getPossibleUserAttributeNames(filter), impl.getPossibleUserAttributeNames(filter));
+        assertEquals(3, calls.get());
+        assertNotNull(impl.getPossibleUserAttributeNames(null));
+        assertEquals(4, calls.get());
+
+        impl.clearMetadataCache();
+        impl.getPossibleUserAttributeNames(filter);
+        assertEquals(5, calls.get());
+    }
+
+    @Test
+    public void testOutcomes() {
+        var throwingSource = new ThrowingPersonAttributeDao();
+        var impl = new MergingPersonAttributeDaoImpl();
+        impl.setPersonAttributeDaos(List.of(this.sourceOne, this.sourceNull, throwingSource, this.sourceTwo));
+
+        final Map<String, List<Object>> queryMap = new HashMap<>();
+        queryMap.put(queryAttr, Util.list("awp9"));
+        var result = impl.getPeopleWithOutcomes(queryMap, IPersonAttributeDaoFilter.alwaysChoose(), Set.of());
+        assertEquals(this.oneAndTwo, result.getPeople().iterator().next().getAttributes());
+        assertFalse(result.isComplete());
+
+        var statuses = new ArrayList<PersonAttributeDaoOutcome.Status>();
+        result.getOutcomes().forEach(outcome -> statuses.add(outcome.getStatus()));
+        assertEquals(List.of(PersonAttributeDaoOutcome.Status.SUCCESS, PersonAttributeDaoOutcome.Status.EMPTY,
+            PersonAttributeDaoOutcome.Status.FAILED, PersonAttributeDaoOutcome.Status.SUCCESS), statuses);
+        assertSame(throwingSource, result.getOutcomes().get(2).getPersonAttributeDao());
+
+        // With stopOnSuccess the next child answers in place of the failed one
+        impl.setPersonAttributeDaos(List.of(throwingSource, this.sourceTwo));
+        impl.setStopOnSuccess(true);
+        result = impl.getPeopleWithOutcomes(queryMap, IPersonAttributeDaoFilter.alwaysChoose(), Set.of());
+        assertTrue(result.isComplete());
+        assertEquals(2, result.getOutcomes().size());
+    }
+
+    @Test
+    public void testMergesInPlaceAcrossChildren() {
+        var copies = new AtomicInteger();
+        var merger = new MultivaluedAttributeMerger() {
+            @Override
+            protected Map<String, List<Object>> buildMutableAttributeMap(final Map<String, List<Object>> attributes) {
+                copies.incrementAndGet();
+                return super.buildMutableAttributeMap(attributes);
+            }
+        };
+        final List<IPersonAttributeDao> children = new ArrayList<>();
+        for (var i = 0; i < 4; i++) {
+            children.add(new StubPersonAttributeDao(Map.of("attr" + i, Util.list("value" + i))));
+        }
+        var impl = new MergingPersonAttributeDaoImpl();
+        impl.setMerger(merger);
+        impl.setPersonAttributeDaos(children);
+
+        var person = impl.getPerson("awp9");
+        assertEquals(4, person.getAttributes().size());
+        assertEquals(Util.list("value3"), person.getAttributeValues("attr3"));
+        // Only the first merge copies the attributes, the later children are merged into the same map
+        assertEquals(1, copies.get());
+    }
+
+    @Test
+    public void testMergedValuesAreReadOnly() throws Exception {
+        final Map<String, List<Object>> cachedAttributes = new HashMap<>();
+        cachedAttributes.put("eduPersonAffiliation", new ArrayList<>(Util.list("staff")));
+        var cachingDao = new CachingPersonAttributeDaoImpl();
+        cachingDao.setCachedPersonAttributesDao(new StubPersonAttributeDao(cachedAttributes));
+        cachingDao.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider("username"));
+        cachingDao.setUserInfoCache(new HashMap<>());
+        cachingDao.afterPropertiesSet();
+
+        var impl = new MergingPersonAttributeDaoImpl();
+        impl.setPersonAttributeDaos(List.of(cachingDao, new StubPersonAttributeDao(Map.of("mail", Util.list("awp9@example.edu")))));
+
+        var merged = impl.getPerson("awp9");
+        assertEquals(Util.list("staff"), merged.getAttributeValues("eduPersonAffiliation"));
+        assertThrows(UnsupportedOperationException.class, () -> merged.getAttributeValues("eduPersonAffiliation").add("alumni"));
+
+        assertEquals(Util.list("staff"), cachingDao.getPerson("awp9").getAttributeValues("eduPersonAffiliation"));
+        assertEquals(1, cachingDao.getMisses());
+    }
+
+    @Test
+    public void testRequestScopedMemo() {
+        var calls = new AtomicInteger();
+        var sharedSource = new StubPersonAttributeDao(Map.of("shirtColor", Util.list("blue"))) {
+            @Override
+            public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query,
+                                                                             final IPersonAttributeDaoFilter filter,
+                                                                             final Set<IPersonAttributes> resultPeople) {
+                calls.incrementAndGet();
+                return super.getPeopleWithMultivaluedAttributes(query, filter, resultPeople);
+            }
+        };
+        var treeOne = new MergingPersonAttributeDaoImpl();
+        treeOne.setPersonAttributeDaos(List.of(sharedSource));
+        var treeTwo = new MergingPersonAttributeDaoImpl();
+        treeTwo.setPersonAttributeDaos(List.of(sharedSource));
+        var impl = new MergingPersonAttributeDaoImpl();
+        impl.setPersonAttributeDaos(List.<IPersonAttributeDao>of(treeOne, treeTwo));
+
+        final Map<String, List<Object>> query = new HashMap<>();
+        query.put("username", Util.list("awp9"));
+        query.put("uid", Util.list("u1"));
+        impl.getPeopleWithMultivaluedAttributes(query);
+        assertEquals(2, calls.get());
+
+        impl.setMemoizeQueries(true);
+        var people = impl.getPeopleWithMultivaluedAttributes(query);
+        assertEquals(Util.list("blue", "blue"), people.iterator().next().getAttributeValues("shirtColor"));
+        assertEquals(3, calls.get());
+        assertNull(PersonAttributeQueryContext.current());
+
+        // A context opened by the caller spans separate trees, queries differing only in order are identical
+        var scope = PersonAttributeQueryContext.open();
+        try {
+            treeOne.getPeopleWithMultivaluedAttributes(query);
+            treeTwo.getPeopleWithMultivaluedAttributes(new TreeMap<>(query));
+            impl.getPeopleWithMultivaluedAttributes(query);
+            assertEquals(3, PersonAttributeQueryContext.current().getMemoizedQueries());
+            assertEquals(3, PersonAttributeQueryContext.current().getMemoHits());
+        } finally {
+            scope.close();
+        }
+        assertEquals(4, calls.get());
+        assertNull(PersonAttributeQueryContext.current());
+    }
+
+    @Test
+    public void testHedgedRequests() throws Exception {
+        var release = new CountDownLatch(1);
+        var slowSource = new StubPersonAttributeDao(this.sourceOne.getBackingMap()) {
+            @Override
+            public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(final Map<String, List<Object>> query,
+                                                                             final IPersonAttributeDaoFilter filter,
+                                                                             final Set<IPersonAttributes> resultPeople) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getPeopleWithMultivaluedAttributes(query, filter, resultPeople);
+            }
+        };
+
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            var impl = new MergingPersonAttributeDaoImpl();
+            impl.setPersonAttributeDaos(List.of(slowSource, this.sourceTwo));
+            impl.setStopOnSuccess(true);
+            impl.setExecutorService(executor);
+            impl.setHedgeDelay(Duration.ofMillis(50));
+
+            final Map<String, List<Object>> queryMap = new HashMap<>();
+            queryMap.put(queryAttr, Util.list("awp9"));
+            var result = impl.getPeopleWithMultivaluedAttributes(queryMap);
+            assertEquals(this.sourceTwo.getBackingMap(), result.iterator().next().getAttributes());
+
+            impl.setPersonAttributeDaos(List.of(this.sourceOne, slowSource));
+            result = impl.getPeopleWithMultivaluedAttributes(queryMap);
+            assertEquals(this.sourceOne.getBackingMap(), result.iterator().next().getAttributes());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
     /**
      * Test handling of underlying sources which return null on
      * getPossibleUserAttributeNames().
@@ -271,6 +551,108 @@ public class MergingPersonAttributeDaoImplTest
         }
     }
 
+    @Test
+    public void testFusedJdbcQueries() throws Exception {
+        var database = new SimpleDriverDataSource(new jdbcDriver(), "jdbc:hsqldb:mem:fusedJdbcQueries", "sa", "");
+        var jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE person (netid VARCHAR, name VARCHAR)");
+        jdbcTemplate.execute("CREATE TABLE person_attr (netid VARCHAR, attr_name VARCHAR, attr_value VARCHAR)");
+        jdbcTemplate.update("INSERT INTO person VALUES ('awp9', 'Andrew')");
+        jdbcTemplate.update("INSERT INTO person_attr VALUES ('awp9', 'affiliation', 'staff')");
+        jdbcTemplate.update("INSERT INTO person_attr VALUES ('awp9', 'affiliation', 'alumni')");
+
+        var connections = new AtomicInteger();
+        var dataSource = new AbstractDataSource() {
+            @Override
+            public Connection getConnection() throws SQLException {
+                connections.incrementAndGet();
+                return database.getConnection();
+            }
+
+            @Override
+            public Connection getConnection(final String username, final String password) throws SQLException {
+                connections.incrementAndGet();
+                return database.getConnection(username, password);
+            }
+        };
+
+        var personDao = new SingleRowJdbcPersonAttributeDao(dataSource, "SELECT netid, name FROM person WHERE {0}");
+        personDao.setQueryAttributeMapping(Collections.singletonMap("username", "netid"));
+        var affiliationDao = new MultiRowJdbcPersonAttributeDao(dataSource, "SELECT netid, attr_name, attr_value FROM person_attr WHERE {0}");
+        affiliationDao.setQueryAttributeMapping(Collections.singletonMap("username", "netid"));
+        affiliationDao.setNameValueColumnMappings(Collections.singletonMap("attr_name", "attr_value"));
+        affiliationDao.setUnmappedUsernameAttribute("netid");
+
+        var dao = new MergingPersonAttributeDaoImpl();
+        dao.setPersonAttributeDaos(List.of(personDao, affiliationDao));
+        var expected = dao.getPerson("awp9");
+        assertEquals(2, connections.getAndSet(0));
+
+        dao.setFuseJdbcQueries(true);
+        var person = dao.getPerson("awp9");
+        assertEquals(1, connections.get());
+        assertEquals(expected.getAttributes(), person.getAttributes());
+        assertEquals(Util.list("Andrew"), person.getAttributeValues("NAME"));
+        assertEquals(Set.of("staff", "alumni"), new HashSet<>(person.getAttributeValues("affiliation")));
+
+        jdbcTemplate.execute("SHUTDOWN");
+    }
+
+    /**
+     * Test that each fused JDBC child DAO is recorded with its own duration, so a slow child trips its own
+     * slow call threshold instead of the child whose turn started the fused queries.
+     */
+    @Test
+    public void testFusedJdbcQueriesRecordEachChild() throws Exception {
+        var dataSource = new SimpleDriverDataSource(new jdbcDriver(), "jdbc:hsqldb:mem:fusedJdbcQueriesRecordEachChild", "sa", "");
+        var jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE person (netid VARCHAR, name VARCHAR)");
+        jdbcTemplate.execute("CREATE TABLE person_attr (netid VARCHAR, attr_name VARCHAR, attr_value VARCHAR)");
+        jdbcTemplate.update("INSERT INTO person VALUES ('awp9', 'Andrew')");
+        jdbcTemplate.update("INSERT INTO person_attr VALUES ('awp9', 'affiliation', 'staff')");
+
+        var calls = new AtomicInteger();
+        var personDao = new SingleRowJdbcPersonAttributeDao(dataSource, "SELECT netid, name FROM person WHERE {0}");
+        personDao.setQueryAttributeMapping(Collections.singletonMap("username", "netid"));
+        var slowDao = new MultiRowJdbcPersonAttributeDao(dataSource, "SELECT netid, attr_name, attr_value FROM person_attr WHERE {0}") {
+            @Override
+            protected List<IPersonAttributes> getPeopleForSql(final String querySQL, final Object[] arguments, final String queryUserName) {
+                calls.incrementAndGet();
+                try {
+                    Thread.sleep(300);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getPeopleForSql(querySQL, arguments, queryUserName);
+            }
+        };
+        slowDao.setQueryAttributeMapping(Collections.singletonMap("username", "netid"));
+        slowDao.setNameValueColumnMappings(Collections.singletonMap("attr_name", "attr_value"));
+        slowDao.setUnmappedUsernameAttribute("netid");
+
+        var configuration = new CircuitBreakerConfiguration();
+        configuration.setSlowCallDurationThreshold(Duration.ofMillis(150));
+        configuration.setSlowCallRateThreshold(100);
+        configuration.setSlidingWindowSize(1);
+        configuration.setMinimumNumberOfCalls(1);
+
+        var dao = new MergingPersonAttributeDaoImpl();
+        dao.setPersonAttributeDaos(List.of(personDao, slowDao));
+        dao.setCircuitBreakerConfiguration(configuration);
+        dao.setFuseJdbcQueries(true);
+
+        var person = dao.getPerson("awp9");
+        assertEquals(Util.list("staff"), person.getAttributeValues("affiliation"));
+        assertEquals(1, calls.get());
+
+        var statistics = dao.getCircuitBreakerStatistics();
+        assertEquals(PersonAttributeDaoCircuitBreaker.State.CLOSED, statistics.get(personDao).getState());
+        assertEquals(0, statistics.get(personDao).getSlowCalls());
+        assertEquals(PersonAttributeDaoCircuitBreaker.State.OPEN, statistics.get(slowDao).getState());
+
+        jdbcTemplate.execute("SHUTDOWN");
+    }
+
     @Test
     /**
      * Test handling of underlying sources which return null on 
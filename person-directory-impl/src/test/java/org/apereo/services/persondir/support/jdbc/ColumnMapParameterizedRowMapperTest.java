@@ -0,0 +1,84 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.jdbc;
+
+import org.apereo.services.persondir.util.Util;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Array;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link ColumnMapParameterizedRowMapper}.
+ */
+public class ColumnMapParameterizedRowMapperTest {
+
+    @Test
+    public void testArrayColumns() throws Exception {
+        var groups = new String[]{"cn=staff,ou=groups", "cn=alumni,ou=groups"};
+        var freed = new int[1];
+        var nativeArray = JdbcProxies.proxy(Array.class, (method, args) -> switch (method) {
+            case "getArray" -> groups;
+            case "free" -> freed[0]++;
+            default -> throw new UnsupportedOperationException(method);
+        });
+        var resultSetArray = JdbcProxies.proxy(Array.class, (method, args) -> switch (method) {
+            case "getArray" -> throw new SQLFeatureNotSupportedException();
+            case "getResultSet" -> JdbcProxies.resultSet(List.of("INDEX", "VALUE"), List.of(new Object[]{1, 1000}, new Object[]{2, 1001}));
+            case "free" -> freed[0]++;
+            default -> throw new UnsupportedOperationException(method);
+        });
+
+        var rs = JdbcProxies.resultSet(List.of("netid", "memberOf", "uidNumbers"), List.<Object[]>of(new Object[]{"awp9", nativeArray, resultSetArray}));
+        assertTrue(rs.next());
+        var row = new ColumnMapParameterizedRowMapper().mapRow(rs, 0);
+
+        assertEquals("awp9", row.get("NETID"));
+        assertEquals(Util.list("cn=staff,ou=groups", "cn=alumni,ou=groups"), row.get("memberof"));
+        assertEquals(Util.list(1000, 1001), row.get("uidNumbers"));
+        assertEquals(2, freed[0]);
+    }
+
+    @Test
+    public void testOverriddenColumnMap() throws Exception {
+        var rs = JdbcProxies.resultSet(List.of("netid", "name"), List.<Object[]>of(new Object[]{"awp9", "Andrew"}));
+        assertTrue(rs.next());
+        var row = new ColumnMapParameterizedRowMapper().mapRow(rs, 0);
+        assertThrows(UnsupportedOperationException.class, () -> row.put("email", "andrew.petro@yale.edu"));
+
+        var legacyMapper = new ColumnMapParameterizedRowMapper(true) {
+            @Override
+            protected Map<String, Object> createColumnMap(final int columnCount) {
+                return new LinkedHashMap<>(columnCount);
+            }
+        };
+        rs = JdbcProxies.resultSet(List.of("netid", "name", "email"), List.<Object[]>of(new Object[]{"awp9", "Andrew", null}));
+        assertTrue(rs.next());
+        var legacyRow = legacyMapper.mapRow(rs, 0);
+        assertEquals(LinkedHashMap.class, legacyRow.getClass());
+        assertEquals(Map.of("netid", "awp9", "name", "Andrew"), legacyRow);
+        legacyRow.put("email", "andrew.petro@yale.edu");
+        assertEquals("andrew.petro@yale.edu", legacyRow.get("email"));
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.jdbc;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Proxies of the JDBC interfaces, to test the handling of values HSQLDB does not return such as SQL arrays.
+ */
+final class JdbcProxies {
+    interface Handler {
+        Object invoke(String method, Object[] args) throws Exception;
+    }
+
+    private JdbcProxies() {
+    }
+
+    /**
+     * Proxy the methods of an interface by their name, other methods throw UnsupportedOperationException.
+     */
+    static <T> T proxy(final Class<T> type, final Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+            (proxy, method, args) -> handler.invoke(method.getName(), args)));
+    }
+
+    /**
+     * A forward only result set of the rows, with the values of each row in the order of the columns.
+     */
+    static ResultSet resultSet(final List<String> columns, final List<Object[]> rows) {
+        var metaData = proxy(ResultSetMetaData.class, (method, args) -> switch (method) {
+            case "getColumnCount" -> columns.size();
+            case "getColumnLabel", "getColumnName" -> columns.get((Integer) args[0] - 1);
+            default -> throw new UnsupportedOperationException(method);
+        });
+        final Iterator<Object[]> iterator = rows.iterator();
+        var current = new Object[1][];
+        return proxy(ResultSet.class, (method, args) -> switch (method) {
+            case "next" -> {
+                current[0] = iterator.hasNext() ? iterator.next() : null;
+                yield current[0] != null;
+            }
+            case "getMetaData" -> metaData;
+            case "findColumn" -> findColumn(columns, (String) args[0]);
+            case "getObject" -> current[0][(Integer) args[0] - 1];
+            case "getString" -> {
+                var value = current[0][(args[0] instanceof Integer index ? index : findColumn(columns, (String) args[0])) - 1];
+                yield value != null ? value.toString() : null;
+            }
+            case "close" -> null;
+            default -> throw new UnsupportedOperationException(method);
+        });
+    }
+
+    /**
+     * A SQL array of the elements.
+     */
+    static Array array(final Object... elements) {
+        return proxy(Array.class, (method, args) -> switch (method) {
+            case "getArray" -> elements;
+            case "free" -> null;
+            default -> throw new UnsupportedOperationException(method);
+        });
+    }
+
+    /**
+     * A DataSource whose prepared statements return the result set of their SQL, the other methods of its
+     * connections and statements do nothing.
+     */
+    static DataSource dataSource(final Function<String, ResultSet> resultSets) {
+        return lenientProxy(DataSource.class, (method, args) -> switch (method) {
+            case "getConnection" -> lenientProxy(Connection.class, (connectionMethod, connectionArgs) -> {
+                if (!"prepareStatement".equals(connectionMethod)) {
+                    return null;
+                }
+                var resultSet = resultSets.apply((String) connectionArgs[0]);
+                return lenientProxy(PreparedStatement.class, (statementMethod, statementArgs) ->
+                    "executeQuery".equals(statementMethod) ? resultSet : null);
+            });
+            default -> null;
+        });
+    }
+
+    private static int findColumn(final List<String> columns, final String column) throws SQLException {
+        for (var i = 0; i < columns.size(); i++) {
+            if (columns.get(i).equalsIgnoreCase(column)) {
+                return i + 1;
+            }
+        }
+        throw new SQLException("No column " + column);
+    }
+
+    /**
+     * Proxy the methods of an interface by their name, returning the default value of the return type for a null
+     * result of the handler.
+     */
+    private static <T> T lenientProxy(final Class<T> type, final Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                default:
+                    break;
+            }
+            var result = handler.invoke(method.getName(), args);
+            if (result != null || !method.getReturnType().isPrimitive()) {
+                return result;
+            }
+            var returnType = method.getReturnType();
+            if (returnType == boolean.class) {
+                return false;
+            }
+            if (returnType == int.class) {
+                return 0;
+            }
+            if (returnType == long.class) {
+                return 0L;
+            }
+            return null;
+        }));
+    }
+}
@@ -20,6 +20,7 @@ package org.apereo.services.persondir.support.jdbc;
 
 import com.google.common.collect.ImmutableMap;
 import org.apereo.services.persondir.IPersonAttributeDaoFilter;
+import org.apereo.services.persondir.IPersonAttributes;
 import org.apereo.services.persondir.support.AbstractDefaultAttributePersonAttributeDao;
 import org.apereo.services.persondir.support.SimpleUsernameAttributeProvider;
 import org.apereo.services.persondir.util.CaseCanonicalizationMode;
@@ -29,7 +30,10 @@ import org.springframework.jdbc.BadSqlGrammarException;
 
 import javax.sql.DataSource;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -267,6 +271,176 @@ public class MultiRowJdbcPersonAttributeDaoTest
         assertEquals(Util.list("Andrew"), attribs.get("firstName"));
     }
 
+    /**
+     * Test that batched queries find the same people as the queries run one by one
+     */
+    @Test
+    public void testBatchedQueries() {
+        var impl = new MultiRowJdbcPersonAttributeDao(testDataSource, "SELECT netid, attr_name, attr_val FROM user_table WHERE {0}");
+        impl.setQueryAttributeMapping(Collections.singletonMap("uid", "netid"));
+        impl.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider("uid"));
+        impl.setUnmappedUsernameAttribute("netid");
+        impl.setNameValueColumnMappings(Collections.singletonMap("attr_name", "attr_val"));
+        impl.setBatchSize(2);
+
+        final List<Map<String, List<Object>>> queries = List.of(
+            Map.of("uid", Util.list("awp9")),
+            Map.of("uid", Util.list("edalquist"), "shirtColor", Util.list("blue")),
+            Map.of("uid", Util.list("nobody")),
+            Map.of("uid", Util.list("a*")),
+            Map.of("uid", Util.list("awp9")),
+            Map.of("uid", Util.list("susan")));
+        var results = impl.getBatchedPeopleWithMultivaluedAttributes(queries, IPersonAttributeDaoFilter.alwaysChoose(), null);
+
+        assertEquals(queries.size(), results.size());
+        for (var i = 0; i < queries.size(); i++) {
+            assertEquals(attributesByName(impl.getPeopleWithMultivaluedAttributes(queries.get(i))), attributesByName(results.get(i)));
+        }
+        assertEquals("Eric", results.get(1).iterator().next().getAttributeValue("name"));
+        assertTrue(results.get(2).isEmpty());
+        assertEquals(2, results.get(3).size());
+    }
+
+    @Test
+    public void testStatementSettings() {
+        var impl = new MultiRowJdbcPersonAttributeDao(testDataSource, "SELECT netid, attr_name, attr_val FROM user_table WHERE {0} ORDER BY netid");
+        impl.setQueryAttributeMapping(Collections.singletonMap("uid", "netid"));
+        impl.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider("uid"));
+        impl.setUnmappedUsernameAttribute("netid");
+        impl.setNameValueColumnMappings(Collections.singletonMap("attr_name", "attr_val"));
+        impl.setFetchSize(1);
+        impl.setMaxRows(4);
+        impl.setQueryTimeout(Duration.ofMillis(1500));
+        impl.setStreamResults(true);
+
+        var people = impl.getPeopleWithMultivaluedAttributes(Map.of("uid", Util.list("*")));
+        final Set<String> names = new LinkedHashSet<>();
+        people.forEach(person -> names.add(person.getName()));
+        assertEquals(Set.of("atest", "awp9"), names);
+        assertEquals(2, impl.getJdbcTemplate().getQueryTimeout());
+
+        impl.setMaxRows(-1);
+        assertEquals(4, impl.getPeopleWithMultivaluedAttributes(Map.of("uid", Util.list("*"))).size());
+    }
+
+    @Test
+    public void testAggregation() {
+        var impl = new MultiRowJdbcPersonAttributeDao(testDataSource, "SELECT netid, attr_name, attr_val FROM user_table WHERE {0}");
+        impl.setQueryAttributeMapping(Collections.singletonMap("uid", "netid"));
+        impl.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider("uid"));
+        impl.setUnmappedUsernameAttribute("netid");
+        impl.setNameValueColumnMappings(Collections.singletonMap("attr_name", "attr_val"));
+        var expected = impl.getPeopleWithMultivaluedAttributes(Map.of("uid", Util.list("awp9")));
+
+        impl.setAggregation(MultiRowJdbcPersonAttributeDao.Aggregation.ARRAY);
+        assertEquals("SELECT pd_rows.netid AS netid, pd_rows.attr_name AS attr_name, array_agg(pd_rows.attr_val) AS attr_val"
+                     + " FROM (SELECT 1) pd_rows GROUP BY pd_rows.netid, pd_rows.attr_name", impl.getAggregatedSql("SELECT 1"));
+        impl.setAggregation(MultiRowJdbcPersonAttributeDao.Aggregation.JSON);
+        assertTrue(impl.getAggregatedSql("SELECT 1").startsWith("SELECT pd_names.netid AS netid, "
+                                                                + "json_object_agg(pd_names.attr_name, pd_names.attr_val) AS pd_attributes"));
+
+        // HSQLDB has no json_object_agg, the query is run without aggregation, other SQL is still aggregated
+        assertEquals(expected, impl.getPeopleWithMultivaluedAttributes(Map.of("uid", Util.list("awp9"))));
+        assertNotNull(impl.getAggregatedSql("SELECT 1"));
+
+        final Map<String, List<Object>> attributes = new LinkedHashMap<>();
+        MultiRowJdbcPersonAttributeDao.addJsonAttributes(attributes, "{\"shirt_color\":[\"blue\",\"red\"],\"name\":[\"Andrew\"]}");
+        assertEquals(Map.of("shirt_color", Util.list("blue", "red"), "name", Util.list("Andrew")), attributes);
+    }
+
+    /**
+     * Test that a rejected aggregation is remembered for the SQL of its query until the retry interval has passed.
+     */
+    @Test
+    public void testRejectedAggregation() {
+        final List<String> queries = new ArrayList<>();
+        var dataSource = JdbcProxies.dataSource(sql -> {
+            queries.add(sql);
+            if (sql.contains("json_object_agg")) {
+                throw new BadSqlGrammarException("json", sql, new SQLException("no json_object_agg"));
+            }
+            return JdbcProxies.resultSet(List.of("netid", "attr_name", "attr_val"), List.<Object[]>of(
+                new Object[]{"awp9", "name", "Andrew"}));
+        });
+
+        var impl = new MultiRowJdbcPersonAttributeDao(dataSource, "SELECT netid, attr_name, attr_val FROM user_table WHERE {0}");
+        impl.setQueryAttributeMapping(Collections.singletonMap("uid", "netid"));
+        impl.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider("uid"));
+        impl.setUnmappedUsernameAttribute("netid");
+        impl.setNameValueColumnMappings(Collections.singletonMap("attr_name", "attr_val"));
+        impl.setAggregation(MultiRowJdbcPersonAttributeDao.Aggregation.JSON);
+
+        final Map<String, List<Object>> query = Map.of("uid", Util.list("awp9"));
+        assertEquals(1, impl.getPeopleWithMultivaluedAttributes(query).size());
+        assertEquals(2, queries.size());
+        assertEquals(1, impl.getPeopleWithMultivaluedAttributes(query).size());
+        assertEquals(3, queries.size());
+        assertFalse(queries.get(2).contains("json_object_agg"));
+
+        // Other SQL is still aggregated
+        impl.getPeopleWithMultivaluedAttributes(Map.of("uid", Util.list("awp9", "edalquist")));
+        assertEquals(5, queries.size());
+        assertTrue(queries.get(3).contains("json_object_agg"));
+
+        // Once the retry interval has passed the aggregation is tried again
+        impl.setAggregationRetryInterval(Duration.ZERO);
+        impl.getPeopleWithMultivaluedAttributes(query);
+        assertEquals(7, queries.size());
+        assertTrue(queries.get(5).contains("json_object_agg"));
+    }
+
+    /**
+     * Test that the rows of each {@link MultiRowJdbcPersonAttributeDao.Aggregation} are read into the same people,
+     * with result sets as PostgreSQL returns them for the aggregated SQL.
+     */
+    @Test
+    public void testAggregatedResultSets() {
+        final List<String> queries = new ArrayList<>();
+        var dataSource = JdbcProxies.dataSource(sql -> {
+            queries.add(sql);
+            if (sql.contains("json_object_agg")) {
+                return JdbcProxies.resultSet(List.of("netid", "pd_attributes"), List.<Object[]>of(
+                    new Object[]{"awp9", "{\"shirt_color\":[\"blue\",\"red\"],\"name\":[\"Andrew\"],\"phone\":[null]}"}));
+            }
+            if (sql.contains("array_agg")) {
+                return JdbcProxies.resultSet(List.of("netid", "attr_name", "attr_val"), List.of(
+                    new Object[]{"awp9", "shirt_color", JdbcProxies.array("blue", "red")},
+                    new Object[]{"awp9", "name", JdbcProxies.array("Andrew")},
+                    new Object[]{"awp9", "phone", JdbcProxies.array((Object) null)}));
+            }
+            return JdbcProxies.resultSet(List.of("netid", "attr_name", "attr_val"), List.of(
+                new Object[]{"awp9", "shirt_color", "blue"},
+                new Object[]{"awp9", "name", "Andrew"},
+                new Object[]{"awp9", "shirt_color", "red"},
+                new Object[]{"awp9", "phone", null}));
+        });
+
+        var impl = new MultiRowJdbcPersonAttributeDao(dataSource, "SELECT netid, attr_name, attr_val FROM user_table WHERE {0}");
+        impl.setQueryAttributeMapping(Collections.singletonMap("uid", "netid"));
+        impl.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider("uid"));
+        impl.setUnmappedUsernameAttribute("netid");
+        impl.setNameValueColumnMappings(Collections.singletonMap("attr_name", "attr_val"));
+
+        final Map<String, List<Object>> expected = new HashMap<>();
+        expected.put("shirt_color", Util.list("blue", "red"));
+        expected.put("name", Util.list("Andrew"));
+        expected.put("phone", Util.list((Object) null));
+        for (var aggregation : MultiRowJdbcPersonAttributeDao.Aggregation.values()) {
+            impl.setAggregation(aggregation);
+            var people = impl.getPeopleWithMultivaluedAttributes(Map.of("uid", Util.list("awp9")));
+
+            assertEquals(1, people.size());
+            var person = people.iterator().next();
+            assertEquals("awp9", person.getName());
+            assertEquals(expected, person.getAttributes(), aggregation.name());
+        }
+
+        assertEquals(3, queries.size());
+        assertFalse(queries.get(0).contains("_agg("));
+        assertTrue(queries.get(1).contains("array_agg(") && !queries.get(1).contains("json_object_agg("));
+        assertTrue(queries.get(2).contains("json_object_agg("));
+    }
+
     /**
      * Test for a query with a single attribute
      */
@@ -490,4 +664,11 @@ public class MultiRowJdbcPersonAttributeDaoTest
         return impl;
     }
 
+    private static Map<String, Map<String, List<Object>>> attributesByName(final Set<IPersonAttributes> people) {
+        final Map<String, Map<String, List<Object>>> attributesByName = new HashMap<>();
+        for (var person : people) {
+            attributesByName.put(person.getName(), person.getAttributes());
+        }
+        return attributesByName;
+    }
 }
@@ -0,0 +1,158 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.jdbc;
+
+import org.apereo.services.persondir.support.SimpleUsernameAttributeProvider;
+import org.apereo.services.persondir.util.Util;
+import org.hsqldb.jdbcDriver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link NamedParameterJdbcPersonAttributeDao}.
+ */
+public class NamedParameterJdbcPersonAttributeDaoTest {
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private DataSource testDataSource;
+
+    @BeforeEach
+    public void setUp() {
+        var database = new SimpleDriverDataSource(new jdbcDriver(), "jdbc:hsqldb:mem:namedParameterJdbc", "sa", "");
+        var jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE user_role (netid VARCHAR, role VARCHAR)");
+        jdbcTemplate.update("INSERT INTO user_role VALUES ('awp9', 'staff')");
+        jdbcTemplate.update("INSERT INTO user_role VALUES ('awp9', 'alumni')");
+        jdbcTemplate.update("INSERT INTO user_role VALUES ('awp9', 'staff')");
+        jdbcTemplate.update("INSERT INTO user_role VALUES ('edalquist', 'faculty')");
+
+        this.testDataSource = new AbstractDataSource() {
+            @Override
+            public Connection getConnection() throws SQLException {
+                connections.incrementAndGet();
+                return database.getConnection();
+            }
+
+            @Override
+            public Connection getConnection(final String username, final String password) throws SQLException {
+                connections.incrementAndGet();
+                return database.getConnection(username, password);
+            }
+        };
+    }
+
+    @AfterEach
+    public void tearDown() {
+        new JdbcTemplate(this.testDataSource).execute("SHUTDOWN");
+    }
+
+    private NamedParameterJdbcPersonAttributeDao newDao(final String sql) throws Exception {
+        var dao = new NamedParameterJdbcPersonAttributeDao();
+        dao.setDataSource(this.testDataSource);
+        dao.setSql(sql);
+        dao.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider("username"));
+        dao.setUserAttributeNames(Set.of("role"));
+        return dao;
+    }
+
+    @Test
+    public void testSingleValuedParameter() throws Exception {
+        var dao = newDao("SELECT role FROM user_role WHERE netid = :username");
+        dao.afterPropertiesSet();
+
+        var person = dao.getPerson("awp9");
+        assertEquals("awp9", person.getName());
+        assertEquals(Util.list("staff", "alumni"), person.getAttributeValues("role"));
+
+        var unknown = dao.getPerson("nobody");
+        assertNull(unknown.getAttributeValues("role"));
+    }
+
+    @Test
+    public void testMultiValuedParameter() throws Exception {
+        var dao = newDao("SELECT role FROM user_role WHERE netid IN (:uid)");
+        dao.setExpandMultiValuedParameters(true);
+        dao.afterPropertiesSet();
+
+        var people = dao.getPeopleWithMultivaluedAttributes(Map.of("username", Util.list("awp9"),
+            "uid", Util.list("awp9", "edalquist")));
+        var person = people.iterator().next();
+        assertEquals(Set.of("staff", "alumni", "faculty"), new HashSet<>(person.getAttributeValues("role")));
+    }
+
+    @Test
+    public void testBatchedQueries() throws Exception {
+        var dao = newDao("SELECT netid, role FROM user_role WHERE netid IN (:username)");
+        dao.setExpandMultiValuedParameters(true);
+        dao.setUsernameColumn("netid");
+        dao.setBatchSize(2);
+        dao.afterPropertiesSet();
+
+        final List<Map<String, List<Object>>> queries = List.of(
+            Map.of("username", Util.list("awp9"), "email", Util.list("awp9@example.edu")),
+            Map.of("username", Util.list("edalquist")),
+            Map.of("username", Util.list("nobody")));
+        var results = dao.getBatchedPeopleWithMultivaluedAttributes(queries, null, null);
+        assertEquals(2, connections.get());
+        assertEquals(3, results.size());
+
+        var awp9 = results.get(0).iterator().next();
+        assertEquals("awp9", awp9.getName());
+        assertEquals(Util.list("staff", "alumni"), awp9.getAttributeValues("role"));
+        assertEquals(Util.list("faculty"), results.get(1).iterator().next().getAttributeValues("role"));
+        assertTrue(results.get(2).iterator().next().getAttributes().isEmpty());
+    }
+
+    @Test
+    public void testArrayColumns() throws Exception {
+        var freed = new int[1];
+        var roles = JdbcProxies.proxy(Array.class, (method, args) -> switch (method) {
+            case "getArray" -> new String[]{"staff", "alumni"};
+            case "free" -> freed[0]++;
+            default -> throw new UnsupportedOperationException(method);
+        });
+        final List<Object[]> rows = List.of(new Object[]{"awp9", roles}, new Object[]{"awp9", "staff"});
+
+        var dao = new NamedParameterJdbcPersonAttributeDao();
+        dao.setDataSource(JdbcProxies.dataSource(sql -> JdbcProxies.resultSet(List.of("netid", "role"), rows)));
+        dao.setSql("SELECT netid, role FROM user_roles WHERE netid = :username");
+        dao.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider("username"));
+        dao.setUserAttributeNames(Set.of("role"));
+        dao.afterPropertiesSet();
+
+        assertEquals(Util.list("staff", "alumni"), dao.getPerson("awp9").getAttributeValues("role"));
+        assertEquals(1, freed[0]);
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.jdbc;
+
+import org.apereo.services.persondir.support.PersonAttributeQueryContext;
+import org.hsqldb.jdbcDriver;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link ReplicaRoutingDataSource}.
+ */
+public class ReplicaRoutingDataSourceTest {
+    private static DataSource replica(final String name) {
+        return new SimpleDriverDataSource(new jdbcDriver(), "jdbc:hsqldb:mem:" + name, "sa", "");
+    }
+
+    private static String urlOf(final Connection connection) throws SQLException {
+        return connection.getMetaData().getURL();
+    }
+
+    @Test
+    public void testRoundRobin() throws Exception {
+        var dataSource = new ReplicaRoutingDataSource(List.of(replica("replicaA"), replica("replicaB")));
+
+        final List<String> urls = new ArrayList<>();
+        for (var i = 0; i < 4; i++) {
+            try (var connection = dataSource.getConnection()) {
+                urls.add(urlOf(connection));
+            }
+        }
+        assertEquals(urls.get(0), urls.get(2));
+        assertEquals(urls.get(1), urls.get(3));
+        assertNotEquals(urls.get(0), urls.get(1));
+        assertEquals(List.of(0, 0), dataSource.getOutstandingConnections());
+    }
+
+    @Test
+    public void testLeastOutstanding() throws Exception {
+        var dataSource = new ReplicaRoutingDataSource(List.of(replica("replicaA"), replica("replicaB")));
+        dataSource.setSelectionStrategy(ReplicaRoutingDataSource.SelectionStrategy.LEAST_OUTSTANDING);
+
+        try (var first = dataSource.getConnection()) {
+            for (var i = 0; i < 3; i++) {
+                try (var connection = dataSource.getConnection()) {
+                    assertNotEquals(urlOf(first), urlOf(connection));
+                }
+            }
+            assertEquals(1, dataSource.getOutstandingConnections().stream().mapToInt(Integer::intValue).sum());
+        }
+        assertEquals(List.of(0, 0), dataSource.getOutstandingConnections());
+    }
+
+    @Test
+    public void testEjection() throws Exception {
+        var failures = new AtomicInteger();
+        var failing = new AbstractDataSource() {
+            @Override
+            public Connection getConnection() throws SQLException {
+                failures.incrementAndGet();
+                throw new SQLException("replica down");
+            }
+
+            @Override
+            public Connection getConnection(final String username, final String password) throws SQLException {
+                return getConnection();
+            }
+        };
+        var dataSource = new ReplicaRoutingDataSource(List.of(failing, replica("replicaA")));
+        dataSource.setFailureThreshold(2);
+        dataSource.setEjectionDuration(Duration.ofMinutes(1));
+
+        for (var i = 0; i < 6; i++) {
+            try (var connection = dataSource.getConnection()) {
+                assertEquals("jdbc:hsqldb:mem:replicaA", urlOf(connection));
+            }
+        }
+        assertEquals(2, failures.get());
+        assertEquals(1, dataSource.getHealthyReplicaCount());
+
+        var allFailing = new ReplicaRoutingDataSource(List.of(failing));
+        var e = assertThrows(SQLException.class, allFailing::getConnection);
+        assertEquals("replica down", e.getMessage());
+    }
+
+    @Test
+    public void testPinRequests() throws Exception {
+        var dataSource = new ReplicaRoutingDataSource(List.of(replica("replicaA"), replica("replicaB")));
+        dataSource.setPinRequests(true);
+
+        var scope = PersonAttributeQueryContext.open();
+        try {
+            String pinned;
+            try (var connection = dataSource.getConnection()) {
+                pinned = urlOf(connection);
+            }
+            for (var i = 0; i < 3; i++) {
+                try (var connection = dataSource.getConnection()) {
+                    assertEquals(pinned, urlOf(connection));
+                }
+            }
+        } finally {
+            scope.close();
+        }
+    }
+
+    @Test
+    public void testConnectionProxy() throws Exception {
+        var dataSource = new ReplicaRoutingDataSource(List.of(replica("replicaA")));
+
+        try (var connection = dataSource.getConnection(); var other = dataSource.getConnection()) {
+            assertEquals(connection, connection);
+            assertNotEquals(connection, other);
+            assertEquals(connection.hashCode(), connection.hashCode());
+            assertTrue(connection.toString().contains("Connection of replica"));
+
+            // HSQLDB 1.8 predates the JDBC 4 wrapper methods, the proxy answers for the interfaces it implements
+            assertTrue(connection.isWrapperFor(Connection.class));
+            assertSame(connection, connection.unwrap(Connection.class));
+        }
+        assertEquals(List.of(0), dataSource.getOutstandingConnections());
+    }
+}
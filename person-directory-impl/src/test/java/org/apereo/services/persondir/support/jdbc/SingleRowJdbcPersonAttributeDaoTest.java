@@ -19,10 +19,14 @@
 package org.apereo.services.persondir.support.jdbc;
 
 import org.apereo.services.persondir.IPersonAttributeDaoFilter;
+import org.apereo.services.persondir.IPersonAttributes;
 import org.apereo.services.persondir.support.AbstractDefaultAttributePersonAttributeDao;
+import org.apereo.services.persondir.support.NamedPersonImpl;
 import org.apereo.services.persondir.support.SimpleUsernameAttributeProvider;
+import org.apereo.services.persondir.util.CaseCanonicalizationMode;
 import org.apereo.services.persondir.util.Util;
 import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.RowMapper;
 
 import javax.sql.DataSource;
 import java.sql.SQLException;
@@ -182,6 +186,99 @@ public class SingleRowJdbcPersonAttributeDaoTest
         assertEquals(Util.list("Andrew"), attribs.get("firstName"));
     }
 
+    /**
+     * Test that batched queries find the same people as the queries run one by one
+     */
+    @Test
+    public void testBatchedQueries() {
+        var impl = new SingleRowJdbcPersonAttributeDao(testDataSource, "SELECT netid, name, email, shirt_color FROM user_table WHERE {0}");
+        impl.setQueryAttributeMapping(Collections.singletonMap("uid", "netid"));
+        impl.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider("uid"));
+        impl.setBatchSize(2);
+
+        final List<Map<String, List<Object>>> queries = List.of(
+            Map.of("uid", Util.list("awp9")),
+            Map.of("uid", Util.list("edalquist"), "shirtColor", Util.list("blue")),
+            Map.of("uid", Util.list("nobody")),
+            Map.of("uid", Util.list("a*")),
+            Map.of("uid", Util.list("awp9")),
+            Map.of("uid", Util.list("susan")));
+        var results = impl.getBatchedPeopleWithMultivaluedAttributes(queries, IPersonAttributeDaoFilter.alwaysChoose(), null);
+
+        assertEquals(queries.size(), results.size());
+        for (var i = 0; i < queries.size(); i++) {
+            assertEquals(attributesByName(impl.getPeopleWithMultivaluedAttributes(queries.get(i))), attributesByName(results.get(i)));
+        }
+        assertEquals("Eric", results.get(1).iterator().next().getAttributeValue("NAME"));
+        assertTrue(results.get(2).isEmpty());
+    }
+
+    /**
+     * Test that batched statements returning rows which match none of their values are run one query at a time
+     */
+    @Test
+    public void testBatchedQueriesOfUnmatchedRows() {
+        var impl = new SingleRowJdbcPersonAttributeDao(testDataSource, "SELECT u.netid, u.name FROM user_table u WHERE {0}");
+        impl.setQueryAttributeMapping(Collections.singletonMap("uid", "u.netid"));
+        impl.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider("uid"));
+        impl.setBatchSize(2);
+
+        var results = impl.getBatchedPeopleWithMultivaluedAttributes(
+            List.of(Map.of("uid", Util.list("awp9")), Map.of("uid", Util.list("edalquist")), Map.of("uid", Util.list("nobody"))),
+            IPersonAttributeDaoFilter.alwaysChoose(), null);
+        assertEquals("Andrew", results.get(0).iterator().next().getAttributeValue("NAME"));
+        assertEquals("Eric", results.get(1).iterator().next().getAttributeValue("NAME"));
+        assertTrue(results.get(2).isEmpty());
+    }
+
+    /**
+     * Test that rows which can not be split by column are not batched
+     */
+    @Test
+    public void testBatchedQueriesOfCustomRows() {
+        var impl = new AbstractJdbcPersonAttributeDao<String>(testDataSource, "SELECT netid FROM user_table WHERE {0}") {
+            @Override
+            protected RowMapper<String> getRowMapper() {
+                return (rs, rowNum) -> rs.getString(1);
+            }
+
+            @Override
+            protected List<IPersonAttributes> parseAttributeMapFromResults(final List<String> queryResults, final String queryUserName) {
+                final List<IPersonAttributes> people = new LinkedList<>();
+                for (var netid : queryResults) {
+                    people.add(new NamedPersonImpl(netid, Map.of("netid", Util.list(netid))));
+                }
+                return people;
+            }
+        };
+        impl.setQueryAttributeMapping(Collections.singletonMap("uid", "netid"));
+        impl.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider("uid"));
+        impl.setBatchSize(2);
+
+        var results = impl.getBatchedPeopleWithMultivaluedAttributes(
+            List.of(Map.of("uid", Util.list("awp9")), Map.of("uid", Util.list("edalquist"))), IPersonAttributeDaoFilter.alwaysChoose(), null);
+        assertEquals("awp9", results.get(0).iterator().next().getName());
+        assertEquals("edalquist", results.get(1).iterator().next().getName());
+    }
+
+    @Test
+    public void testColumnCanonicalizationReconfiguration() {
+        var impl = new SingleRowJdbcPersonAttributeDao(testDataSource, "SELECT netid, name FROM user_table WHERE {0}");
+        impl.setQueryAttributeMapping(Collections.singletonMap("uid", "netid"));
+        impl.setUsernameAttributeProvider(new SimpleUsernameAttributeProvider("uid"));
+
+        assertNotNull(impl.getPerson("awp9"));
+        assertNull(impl.getPerson("AWP9"));
+
+        // The cached column expressions must follow the column canonicalization
+        impl.setCaseInsensitiveDataAttributes(Collections.singletonMap("netid", CaseCanonicalizationMode.UPPER));
+        assertNotNull(impl.getPerson("AWP9"));
+        impl.setDefaultCaseCanonicalizationMode(CaseCanonicalizationMode.NONE);
+        impl.setCaseInsensitiveDataAttributes(Collections.singletonMap("netid", null));
+        assertNull(impl.getPerson("AWP9"));
+        assertNotNull(impl.getPerson("awp9"));
+    }
+
     /**
      * Test for a query with a single attribute
      */
@@ -400,4 +497,11 @@ public class SingleRowJdbcPersonAttributeDaoTest
         return impl;
     }
 
+    private static Map<String, Map<String, List<Object>>> attributesByName(final Set<IPersonAttributes> people) {
+        final Map<String, Map<String, List<Object>>> attributesByName = new HashMap<>();
+        for (var person : people) {
+            attributesByName.put(person.getName(), person.getAttributes());
+        }
+        return attributesByName;
+    }
 }
@@ -0,0 +1,61 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.jdbc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link SlotIndexedRow}.
+ */
+public class SlotIndexedRowTest {
+
+    @Test
+    public void testBehavesLikeCaseInsensitiveTreeMap() {
+        var columnKeys = List.of("NETID", "name", "Email", "netid", "shirt_color");
+        var columns = new SlotIndexedRow.Columns(columnKeys);
+        assertEquals(5, columns.getColumnCount());
+        assertEquals(columns.slotOfColumn(0), columns.slotOfColumn(3));
+
+        final Object[] values = {"awp9", "Andrew", null, "AWP9", "blue"};
+        for (var ignoreNull : new boolean[]{true, false}) {
+            var row = new SlotIndexedRow(columns);
+            final Map<String, Object> expected = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (var i = 0; i < values.length; i++) {
+                if (!ignoreNull || values[i] != null) {
+                    row.set(columns.slotOfColumn(i), values[i]);
+                    expected.put(columnKeys.get(i), values[i]);
+                }
+            }
+
+            assertEquals(expected, row);
+            assertEquals(List.copyOf(expected.keySet()), List.copyOf(row.keySet()));
+            assertEquals("AWP9", row.get("netId"));
+            assertEquals(!ignoreNull, row.containsKey("email"));
+            assertFalse(row.containsKey("missing"));
+            assertNull(row.get(1));
+            assertThrows(UnsupportedOperationException.class, () -> row.put("name", "Eric"));
+        }
+    }
+}
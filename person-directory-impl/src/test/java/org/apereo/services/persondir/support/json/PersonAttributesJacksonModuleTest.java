@@ -0,0 +1,132 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.json;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apereo.services.persondir.IPersonAttributes;
+import org.apereo.services.persondir.support.JsonBackedComplexStubPersonAttributeDao;
+import org.apereo.services.persondir.support.NamedPersonImpl;
+import org.apereo.services.persondir.util.Util;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link PersonAttributesJacksonModule}.
+ */
+public class PersonAttributesJacksonModuleTest {
+    private final ObjectMapper mapper = new ObjectMapper().registerModule(new PersonAttributesJacksonModule());
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final Map<String, List<Object>> attributes = new LinkedHashMap<>();
+        attributes.put("givenName", Util.list("Andrew"));
+        attributes.put("eduPersonAffiliation", Util.list("staff", "alumni"));
+        attributes.put("uidNumber", Util.list(1000));
+        attributes.put("enabled", Util.list(true, null));
+        var person = new NamedPersonImpl("awp9", attributes);
+
+        var json = mapper.writeValueAsString(person);
+        assertEquals("{\"name\":\"awp9\",\"attributes\":{\"givenName\":[\"Andrew\"],"
+                     + "\"eduPersonAffiliation\":[\"staff\",\"alumni\"],\"uidNumber\":[1000],"
+                     + "\"enabled\":[true,null]}}", json);
+
+        var read = mapper.readValue(json, IPersonAttributes.class);
+        assertEquals("awp9", read.getName());
+        assertEquals(attributes, read.getAttributes());
+    }
+
+    @Test
+    public void testUnnamedPerson() throws Exception {
+        var read = mapper.readValue("{\"attributes\":{\"username\":\"edalquist\",\"nested\":[{\"a\":1}]}}",
+            IPersonAttributes.class);
+        assertEquals("edalquist", read.getName());
+        assertEquals(Util.list("edalquist"), read.getAttributeValues("username"));
+        assertEquals(Map.of("a", 1), read.getAttributeValue("nested"));
+    }
+
+    @Test
+    public void testFloatValues() throws Exception {
+        var json = "{\"name\":\"awp9\",\"attributes\":{\"gpa\":[3.75]}}";
+        assertEquals(Util.list(3.75d), mapper.readValue(json, IPersonAttributes.class).getAttributeValues("gpa"));
+
+        var bigDecimalMapper = new ObjectMapper().registerModule(new PersonAttributesJacksonModule())
+            .enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+        assertEquals(Util.list(new BigDecimal("3.75")),
+            bigDecimalMapper.readValue(json, IPersonAttributes.class).getAttributeValues("gpa"));
+    }
+
+    @Test
+    public void testBigIntegerValues() throws Exception {
+        var json = "{\"name\":\"awp9\",\"attributes\":{\"uidNumber\":[1000,12345678901]}}";
+        assertEquals(Util.list(1000, 12345678901L), mapper.readValue(json, IPersonAttributes.class).getAttributeValues("uidNumber"));
+
+        var bigIntegerMapper = new ObjectMapper().registerModule(new PersonAttributesJacksonModule())
+            .enable(DeserializationFeature.USE_BIG_INTEGER_FOR_INTS);
+        assertEquals(Util.list(BigInteger.valueOf(1000), BigInteger.valueOf(12345678901L)),
+            bigIntegerMapper.readValue(json, IPersonAttributes.class).getAttributeValues("uidNumber"));
+    }
+
+    @Test
+    public void testLongValues() throws Exception {
+        var json = "{\"name\":\"awp9\",\"attributes\":{\"uidNumber\":1000}}";
+        var longMapper = new ObjectMapper().registerModule(new PersonAttributesJacksonModule())
+            .enable(DeserializationFeature.USE_LONG_FOR_INTS);
+        assertEquals(Util.list(1000L), longMapper.readValue(json, IPersonAttributes.class).getAttributeValues("uidNumber"));
+    }
+
+    @Test
+    public void testReadBackingMap() throws Exception {
+        var json = "{\"u1\":{\"firstName\":[\"Json1\"],\"eduPersonAffiliation\":[\"alumni\",\"staff\"]},"
+                   + "\"u2\":{\"firstName\":[\"Json2\"]}}";
+        try (var parser = mapper.createParser(json)) {
+            var backingMap = PersonAttributesJsonDeserializer.readBackingMap(parser);
+            assertEquals(2, backingMap.size());
+            assertEquals(Util.list("alumni", "staff"), backingMap.get("u1").get("eduPersonAffiliation"));
+            assertEquals(Util.list("Json2"), backingMap.get("u2").get("firstName"));
+        }
+        try (var parser = mapper.createParser("{\"u1\":[\"Json1\"]}")) {
+            assertThrows(JsonParseException.class, () -> PersonAttributesJsonDeserializer.readBackingMap(parser));
+        }
+    }
+
+    @Test
+    public void testJsonBackedDao() throws Exception {
+        var json = "{\"u1\":{\"firstName\":[\"Json1\"],\"lastName\":[\"One\"]}}";
+        var dao = new JsonBackedComplexStubPersonAttributeDao(new ByteArrayResource(json.getBytes(StandardCharsets.UTF_8)));
+        dao.init();
+        var person = dao.getPerson("u1");
+        assertNotNull(person);
+        assertEquals("One", person.getAttributeValue("lastName"));
+
+        var invalid = new JsonBackedComplexStubPersonAttributeDao(new ByteArrayResource("[]".getBytes(StandardCharsets.UTF_8)));
+        assertThrows(BeanCreationException.class, invalid::init);
+    }
+}
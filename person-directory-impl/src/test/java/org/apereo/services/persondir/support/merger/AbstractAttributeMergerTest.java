@@ -18,9 +18,21 @@
  */
 package org.apereo.services.persondir.support.merger;
 
+import org.apereo.services.persondir.IPersonAttributes;
+import org.apereo.services.persondir.support.NamedPersonImpl;
+import org.apereo.services.persondir.util.Util;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -61,6 +73,106 @@ public abstract class AbstractAttributeMergerTest {
         fail("Should have thrown IAE on null argument.");
     }
 
+    /**
+     * Test that the merge accumulator gives the same people, in the same order, as successive
+     * calls to mergeResults and does not modify the people added to it.
+     */
+    @Test
+    public void testMergeAccumulator() {
+        final List<Set<IPersonAttributes>> sources = new ArrayList<>();
+        sources.add(people(person("edalquist", "phone", "555-1234", "name", "Eric"),
+            person("awp9", "name", "Andrew")));
+        sources.add(people(person("awp9", "phone", "555-0000", "name", "Drew"),
+            person("jdoe", "name", "John")));
+        sources.add(people(person("edalquist", "phone", "555-4321", "title", "Developer")));
+        sources.add(people(person("awp9", "name", "Andrew", "title", "Architect")));
+
+        Set<IPersonAttributes> expected = null;
+        for (var source : sources) {
+            if (expected == null) {
+                expected = new LinkedHashSet<>(source);
+            } else {
+                expected = getAttributeMerger().mergeResults(expected, source);
+            }
+        }
+
+        var accumulator = getAttributeMerger().newMergeAccumulator();
+        assertNull(accumulator.getResults());
+        Set<IPersonAttributes> firstResults = null;
+        for (var source : sources) {
+            accumulator.add(source);
+            if (firstResults == null) {
+                firstResults = accumulator.getResults();
+            }
+        }
+
+        assertEquals(attributesByName(expected), attributesByName(accumulator.getResults()));
+        assertEquals(attributesByName(sources.get(0)), attributesByName(firstResults));
+        assertEquals(Util.list("555-1234"), sources.get(0).iterator().next().getAttributeValues("phone"));
+    }
+
+    /**
+     * Test that the current results of the merge accumulator can be read from several threads at once, as the
+     * children of a concurrent cascade do.
+     */
+    @Test
+    public void testCurrentResultsReadConcurrently() throws Exception {
+        var first = people(person("edalquist", "phone", "555-1234", "name", "Eric"));
+        var second = people(person("edalquist", "phone", "555-4321", "title", "Developer"));
+        var expected = attributesByName(getAttributeMerger().mergeResults(new LinkedHashSet<>(first), second));
+
+        var threads = 8;
+        var executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (var i = 0; i < 200; i++) {
+                var accumulator = getAttributeMerger().newMergeAccumulator();
+                accumulator.add(first);
+                accumulator.add(second);
+                var current = accumulator.getCurrentResults();
+
+                var start = new CountDownLatch(1);
+                final List<Callable<Map<String, Map<String, List<Object>>>>> readers = new ArrayList<>();
+                for (var j = 0; j < threads; j++) {
+                    readers.add(() -> {
+                        start.await();
+                        return attributesByName(current);
+                    });
+                }
+                var futures = readers.stream().map(executor::submit).toList();
+                start.countDown();
+                for (var future : futures) {
+                    assertEquals(expected, future.get());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Map<String, Map<String, List<Object>>> attributesByName(final Set<IPersonAttributes> people) {
+        final Map<String, Map<String, List<Object>>> attributes = new LinkedHashMap<>();
+        for (var person : people) {
+            attributes.put(person.getName(), new LinkedHashMap<>(person.getAttributes()));
+        }
+        return attributes;
+    }
+
+    private static Set<IPersonAttributes> people(final IPersonAttributes... people) {
+        final Set<IPersonAttributes> result = new LinkedHashSet<>();
+        for (var person : people) {
+            result.add(person);
+        }
+        return result;
+    }
+
+    private static IPersonAttributes person(final String name, final String... attributes) {
+        final Map<String, List<Object>> attributeMap = new LinkedHashMap<>();
+        for (var i = 0; i < attributes.length; i += 2) {
+            attributeMap.put(attributes[i], Util.list(attributes[i + 1]));
+        }
+        return new NamedPersonImpl(name, attributeMap);
+    }
+
     protected abstract IAttributeMerger getAttributeMerger();
 
 }
@@ -21,6 +21,9 @@ package org.apereo.services.persondir.support.merger;
 import org.apereo.services.persondir.util.Util;
 import org.junit.jupiter.api.Test;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -57,6 +60,63 @@ public class MultivaluedAttributeMergerTest extends AbstractAttributeMergerTest
         assertEquals(expected, result);
     }
 
+    @Test
+    public void testAddDistinctByHash() {
+        final Map<String, List<Object>> someAttributes = new HashMap<>();
+        someAttributes.put("attName", Util.list("AttValue", 1, "x"));
+
+        final Map<String, List<Object>> secondAttributes = new HashMap<>();
+        secondAttributes.put("attName", Util.list(1L, "attValue", 1, " X ", "attValue"));
+
+        var adder = new MultivaluedAttributeMerger();
+        adder.setDistinctValueEquality(ValueEquality.EXACT);
+        var result = adder.mergeAttributes(copy(someAttributes), secondAttributes);
+        assertEquals(Util.list("AttValue", 1, "x", 1L, "attValue", " X "), result.get("attName"));
+
+        adder.setDistinctValueEquality(ValueEquality.CASE_INSENSITIVE);
+        result = adder.mergeAttributes(copy(someAttributes), secondAttributes);
+        assertEquals(Util.list("AttValue", 1, "x", 1L, " X "), result.get("attName"));
+
+        adder.setDistinctValueEquality(ValueEquality.NORMALIZED);
+        result = adder.mergeAttributes(copy(someAttributes), secondAttributes);
+        assertEquals(Util.list("AttValue", 1, "x"), result.get("attName"));
+
+        // Numbers are compared by value, including multiples of ten
+        final List<Object> numbers = Util.list(100L, 100.0d, new BigDecimal("100"), new BigDecimal("1E+2"),
+            BigInteger.valueOf(100), 100, 100.5f, new BigDecimal("100.50"), 0, new BigDecimal("0.000"));
+        assertEquals(Util.list(100L, 100.5f, 0), ValueEquality.NORMALIZED.distinct(numbers, null));
+        assertEquals(numbers, ValueEquality.EXACT.distinct(numbers, null));
+    }
+
+    @Test
+    public void testAddDistinctLargeGroups() {
+        final List<Object> groups = new ArrayList<>();
+        final List<Object> moreGroups = new ArrayList<>();
+        for (var i = 0; i < 5000; i++) {
+            groups.add("group" + i);
+            moreGroups.add("group" + (i + 2500));
+        }
+
+        final Map<String, List<Object>> someAttributes = new HashMap<>();
+        someAttributes.put("memberOf", groups);
+        final Map<String, List<Object>> secondAttributes = new HashMap<>();
+        secondAttributes.put("memberOf", moreGroups);
+
+        var adder = new MultivaluedAttributeMerger();
+        adder.setDistinctValueEquality(ValueEquality.EXACT);
+        var result = adder.mergeAttributes(someAttributes, secondAttributes).get("memberOf");
+        assertEquals(7500, result.size());
+        for (var i = 0; i < 7500; i++) {
+            assertEquals("group" + i, result.get(i));
+        }
+    }
+
+    private static Map<String, List<Object>> copy(final Map<String, List<Object>> attributes) {
+        final Map<String, List<Object>> copy = new HashMap<>();
+        attributes.forEach((name, values) -> copy.put(name, new ArrayList<>(values)));
+        return copy;
+    }
+
     /**
      * Test identity of adding an empty map.
      */
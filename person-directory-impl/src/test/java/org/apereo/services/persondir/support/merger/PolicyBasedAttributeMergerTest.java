@@ -0,0 +1,89 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.merger;
+
+import org.apereo.services.persondir.util.Util;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Testcase for the PolicyBasedAttributeMerger.
+ */
+public class PolicyBasedAttributeMergerTest extends AbstractAttributeMergerTest {
+
+    @Test
+    public void testPerAttributePolicies() {
+        final Map<String, List<Object>> someAttributes = new HashMap<>();
+        someAttributes.put("mail", Util.list("eric@example.edu"));
+        someAttributes.put("eduPersonAffiliation", Util.list("staff", "member"));
+        someAttributes.put("displayName", Util.list("Eric"));
+        someAttributes.put("phone", Util.list("555-1234"));
+
+        final Map<String, List<Object>> secondAttributes = new HashMap<>();
+        secondAttributes.put("mail", Util.list("edalquist@example.edu"));
+        secondAttributes.put("eduPersonAffiliation", Util.list("member", "alumni"));
+        secondAttributes.put("displayName", Util.list("Eric Dalquist"));
+        secondAttributes.put("phone", Util.list("555-4321"));
+        secondAttributes.put("title", Util.list("Developer"));
+
+        var merger = new PolicyBasedAttributeMerger(Map.of(
+            "mail", AttributeMergePolicy.REPLACE,
+            "eduPersonAffiliation", AttributeMergePolicy.ADD_DISTINCT,
+            "displayName", AttributeMergePolicy.NONCOLLIDING), AttributeMergePolicy.ADD);
+        var result = merger.mergeAttributes(someAttributes, secondAttributes);
+
+        final Map<String, List<Object>> expected = new HashMap<>();
+        expected.put("mail", Util.list("edalquist@example.edu"));
+        expected.put("eduPersonAffiliation", Util.list("staff", "member", "alumni"));
+        expected.put("displayName", Util.list("Eric"));
+        expected.put("phone", Util.list("555-1234", "555-4321"));
+        expected.put("title", Util.list("Developer"));
+        assertEquals(expected, result);
+    }
+
+    @Test
+    public void testDefaultPolicy() {
+        final Map<String, List<Object>> someAttributes = new HashMap<>();
+        someAttributes.put("mail", Util.list("eric@example.edu"));
+        someAttributes.put("phone", Util.list("555-1234"));
+
+        final Map<String, List<Object>> secondAttributes = new HashMap<>();
+        secondAttributes.put("mail", Util.list("edalquist@example.edu"));
+        secondAttributes.put("phone", Util.list("555-4321"));
+
+        var merger = new PolicyBasedAttributeMerger();
+        merger.setAttributePolicies(Map.of("phone", AttributeMergePolicy.ADD));
+        merger.setDefaultPolicy(AttributeMergePolicy.NONCOLLIDING);
+        assertEquals(AttributeMergePolicy.ADD, merger.getAttributePolicies().get("phone"));
+
+        var result = merger.mergeAttributes(someAttributes, secondAttributes);
+        assertEquals(Util.list("eric@example.edu"), result.get("mail"));
+        assertEquals(Util.list("555-1234", "555-4321"), result.get("phone"));
+    }
+
+    @Override
+    protected IAttributeMerger getAttributeMerger() {
+        return new PolicyBasedAttributeMerger(Map.of("name", AttributeMergePolicy.REPLACE), AttributeMergePolicy.ADD_DISTINCT);
+    }
+}
@@ -18,12 +18,18 @@
  */
 package org.apereo.services.persondir.support.merger;
 
+import org.apereo.services.persondir.IPersonAttributes;
+import org.apereo.services.persondir.support.NamedPersonImpl;
 import org.apereo.services.persondir.util.Util;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -58,6 +64,53 @@ public class ReplacingAttributeAdderTest extends AbstractAttributeMergerTest {
         assertEquals(expected, result);
     }
 
+    /**
+     * Test that merging the results of a 6 source cascade shares the value lists the merges did not replace
+     * instead of copying them, read-only so that the merged people cannot modify the sources.
+     */
+    @Test
+    public void testSharedValueLists() {
+        final List<Object> groups = new ArrayList<>();
+        for (var i = 0; i < 1000; i++) {
+            groups.add("group" + i);
+        }
+
+        final List<List<Object>> sourceValues = new ArrayList<>();
+        var accumulator = this.adder.newMergeAccumulator();
+        Set<IPersonAttributes> legacyResults = null;
+        for (var source = 0; source < 6; source++) {
+            final Map<String, List<Object>> attributes = new LinkedHashMap<>();
+            if (source == 0) {
+                attributes.put("memberOf", groups);
+            }
+            var values = Util.list("value" + source);
+            attributes.put("attr" + source, values);
+            attributes.put("lastSource", Util.list(source));
+            sourceValues.add(values);
+
+            final Set<IPersonAttributes> people = Set.of(new NamedPersonImpl("edalquist", attributes));
+            accumulator.add(people);
+            accumulator.getResults();
+            legacyResults = legacyResults == null ? new LinkedHashSet<>(people) : this.adder.mergeResults(legacyResults, people);
+        }
+
+        for (var results : List.of(accumulator.getResults(), legacyResults)) {
+            var person = results.iterator().next();
+            var memberOf = person.getAttributeValues("memberOf");
+            assertEquals(groups, memberOf);
+            assertThrows(UnsupportedOperationException.class, () -> memberOf.add("group1000"));
+            for (var source = 0; source < 6; source++) {
+                assertEquals(sourceValues.get(source), person.getAttributes().get("attr" + source));
+            }
+            assertEquals(Util.list(5), person.getAttributeValues("lastSource"));
+            assertEquals(8, person.getAttributes().size());
+        }
+
+        // Not copied, a change to the source is seen through the read-only view
+        groups.add("group1000");
+        assertEquals(1001, accumulator.getResults().iterator().next().getAttributeValues("memberOf").size());
+    }
+
     /* (non-Javadoc)
      * @see org.jasig.services.persondir.support.merger.AbstractAttributeMergerTest#getAttributeMerger()
      */
@@ -0,0 +1,52 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.resilience;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Testcase for the LatencyRecorder.
+ */
+public class LatencyRecorderTest {
+
+    @Test
+    public void testPercentiles() {
+        var recorder = new LatencyRecorder(10);
+        assertEquals(-1, recorder.getPercentile(50));
+
+        for (var i = 1; i <= 10; i++) {
+            recorder.record(i * 100);
+        }
+        assertEquals(10, recorder.getCount());
+        assertEquals(500, recorder.getPercentile(50));
+        assertEquals(1000, recorder.getPercentile(95));
+        assertEquals(100, recorder.getPercentile(1));
+
+        // only the 10 most recent calls are kept
+        for (var i = 0; i < 5; i++) {
+            recorder.record(5000);
+        }
+        assertEquals(10, recorder.getCount());
+        assertEquals(1000, recorder.getPercentile(50));
+        assertEquals(5000, recorder.getPercentile(60));
+        assertThrows(IllegalArgumentException.class, () -> recorder.getPercentile(0));
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.resilience;
+
+import org.apereo.services.persondir.IPersonAttributes;
+import org.apereo.services.persondir.support.NamedPersonImpl;
+import org.apereo.services.persondir.util.Util;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link MappedFileLastKnownGoodStore}.
+ */
+public class MappedFileLastKnownGoodStoreTest {
+
+    @Test
+    public void testRoundTrip(@TempDir final Path directory) throws Exception {
+        var file = directory.resolve("lkg.dat");
+        final Set<IPersonAttributes> people = Set.of(new NamedPersonImpl("awp9", Map.of("eduPersonAffiliation", Util.list("staff", "alumni"))));
+
+        try (var store = new MappedFileLastKnownGoodStore(file, 16, 1024)) {
+            store.put("awp9", new LastKnownGoodEntry(people, 1000));
+            store.put("huge", new LastKnownGoodEntry(Set.of(new NamedPersonImpl("huge", Map.of("a", Util.list("x".repeat(2000))))), 1000));
+            assertNull(store.get("huge"));
+            assertEquals(1, store.size());
+        }
+
+        try (var store = new MappedFileLastKnownGoodStore(file, 16, 1024)) {
+            assertEquals(1, store.size());
+            var entry = store.get("awp9");
+            assertNotNull(entry);
+            assertEquals(1000, entry.getStoredAt().toEpochMilli());
+            var person = entry.getPeople().iterator().next();
+            assertEquals("awp9", person.getName());
+            assertEquals(Util.list("staff", "alumni"), person.getAttributeValues("eduPersonAffiliation"));
+            assertNull(store.get("edalquist"));
+
+            store.remove("awp9");
+            assertNull(store.get("awp9"));
+            assertEquals(0, store.size());
+        }
+    }
+
+    @Test
+    public void testTooLargeReplacesEntry(@TempDir final Path directory) throws Exception {
+        try (var store = new MappedFileLastKnownGoodStore(directory.resolve("lkg.dat"), 16, 1024)) {
+            store.put("awp9", new LastKnownGoodEntry(Set.of(new NamedPersonImpl("awp9", Map.of("a", Util.list("x")))), 1000));
+            assertNotNull(store.get("awp9"));
+
+            store.put("awp9", new LastKnownGoodEntry(Set.of(new NamedPersonImpl("awp9", Map.of("a", Util.list("x".repeat(2000))))), 2000));
+            assertNull(store.get("awp9"));
+            assertEquals(0, store.size());
+        }
+    }
+}
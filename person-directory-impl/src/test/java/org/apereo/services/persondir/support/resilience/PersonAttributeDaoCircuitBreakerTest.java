@@ -0,0 +1,134 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apereo.services.persondir.support.resilience;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Testcase for the PersonAttributeDaoCircuitBreaker.
+ */
+public class PersonAttributeDaoCircuitBreakerTest {
+    private static final Instant NOW = Instant.parse("2024-01-01T00:00:00Z");
+
+    private static CircuitBreakerConfiguration configuration() {
+        var configuration = new CircuitBreakerConfiguration();
+        configuration.setSlidingWindowSize(4);
+        configuration.setMinimumNumberOfCalls(4);
+        configuration.setFailureRateThreshold(50);
+        configuration.setSlowCallRateThreshold(75);
+        configuration.setSlowCallDurationThreshold(Duration.ofSeconds(1));
+        configuration.setWaitDurationInOpenState(Duration.ofSeconds(30));
+        configuration.setPermittedNumberOfCallsInHalfOpenState(2);
+        return configuration;
+    }
+
+    @Test
+    public void testOpensOnFailureRate() {
+        var circuitBreaker = new PersonAttributeDaoCircuitBreaker("ldap", configuration());
+        circuitBreaker.setClock(Clock.fixed(NOW, ZoneOffset.UTC));
+
+        for (var i = 0; i < 3; i++) {
+            assertTrue(circuitBreaker.tryAcquirePermission());
+            circuitBreaker.onSuccess(0);
+        }
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        circuitBreaker.onError(0);
+        assertEquals(PersonAttributeDaoCircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(25f, circuitBreaker.getStatistics().getFailureRate());
+
+        circuitBreaker.onError(0);
+        assertEquals(PersonAttributeDaoCircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.tryAcquirePermission());
+        assertEquals(1, circuitBreaker.getStatistics().getNotPermittedCalls());
+    }
+
+    @Test
+    public void testOpensOnSlowCallRate() {
+        var circuitBreaker = new PersonAttributeDaoCircuitBreaker("ldap", configuration());
+
+        for (var i = 0; i < 3; i++) {
+            circuitBreaker.onSuccess(TimeUnit.SECONDS.toNanos(2));
+        }
+        circuitBreaker.onSuccess(0);
+        assertEquals(PersonAttributeDaoCircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void testHalfOpen() {
+        var circuitBreaker = new PersonAttributeDaoCircuitBreaker("ldap", configuration());
+        circuitBreaker.setClock(Clock.fixed(NOW, ZoneOffset.UTC));
+        for (var i = 0; i < 4; i++) {
+            circuitBreaker.onError(0);
+        }
+        assertFalse(circuitBreaker.tryAcquirePermission());
+
+        circuitBreaker.setClock(Clock.fixed(NOW.plusSeconds(30), ZoneOffset.UTC));
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        assertFalse(circuitBreaker.tryAcquirePermission());
+        assertEquals(PersonAttributeDaoCircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+        circuitBreaker.onSuccess(0);
+        circuitBreaker.onError(0);
+        assertEquals(PersonAttributeDaoCircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        circuitBreaker.setClock(Clock.fixed(NOW.plusSeconds(60), ZoneOffset.UTC));
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        circuitBreaker.onSuccess(0);
+        circuitBreaker.onSuccess(0);
+        assertEquals(PersonAttributeDaoCircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(0, circuitBreaker.getStatistics().getBufferedCalls());
+    }
+
+    @Test
+    public void testConfigurationIsCopied() {
+        var configuration = configuration();
+        var circuitBreaker = new PersonAttributeDaoCircuitBreaker("ldap", configuration);
+        configuration.setSlidingWindowSize(10);
+        configuration.setMinimumNumberOfCalls(10);
+        configuration.setSlowCallDurationThreshold(Duration.ofSeconds(5));
+
+        for (var i = 0; i < 8; i++) {
+            circuitBreaker.onSuccess(0);
+        }
+        assertEquals(4, circuitBreaker.getStatistics().getBufferedCalls());
+
+        for (var i = 0; i < 3; i++) {
+            circuitBreaker.onSuccess(TimeUnit.SECONDS.toNanos(2));
+        }
+        assertEquals(PersonAttributeDaoCircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void testMinimumNumberOfCallsLargerThanWindow() {
+        var configuration = configuration();
+        configuration.setMinimumNumberOfCalls(5);
+        assertThrows(IllegalArgumentException.class, configuration::validate);
+        assertThrows(IllegalArgumentException.class, () -> new PersonAttributeDaoCircuitBreaker("ldap", configuration));
+    }
+}